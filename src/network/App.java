@@ -1,12 +1,27 @@
 package network;
 
+import java.io.BufferedInputStream;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
 import java.util.stream.Stream;
 import javax.swing.SwingUtilities;
+import network.backend.Autotuner;
+import network.core.ConvLayer;
+import network.core.ILayer;
+import network.core.Layer;
+import network.core.MaxPoolLayer;
 import network.core.NeuralNetwork;
+import network.data.IdxImageReader;
+import network.distillation.DistillationTrainer;
+import network.inference.Cascade;
+import network.inference.Ensemble;
+import network.math.MathBenchmark;
+import network.scoring.BatchScorer;
+import network.server.InferenceServer;
+import network.sweep.SweepRunner;
 import network.swing.DisplayFrame;
 import network.trainer.NetworkTrainer;
 import network.trainer.TrainerParams;
@@ -19,17 +34,31 @@ public class App<T> {
   private static final boolean TRANSFORM = false;
   private static final Random RANDOM = new Random();
 
-  public static void main(String[] args) {
+  public static void main(String[] args)
+    throws IOException, InterruptedException {
+    if (args.length > 0) {
+      final String[] commandArgs = Arrays.copyOfRange(args, 1, args.length);
+      switch (args[0]) {
+        case "serve" -> InferenceServer.main(commandArgs);
+        case "score" -> BatchScorer.main(commandArgs);
+        case "sweep" -> SweepRunner.main(commandArgs);
+        case "math" -> MathBenchmark.main(commandArgs);
+        case "cascade" -> Cascade.main(commandArgs);
+        case "distil" -> DistillationTrainer.main(commandArgs);
+        case "ensemble" -> Ensemble.main(commandArgs);
+        case "tune" -> Autotuner.main(commandArgs);
+        default -> System.err.println("Unknown command: " + args[0]);
+      }
+      return;
+    }
+
     SwingUtilities.invokeLater(DisplayFrame::new);
   }
 
   public NetworkTrainer<T> start(int[] layerSizes, int iterations)
     throws IOException {
     final TrainerParams params = new TrainerParams(layerSizes);
-    final DataPoint[] trainingInputs = readData(
-      "assets/train-images.idx3-ubyte",
-      "assets/train-labels.idx1-ubyte"
-    );
+    final DataPoint[] trainingInputs = readTrainingData();
     final NetworkTrainer<T> trainer = new NetworkTrainer<>(
       params,
       trainingInputs
@@ -44,10 +73,7 @@ public class App<T> {
       "Training time: " + (System.currentTimeMillis() - startTime) + "ms"
     );
 
-    final DataPoint[] testingInputs = readData(
-      "assets/t10k-images.idx3-ubyte",
-      "assets/t10k-labels.idx1-ubyte"
-    );
+    final DataPoint[] testingInputs = readTestingData();
 
     final byte NUM_TESTS = 5;
     double accuracy = 0;
@@ -71,66 +97,117 @@ public class App<T> {
     return trainer;
   }
 
-  private static DataPoint[] readData(String imagesPath, String labelsPath)
-    throws IOException {
-    final ClassLoader classLoader = App.class.getClassLoader();
-    final DataInputStream imageStream = new DataInputStream(
-      classLoader.getResourceAsStream(imagesPath)
+  /**
+   * A small convolutional network for the MNIST images, which needs far
+   * fewer parameters than the fully connected {@code int[]} layouts.
+   * <p>It trains best with a much smaller learn rate than those, around
+   * 0.05.</p>
+   * @return the layers of the network, from input to output
+   */
+  public static <T> List<ILayer<T>> convolutionalLayers() {
+    final ConvLayer<T> first = new ConvLayer<>(1, IMAGE_SIDE, 6, 5);
+    final MaxPoolLayer<T> firstPool = new MaxPoolLayer<>(
+      first.getOutputChannels(),
+      first.getOutputSide(),
+      2
     );
-    final DataInputStream labelStream = new DataInputStream(
-      classLoader.getResourceAsStream(labelsPath)
+    final ConvLayer<T> second = new ConvLayer<>(
+      first.getOutputChannels(),
+      firstPool.getOutputSide(),
+      12,
+      5
     );
+    final MaxPoolLayer<T> secondPool = new MaxPoolLayer<>(
+      second.getOutputChannels(),
+      second.getOutputSide(),
+      2
+    );
+    final Layer<T> output = new Layer<>(secondPool.getNumNodesOut(), 10);
 
-    imageStream.readInt();
-    final int numImages = imageStream.readInt();
-
-    if (IMAGE_SIZE != imageStream.readInt() * imageStream.readInt()) {
-      throw new IllegalStateException("Image size is not correct");
-    }
+    return List.of(first, firstPool, second, secondPool, output);
+  }
 
-    labelStream.readInt();
-    labelStream.readInt();
+  /**
+   * Reads the MNIST training set from the assets.
+   * @return the training data points
+   * @throws IOException if the data could not be read
+   */
+  public static DataPoint[] readTrainingData() throws IOException {
+    return readData(
+      "assets/train-images.idx3-ubyte",
+      "assets/train-labels.idx1-ubyte"
+    );
+  }
 
-    final DataPoint[] dataPoints = new DataPoint[numImages];
-    final byte[] imageData = new byte[IMAGE_SIZE];
+  /**
+   * Reads the MNIST testing set from the assets.
+   * @return the testing data points
+   * @throws IOException if the data could not be read
+   */
+  public static DataPoint[] readTestingData() throws IOException {
+    return readData(
+      "assets/t10k-images.idx3-ubyte",
+      "assets/t10k-labels.idx1-ubyte"
+    );
+  }
 
-    for (int i = 0; i < numImages; i++) {
-      imageStream.readFully(imageData);
+  private static DataPoint[] readData(String imagesPath, String labelsPath)
+    throws IOException {
+    final ClassLoader classLoader = App.class.getClassLoader();
 
-      final Double[][] tempImage = new Double[IMAGE_SIDE][IMAGE_SIDE];
-      for (int j = 0; j < IMAGE_SIDE; j++) {
-        final Double[] innerImage = new Double[IMAGE_SIDE];
-        for (int k = 0; k < IMAGE_SIDE; k++) {
-          innerImage[k] = (imageData[j * k] & 0xFF) / 255d;
-        }
-        tempImage[j] = innerImage;
+    try (
+      IdxImageReader images = new IdxImageReader(
+        classLoader.getResourceAsStream(imagesPath),
+        IMAGE_SIZE
+      );
+      DataInputStream labelStream = new DataInputStream(
+        new BufferedInputStream(classLoader.getResourceAsStream(labelsPath))
+      )
+    ) {
+      labelStream.readInt();
+      labelStream.readInt();
+
+      final DataPoint[] dataPoints = new DataPoint[images.size()];
+
+      for (int i = 0; i < dataPoints.length; i++) {
+        double[] image = images.read();
+        if (TRANSFORM) image = transform(image);
+
+        final byte label = labelStream.readByte();
+        final double[] expectedOutputs = new double[10];
+        expectedOutputs[label] = 1;
+        dataPoints[i] = new DataPoint(image, expectedOutputs, label);
       }
 
-      if (TRANSFORM) {
-        final int xOff = RANDOM.nextInt(-3, 3);
-        final int yOff = RANDOM.nextInt(-3, 3);
-        for (int j = 0; j < tempImage.length; j++) {
-          shiftArray(tempImage[j], xOff);
-        }
-        shiftArray(tempImage, yOff);
+      return dataPoints;
+    }
+  }
 
-        rotateArray(tempImage, RANDOM.nextDouble(-0.1, 0.1));
+  /**
+   * Randomly shifts and rotates an image.
+   * @param image the row by row pixels of the image
+   * @return the transformed image
+   */
+  private static double[] transform(double[] image) {
+    final Double[][] tempImage = new Double[IMAGE_SIDE][IMAGE_SIDE];
+    for (int j = 0; j < IMAGE_SIDE; j++) {
+      final Double[] innerImage = new Double[IMAGE_SIDE];
+      for (int k = 0; k < IMAGE_SIDE; k++) {
+        innerImage[k] = image[j * IMAGE_SIDE + k];
       }
+      tempImage[j] = innerImage;
+    }
 
-      final double[] image = flatten(tempImage)
-        .mapToDouble(Double.class::cast)
-        .toArray();
-
-      final byte label = labelStream.readByte();
-      final double[] expectedOutputs = new double[10];
-      expectedOutputs[label] = 1;
-      dataPoints[i] = new DataPoint(image, expectedOutputs, label);
+    final int xOff = RANDOM.nextInt(-3, 3);
+    final int yOff = RANDOM.nextInt(-3, 3);
+    for (int j = 0; j < tempImage.length; j++) {
+      shiftArray(tempImage[j], xOff);
     }
+    shiftArray(tempImage, yOff);
 
-    imageStream.close();
-    labelStream.close();
+    rotateArray(tempImage, RANDOM.nextDouble(-0.1, 0.1));
 
-    return dataPoints;
+    return flatten(tempImage).mapToDouble(Double.class::cast).toArray();
   }
 
   private static void rotateArray(Double[][] matrix, double theta) {
@@ -0,0 +1,63 @@
+package network;
+
+/**
+ * A window onto a run of indices into an array of data points, used as a
+ * mini batch without copying the data points themselves.
+ * <p>A view can be moved along its indices, so a single view can serve
+ * every batch of an epoch.</p>
+ */
+public final class BatchView {
+
+  private final DataPoint[] data;
+  private final int[] indices;
+  private int start;
+  private int size;
+
+  /**
+   * @param data the data points the indices refer to
+   * @param indices the order to visit the data points in
+   * @param size the number of indices in each batch
+   */
+  public BatchView(DataPoint[] data, int[] indices, int size) {
+    this.data = data;
+    this.indices = indices;
+    moveTo(0, size);
+  }
+
+  /**
+   * @param data the data points to view, in order
+   * @return a view of every data point in the array
+   */
+  public static BatchView of(DataPoint[] data) {
+    final int[] indices = new int[data.length];
+    for (int i = 0; i < indices.length; i++) indices[i] = i;
+    return new BatchView(data, indices, data.length);
+  }
+
+  /**
+   * Moves the view to a different run of indices.
+   * @param start the position of the first index of the batch
+   * @param size the number of indices in the batch
+   */
+  public void moveTo(int start, int size) {
+    if (start < 0 || size < 0 || start + size > indices.length) {
+      throw new IndexOutOfBoundsException(
+        "Batch [" + start + ", " + (start + size) + ") of " + indices.length
+      );
+    }
+    this.start = start;
+    this.size = size;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @param i the position of the data point in the batch
+   * @return the data point
+   */
+  public DataPoint get(int i) {
+    return data[indices[start + i]];
+  }
+}
@@ -1,7 +1,36 @@
 package network.activation;
 
-public interface IActivation {
+import java.io.Serializable;
+
+/**
+ * An activation function, applied to a whole layer at a time so the loop over
+ * the nodes is compiled separately for each function.
+ */
+public interface IActivation extends Serializable {
   void function(double[] weightedInputs);
 
   double[] derivative(double[] weightedInputs);
+
+  /**
+   * Calculates the partial derivatives of the cost with respect to each
+   * weighted input, from those with respect to each activation.
+   * <p>Functions override this to use the activations they already computed
+   * and to avoid allocating, as it runs for every layer of every sample.</p>
+   * @param weightedInputs the weighted inputs of the layer
+   * @param activations the activations of the layer
+   * @param outputGradients the partial derivatives of the cost with respect
+   * to each activation
+   * @param nodeValues the array to store the result in
+   */
+  default void backward(
+    double[] weightedInputs,
+    double[] activations,
+    double[] outputGradients,
+    double[] nodeValues
+  ) {
+    final double[] derivatives = derivative(weightedInputs);
+    for (int i = 0; i < nodeValues.length; i++) {
+      nodeValues[i] = outputGradients[i] * derivatives[i];
+    }
+  }
 }
@@ -2,6 +2,8 @@ package network.activation;
 
 public class ReLU implements IActivation {
 
+  private static final long serialVersionUID = 1L;
+
   /**
    * Rectified Linear Unit function
    * @param weightedInputs the weighted inputs to feed into the function
@@ -26,4 +28,16 @@ public class ReLU implements IActivation {
     }
     return derivatives;
   }
+
+  @Override
+  public void backward(
+    double[] weightedInputs,
+    double[] activations,
+    double[] outputGradients,
+    double[] nodeValues
+  ) {
+    for (int i = 0; i < nodeValues.length; i++) {
+      nodeValues[i] = weightedInputs[i] > 0 ? outputGradients[i] : 0;
+    }
+  }
 }
@@ -1,18 +1,32 @@
 package network.activation;
 
 import java.util.Arrays;
+import network.math.MathTier;
 
 public class Sigmoid implements IActivation {
 
+  private static final long serialVersionUID = 1L;
+
+  private final MathTier tier;
+
+  public Sigmoid() {
+    this(MathTier.POLYNOMIAL);
+  }
+
+  /**
+   * @param tier the accuracy to evaluate the function at
+   */
+  public Sigmoid(MathTier tier) {
+    this.tier = tier;
+  }
+
   /**
    * Math sigmoid function to squish values between 0 and 1.
    * @param weightedInputs the weighted inputs to feed into the function
    */
   @Override
   public void function(double[] weightedInputs) {
-    for (int i = 0; i < weightedInputs.length; i++) {
-      weightedInputs[i] = 1 / (1 + exp(-weightedInputs[i]));
-    }
+    tier.sigmoid(weightedInputs);
   }
 
   /**
@@ -33,8 +47,37 @@ public class Sigmoid implements IActivation {
     return derivatives;
   }
 
-  private static double exp(double val) {
-    final long tmp = (long) (1512775 * val + 1072632447);
-    return Double.longBitsToDouble(tmp << 32);
+  /**
+   * The derivative of the sigmoid function is {@code a * (1 - a)}, so it can
+   * be found from the activations without evaluating the function again.
+   * @param weightedInputs the weighted inputs of the layer
+   * @param activations the activations of the layer
+   * @param outputGradients the partial derivatives of the cost with respect
+   * to each activation
+   * @param nodeValues the array to store the result in
+   */
+  @Override
+  public void backward(
+    double[] weightedInputs,
+    double[] activations,
+    double[] outputGradients,
+    double[] nodeValues
+  ) {
+    for (int i = 0; i < nodeValues.length; i++) {
+      final double activation = activations[i];
+      nodeValues[i] = outputGradients[i] * activation * (1 - activation);
+    }
+  }
+
+  public MathTier getTier() {
+    return tier;
+  }
+
+  /**
+   * Sigmoids saved before the tier could be picked always used the bit trick.
+   * @return this, or an equivalent sigmoid if no tier was saved
+   */
+  private Object readResolve() {
+    return tier == null ? new Sigmoid(MathTier.BIT_TRICK) : this;
   }
 }
@@ -1,16 +1,35 @@
 package network.activation;
 
-import java.util.Arrays;
+import network.math.MathTier;
 
 public class SoftMax implements IActivation {
 
+  private static final long serialVersionUID = 1L;
+
+  private final MathTier tier;
+
+  public SoftMax() {
+    this(MathTier.POLYNOMIAL);
+  }
+
+  /**
+   * @param tier the accuracy to evaluate the exponentials at
+   */
+  public SoftMax(MathTier tier) {
+    this.tier = tier;
+  }
+
   @Override
   public void function(double[] weightedInputs) {
     final double max = getMax(weightedInputs);
 
+    for (int i = 0; i < weightedInputs.length; i++) {
+      weightedInputs[i] -= max;
+    }
+    tier.exp(weightedInputs);
+
     double sum = 0;
     for (int i = 0; i < weightedInputs.length; i++) {
-      weightedInputs[i] = Math.exp(weightedInputs[i] - max);
       sum += weightedInputs[i];
     }
     if (sum == 0) sum = 1;
@@ -20,34 +39,54 @@ public class SoftMax implements IActivation {
     }
   }
 
+  /**
+   * A soft max has no elementwise derivative, as every activation depends on
+   * every weighted input, so it only supports {@link #backward}.
+   * @throws UnsupportedOperationException always
+   */
   @Override
   public double[] derivative(double[] weightedInputs) {
-    final int len = weightedInputs.length;
-
-    final double[] softMax = Arrays.copyOf(weightedInputs, len);
-    function(softMax);
-
-    final double[][] jacobian = new double[len][len];
-    for (int i = 0; i < len; i++) {
-      for (int j = 0; j < len; j++) {
-        if (i == j) {
-          jacobian[i][j] = softMax[i] * (1.0 - softMax[i]);
-        } else {
-          jacobian[i][j] = -softMax[i] * softMax[j];
-        }
-      }
-    }
+    throw new UnsupportedOperationException(
+      "A soft max has no elementwise derivative, use backward"
+    );
+  }
 
-    final double[] derivatives = new double[len];
-    for (int i = 0; i < len; i++) {
-      double sum = 0;
-      for (int j = 0; j < len; j++) {
-        sum += jacobian[i][j];
-      }
-      derivatives[i] = sum;
+  /**
+   * Every activation of a soft max depends on every weighted input, so each
+   * node value is a row of the Jacobian times the output gradients, which
+   * simplifies to {@code a[i] * (g[i] - a . g)}.
+   * @param weightedInputs the weighted inputs of the layer
+   * @param activations the activations of the layer
+   * @param outputGradients the partial derivatives of the cost with respect
+   * to each activation
+   * @param nodeValues the array to store the result in
+   */
+  @Override
+  public void backward(
+    double[] weightedInputs,
+    double[] activations,
+    double[] outputGradients,
+    double[] nodeValues
+  ) {
+    double dot = 0;
+    for (int i = 0; i < activations.length; i++) {
+      dot += activations[i] * outputGradients[i];
     }
+    for (int i = 0; i < nodeValues.length; i++) {
+      nodeValues[i] = activations[i] * (outputGradients[i] - dot);
+    }
+  }
+
+  public MathTier getTier() {
+    return tier;
+  }
 
-    return derivatives;
+  /**
+   * Soft maxes saved before the tier could be picked used {@link Math}.
+   * @return this, or an equivalent soft max if no tier was saved
+   */
+  private Object readResolve() {
+    return tier == null ? new SoftMax(MathTier.EXACT) : this;
   }
 
   private static double getMax(double[] arr) {
@@ -1,21 +1,71 @@
 package network.activation;
 
+import java.util.Arrays;
+import network.math.MathTier;
+
 public class Tanh implements IActivation {
 
+  private static final long serialVersionUID = 1L;
+
+  private final MathTier tier;
+
+  public Tanh() {
+    this(MathTier.POLYNOMIAL);
+  }
+
+  /**
+   * @param tier the accuracy to evaluate the function at
+   */
+  public Tanh(MathTier tier) {
+    this.tier = tier;
+  }
+
   @Override
   public void function(double[] weightedInputs) {
-    for (int i = 0; i < weightedInputs.length; i++) {
-      weightedInputs[i] = Math.tanh(weightedInputs[i]);
-    }
+    tier.tanh(weightedInputs);
   }
 
+  /**
+   * The derivative of tanh is {@code 1 - tanh^2}, which avoids evaluating
+   * {@code cosh}.
+   * @param weightedInputs the weighted inputs to feed into the function
+   * @return an array containing the derivatives
+   */
   @Override
   public double[] derivative(double[] weightedInputs) {
-    final double[] derivatives = new double[weightedInputs.length];
+    final double[] derivatives = Arrays.copyOf(
+      weightedInputs,
+      weightedInputs.length
+    );
+    function(derivatives);
     for (int i = 0; i < derivatives.length; i++) {
-      final double sech = 1 / Math.cosh(weightedInputs[i]);
-      derivatives[i] = sech * sech;
+      derivatives[i] = 1 - derivatives[i] * derivatives[i];
     }
     return derivatives;
   }
+
+  @Override
+  public void backward(
+    double[] weightedInputs,
+    double[] activations,
+    double[] outputGradients,
+    double[] nodeValues
+  ) {
+    for (int i = 0; i < nodeValues.length; i++) {
+      final double activation = activations[i];
+      nodeValues[i] = outputGradients[i] * (1 - activation * activation);
+    }
+  }
+
+  public MathTier getTier() {
+    return tier;
+  }
+
+  /**
+   * Tanh layers saved before the tier could be picked used {@link Math}.
+   * @return this, or an equivalent tanh if no tier was saved
+   */
+  private Object readResolve() {
+    return tier == null ? new Tanh(MathTier.EXACT) : this;
+  }
 }
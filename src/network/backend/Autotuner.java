@@ -0,0 +1,270 @@
+package network.backend;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import network.DataPoint;
+import network.core.NeuralNetwork;
+
+/**
+ * Times every backend's kernels, and the number of threads to learn with,
+ * on the shapes of the layers that will actually run.
+ * <p>The choices are cached per host by {@link Backends}, so this only runs
+ * the first time a machine sees a shape. Running {@code tune} from the
+ * command line times the shapes again, prints the timings and replaces the
+ * cached choices.</p>
+ */
+public final class Autotuner {
+
+  // The batch size the batched kernel is timed with, the default mini batch
+  private static final int BATCH_SIZE = 32;
+  // How long each kernel runs before it is timed, for the JIT to compile it
+  private static final long WARMUP_NANOS = 10_000_000;
+  // The shortest run a time is taken from, well above the timer's resolution
+  private static final long ROUND_NANOS = 1_000_000;
+  private static final int ROUNDS = 7;
+
+  private Autotuner() {}
+
+  /**
+   * The kernels that are chosen separately, as each may suit a different
+   * backend.
+   */
+  public enum Kernel {
+    MULTIPLY,
+    MULTIPLY_BATCH,
+    MULTIPLY_TRANSPOSED,
+    ADD_OUTER_PRODUCT,
+  }
+
+  /**
+   * @param candidate the backend and block size timed, such as
+   * {@code blocked:128}
+   * @param nanos the fastest time of one call
+   */
+  public record Timing(String candidate, double nanos) {}
+
+  /**
+   * Times every kernel of every backend and block size on one layer shape.
+   * @param backends the backends to time
+   * @param numNodesIn the number of inputs of the layer
+   * @param numNodesOut the number of outputs of the layer
+   * @return the timings of each kernel, fastest first
+   */
+  public static Map<Kernel, List<Timing>> timeKernels(
+    Collection<IBackend> backends,
+    int numNodesIn,
+    int numNodesOut
+  ) {
+    final SplittableRandom random = new SplittableRandom(0);
+    final double[] weights = randomArray(numNodesIn * numNodesOut, random);
+    final double[] biases = randomArray(numNodesOut, random);
+    final double[] inputs = randomArray(numNodesIn, random);
+    final double[] values = randomArray(numNodesOut, random);
+    final double[][] batch = new double[BATCH_SIZE][];
+    for (int i = 0; i < batch.length; i++) {
+      batch[i] = randomArray(numNodesIn, random);
+    }
+
+    final double[] outputs = new double[numNodesOut];
+    final double[][] batchOutputs = new double[BATCH_SIZE][numNodesOut];
+    final double[] inputGradients = new double[numNodesIn];
+    final double[] gradients = new double[weights.length];
+
+    final List<Kernel> kernelOrder = new ArrayList<>();
+    final List<String> candidates = new ArrayList<>();
+    final List<Runnable> calls = new ArrayList<>();
+    for (IBackend backend : backends) {
+      for (int blockSize : backend.blockSizes()) {
+        final IKernels kernels = backend.create(blockSize);
+        for (Kernel kernel : Kernel.values()) {
+          kernelOrder.add(kernel);
+          candidates.add(Backends.candidate(backend, blockSize));
+          calls.add(
+            switch (kernel) {
+              case MULTIPLY -> () ->
+                kernels.multiply(
+                  weights,
+                  biases,
+                  inputs,
+                  outputs,
+                  0,
+                  numNodesOut
+                );
+              case MULTIPLY_BATCH -> () ->
+                kernels.multiply(weights, biases, batch, batchOutputs);
+              case MULTIPLY_TRANSPOSED -> () ->
+                kernels.multiplyTransposed(weights, values, inputGradients);
+              case ADD_OUTER_PRODUCT -> () ->
+                kernels.addOuterProduct(gradients, values, inputs);
+            }
+          );
+        }
+      }
+    }
+
+    final double[] nanos = time(calls);
+    final Map<Kernel, List<Timing>> timings = new EnumMap<>(Kernel.class);
+    for (Kernel kernel : Kernel.values()) {
+      timings.put(kernel, new ArrayList<>());
+    }
+    for (int i = 0; i < calls.size(); i++) {
+      timings
+        .get(kernelOrder.get(i))
+        .add(new Timing(candidates.get(i), nanos[i]));
+    }
+
+    for (List<Timing> kernelTimings : timings.values()) {
+      kernelTimings.sort(Comparator.comparingDouble(Timing::nanos));
+    }
+    return timings;
+  }
+
+  /**
+   * Times learning a batch with each power of two number of threads up to
+   * the number of cores, and the number of cores itself.
+   * @param layerSizes the number of nodes in each layer of the network
+   * @param batchSize the size of the batches it learns from
+   * @return the timings of each thread count, fastest first
+   */
+  public static List<Timing> timeParallelism(int[] layerSizes, int batchSize) {
+    final int cores = Runtime.getRuntime().availableProcessors();
+    final List<Integer> counts = new ArrayList<>();
+    for (int threads = 1; threads < Math.min(cores, batchSize); threads *= 2) {
+      counts.add(threads);
+    }
+    counts.add(Math.min(cores, batchSize));
+
+    // Learning at a rate of 0 leaves the weights alone, so every round does
+    // the same work
+    final NeuralNetwork<?> network = new NeuralNetwork<>(layerSizes, 0, 0);
+    final SplittableRandom random = new SplittableRandom(0);
+    final DataPoint[] batch = new DataPoint[batchSize];
+    for (int i = 0; i < batch.length; i++) {
+      final double[] expectedOutputs = new double[
+        layerSizes[layerSizes.length - 1]
+      ];
+      expectedOutputs[0] = 1;
+      batch[i] =
+        new DataPoint(
+          randomArray(layerSizes[0], random),
+          expectedOutputs,
+          (byte) 0
+        );
+    }
+
+    final List<Runnable> calls = new ArrayList<>();
+    for (int threads : counts) {
+      calls.add(() -> {
+        network.setParallelism(threads);
+        network.learn(batch, 0);
+      });
+    }
+
+    final double[] nanos = time(calls);
+    final List<Timing> timings = new ArrayList<>();
+    for (int i = 0; i < counts.size(); i++) {
+      timings.add(new Timing(Integer.toString(counts.get(i)), nanos[i]));
+    }
+    timings.sort(Comparator.comparingDouble(Timing::nanos));
+    return timings;
+  }
+
+  /**
+   * Runs each call until it has been compiled, then finds its fastest time
+   * over a few rounds, taking turns with the other calls so that they all
+   * see the same background load.
+   * @return the fastest time of one of each call in nanoseconds
+   */
+  private static double[] time(List<Runnable> calls) {
+    final long[] reps = new long[calls.size()];
+    for (int i = 0; i < calls.size(); i++) {
+      final Runnable call = calls.get(i);
+      final long warmupEnd = System.nanoTime() + WARMUP_NANOS;
+      long elapsed;
+      reps[i] = 1;
+      do {
+        final long startTime = System.nanoTime();
+        for (long rep = 0; rep < reps[i]; rep++) call.run();
+        elapsed = System.nanoTime() - startTime;
+        if (elapsed < ROUND_NANOS) reps[i] *= 2;
+      } while (System.nanoTime() < warmupEnd || elapsed < ROUND_NANOS);
+    }
+
+    final double[] best = new double[calls.size()];
+    Arrays.fill(best, Double.POSITIVE_INFINITY);
+    for (int round = 0; round < ROUNDS; round++) {
+      for (int i = 0; i < calls.size(); i++) {
+        final Runnable call = calls.get(i);
+        final long startTime = System.nanoTime();
+        for (long rep = 0; rep < reps[i]; rep++) call.run();
+        best[i] =
+          Math.min(best[i], (double) (System.nanoTime() - startTime) / reps[i]);
+      }
+    }
+    return best;
+  }
+
+  private static double[] randomArray(int length, SplittableRandom random) {
+    final double[] array = new double[length];
+    for (int i = 0; i < length; i++) array[i] = random.nextDouble(-1, 1);
+    return array;
+  }
+
+  /**
+   * Prints the timings of each kernel of a layer shape.
+   */
+  static void print(String title, Map<Kernel, List<Timing>> timings) {
+    System.out.println(title);
+    timings.forEach((kernel, kernelTimings) ->
+      print("  " + kernel.name().toLowerCase(), kernelTimings)
+    );
+  }
+
+  /**
+   * Prints timings on one line, fastest first.
+   */
+  static void print(String title, List<Timing> timings) {
+    final StringBuilder line = new StringBuilder(
+      String.format("%-24s", title + ":")
+    );
+    for (Timing timing : timings) {
+      line.append(
+        String.format(" %s %.1fus", timing.candidate(), timing.nanos() / 1e3)
+      );
+    }
+    System.out.println(line);
+  }
+
+  public static void main(String[] args) {
+    if (args.length < 1) {
+      System.err.println("Usage: tune <layer sizes> [batch size]");
+      System.exit(1);
+    }
+
+    final int[] layerSizes = Arrays
+      .stream(args[0].split(","))
+      .mapToInt(Integer::parseInt)
+      .toArray();
+    final int batchSize = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+
+    for (int i = 0; i < layerSizes.length - 1; i++) {
+      print(
+        "Tuned kernels for " + layerSizes[i] + "x" + layerSizes[i + 1],
+        Backends.retune(layerSizes[i], layerSizes[i + 1])
+      );
+    }
+    print(
+      "Tuned threads for a batch of " + batchSize + " with " +
+      Arrays.toString(layerSizes),
+      Backends.retuneParallelism(layerSizes, batchSize)
+    );
+    System.out.println("Saved to " + Backends.getCacheFile());
+    NeuralNetwork.shutdown();
+  }
+}
@@ -0,0 +1,462 @@
+package network.backend;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+/**
+ * Chooses the kernels of each layer shape, and the number of threads each
+ * network learns with, for the machine it runs on.
+ * <p>Every backend listed with the {@link ServiceLoader} is timed by the
+ * {@link Autotuner} the first time a shape is seen, and the fastest choices
+ * are cached in a file per host, so later runs start straight away. Until a
+ * new shape has been timed, on a background thread, its layers use the
+ * scalar kernels, which are swapped for the fastest once known. Networks
+ * likewise learn on every core until their number of threads has been timed
+ * on that thread. The cache is thrown away when the processor count,
+ * architecture, JVM or list of backends changes.</p>
+ * <p>Setting the {@code network.backend} system property to a backend's name,
+ * optionally followed by a colon and a block size, skips timing the kernels
+ * and uses that backend everywhere. The {@code network.backend.cache} property
+ * moves the cache file.</p>
+ */
+public final class Backends {
+
+  private static final String BACKEND_PROPERTY = "network.backend";
+  private static final String CACHE_PROPERTY = "network.backend.cache";
+  private static final String FINGERPRINT_KEY = "fingerprint";
+
+  private static final Map<String, IBackend> backends = loadBackends();
+  private static final IKernels forced = forcedKernels();
+  private static final Path cacheFile = cacheFile();
+
+  // Kernels shared by every layer of the same shape
+  private static final Map<String, IKernels> kernels = new HashMap<>();
+  // Networks whose number of threads is being timed in the background
+  private static final Set<String> timingParallelism = new HashSet<>();
+  private static Properties cache;
+
+  // Times new shapes away from the threads creating and running the layers
+  private static final ExecutorService tuner =
+    Executors.newSingleThreadExecutor(task -> {
+      final Thread thread = new Thread(task, "backend-tuner");
+      thread.setDaemon(true);
+      return thread;
+    });
+
+  private Backends() {}
+
+  private static Map<String, IBackend> loadBackends() {
+    final Map<String, IBackend> backends = new LinkedHashMap<>();
+    for (IBackend backend : ServiceLoader.load(
+      IBackend.class,
+      IBackend.class.getClassLoader()
+    )) {
+      backends.put(backend.name(), backend);
+    }
+    // The scalar kernels are always there, even if the service file isn't
+    backends.putIfAbsent("scalar", new ScalarBackend());
+    return backends;
+  }
+
+  private static IKernels forcedKernels() {
+    final String choice = System.getProperty(BACKEND_PROPERTY);
+    if (choice == null) return null;
+
+    final IBackend backend = backends.get(choice.split(":")[0]);
+    if (backend == null) {
+      throw new IllegalArgumentException(
+        "Unknown backend " + choice + ", expected one of " + backends.keySet()
+      );
+    }
+    final IKernels kernels = create(
+      choice.contains(":")
+        ? choice
+        : candidate(backend, backend.blockSizes()[0])
+    );
+    if (kernels == null) {
+      throw new IllegalArgumentException("Invalid backend choice " + choice);
+    }
+    return kernels;
+  }
+
+  private static Path cacheFile() {
+    final String file = System.getProperty(CACHE_PROPERTY);
+    if (file != null) return Path.of(file);
+
+    String host = System.getenv("HOSTNAME");
+    if (host == null) host = System.getenv("COMPUTERNAME");
+    if (host == null) host = "localhost";
+    return Path.of(
+      System.getProperty("user.home"),
+      ".neural-network",
+      "backend-" + host + ".properties"
+    );
+  }
+
+  /**
+   * @return the backends found, by name
+   */
+  public static Map<String, IBackend> getBackends() {
+    return backends;
+  }
+
+  public static Path getCacheFile() {
+    return cacheFile;
+  }
+
+  /**
+   * Finds the fastest kernels for a layer shape. If this machine hasn't seen
+   * the shape before, the scalar kernels are returned straight away and the
+   * shape is timed in the background, after which the returned kernels
+   * delegate to the fastest.
+   * @param numNodesIn the number of inputs of the layer
+   * @param numNodesOut the number of outputs of the layer
+   * @return the kernels for the layer
+   */
+  public static synchronized IKernels kernelsFor(
+    int numNodesIn,
+    int numNodesOut
+  ) {
+    if (forced != null) return forced;
+
+    final String key = kernelsKey(numNodesIn, numNodesOut);
+    IKernels layerKernels = kernels.get(key);
+    if (layerKernels != null) return layerKernels;
+
+    final String cached = cache().getProperty(key);
+    if (cached != null) layerKernels = parse(cached);
+    if (layerKernels == null) {
+      layerKernels = new SwappableKernels(new ScalarBackend().create(0));
+      // A failed timing leaves the scalar kernels in place
+      tuner.submit(() -> retune(numNodesIn, numNodesOut));
+    }
+
+    kernels.put(key, layerKernels);
+    return layerKernels;
+  }
+
+  /**
+   * Times every backend on a layer shape and caches the fastest kernels,
+   * replacing any cached choice.
+   * <p>Layers waiting on the shape's first timing switch to the fastest
+   * kernels; layers already using tuned kernels keep them.</p>
+   * @param numNodesIn the number of inputs of the layer
+   * @param numNodesOut the number of outputs of the layer
+   * @return the timings of each kernel, fastest first
+   */
+  public static Map<Autotuner.Kernel, List<Autotuner.Timing>> retune(
+    int numNodesIn,
+    int numNodesOut
+  ) {
+    // Timed without the lock, so layers can still be created meanwhile
+    final Map<Autotuner.Kernel, List<Autotuner.Timing>> timings =
+      Autotuner.timeKernels(backends.values(), numNodesIn, numNodesOut);
+
+    final String choice = timings
+      .values()
+      .stream()
+      .map(kernelTimings -> kernelTimings.get(0).candidate())
+      .collect(Collectors.joining(","));
+    install(kernelsKey(numNodesIn, numNodesOut), choice);
+    return timings;
+  }
+
+  /**
+   * Uses and caches the kernels chosen for a layer shape.
+   */
+  private static synchronized void install(String key, String choice) {
+    final IKernels layerKernels = parse(choice);
+    if (kernels.get(key) instanceof SwappableKernels swappable) {
+      swappable.kernels = layerKernels;
+    } else {
+      kernels.put(key, layerKernels);
+    }
+    store(key, choice);
+  }
+
+  private static String kernelsKey(int numNodesIn, int numNodesOut) {
+    return "layer." + numNodesIn + "x" + numNodesOut;
+  }
+
+  /**
+   * Finds the fastest number of threads for a fully connected network to
+   * learn with. If this machine hasn't seen the network before, it is timed
+   * in the background, after the kernels of any new layer shapes, and the
+   * result is returned once it is ready.
+   * @param layerSizes the number of nodes in each layer of the network
+   * @param batchSize the size of the batches it learns from
+   * @return the number of threads to learn with, or 0 until they have been
+   * timed
+   */
+  public static synchronized int parallelismFor(
+    int[] layerSizes,
+    int batchSize
+  ) {
+    final String key = parallelismKey(layerSizes, batchSize);
+    final String cached = cache().getProperty(key);
+    if (cached != null) return Integer.parseInt(cached);
+
+    // A failed timing leaves the network on its default number of threads
+    if (timingParallelism.add(key)) {
+      final int[] sizes = layerSizes.clone();
+      tuner.submit(() -> retuneParallelism(sizes, batchSize));
+    }
+    return 0;
+  }
+
+  /**
+   * Times learning with each number of threads and caches the fastest,
+   * replacing any cached choice.
+   * @param layerSizes the number of nodes in each layer of the network
+   * @param batchSize the size of the batches it learns from
+   * @return the timings of each number of threads, fastest first
+   */
+  public static List<Autotuner.Timing> retuneParallelism(
+    int[] layerSizes,
+    int batchSize
+  ) {
+    // Timed without the lock, as it builds and trains a network
+    final List<Autotuner.Timing> timings = Autotuner.timeParallelism(
+      layerSizes,
+      batchSize
+    );
+    store(parallelismKey(layerSizes, batchSize), timings.get(0).candidate());
+    return timings;
+  }
+
+  private static String parallelismKey(int[] layerSizes, int batchSize) {
+    return (
+      "threads." +
+      Arrays
+        .stream(layerSizes)
+        .mapToObj(Integer::toString)
+        .collect(Collectors.joining("x")) +
+      "." +
+      batchSize
+    );
+  }
+
+  /**
+   * @return the name a backend and block size are cached by
+   */
+  static String candidate(IBackend backend, int blockSize) {
+    return backend.name() + ":" + blockSize;
+  }
+
+  /**
+   * @param candidate a backend and block size, such as {@code blocked:128}
+   * @return the kernels, or null if there's no such backend
+   */
+  private static IKernels create(String candidate) {
+    final String[] parts = candidate.split(":");
+    final IBackend backend = backends.get(parts[0]);
+    if (backend == null || parts.length != 2) return null;
+    try {
+      return backend.create(Integer.parseInt(parts[1]));
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  /**
+   * @param choice a candidate for each {@link Autotuner.Kernel}, separated by
+   * commas
+   * @return the kernels, or null if one of the backends is missing
+   */
+  private static IKernels parse(String choice) {
+    final String[] candidates = choice.split(",");
+    if (candidates.length != Autotuner.Kernel.values().length) return null;
+
+    final IKernels[] chosen = new IKernels[candidates.length];
+    for (int i = 0; i < candidates.length; i++) {
+      chosen[i] = create(candidates[i]);
+      if (chosen[i] == null) return null;
+    }
+    if (Arrays.stream(candidates).distinct().count() == 1) return chosen[0];
+    return new TunedKernels(chosen[0], chosen[1], chosen[2], chosen[3]);
+  }
+
+  /**
+   * @return what the cached choices depend on
+   */
+  private static String fingerprint() {
+    return String.join(
+      ";",
+      System.getProperty("os.arch"),
+      Integer.toString(Runtime.getRuntime().availableProcessors()),
+      System.getProperty("java.vm.name"),
+      System.getProperty("java.vm.version"),
+      String.join(",", backends.keySet())
+    );
+  }
+
+  /**
+   * Reads the cache file the first time it's needed, starting afresh if it
+   * can't be read or was tuned on a different setup.
+   */
+  private static Properties cache() {
+    if (cache != null) return cache;
+
+    cache = new Properties();
+    if (Files.isRegularFile(cacheFile)) {
+      try (InputStream in = Files.newInputStream(cacheFile)) {
+        cache.load(in);
+      } catch (IOException | IllegalArgumentException e) {
+        System.err.println("Couldn't read " + cacheFile + ": " + e);
+        cache.clear();
+      }
+      if (!fingerprint().equals(cache.getProperty(FINGERPRINT_KEY))) {
+        cache.clear();
+      }
+    }
+    cache.setProperty(FINGERPRINT_KEY, fingerprint());
+    return cache;
+  }
+
+  /**
+   * Caches a choice, writing the whole cache to a temporary file which then
+   * replaces the old one, so other processes never read half of it.
+   */
+  private static synchronized void store(String key, String choice) {
+    final Properties cache = cache();
+    cache.setProperty(key, choice);
+    try {
+      Files.createDirectories(cacheFile.toAbsolutePath().getParent());
+      final Path temporary = Files.createTempFile(
+        cacheFile.toAbsolutePath().getParent(),
+        "backend",
+        ".tmp"
+      );
+      try (OutputStream out = Files.newOutputStream(temporary)) {
+        cache.store(out, "Kernels and threads tuned for this host");
+      }
+      Files.move(
+        temporary,
+        cacheFile,
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE
+      );
+    } catch (IOException e) {
+      System.err.println("Couldn't cache tuning in " + cacheFile + ": " + e);
+    }
+  }
+
+  /**
+   * Kernels of a shape still being timed, which start as the scalar kernels.
+   */
+  private static final class SwappableKernels implements IKernels {
+
+    private volatile IKernels kernels;
+
+    private SwappableKernels(IKernels kernels) {
+      this.kernels = kernels;
+    }
+
+    @Override
+    public void multiply(
+      double[] weights,
+      double[] biases,
+      double[] inputs,
+      double[] outputs,
+      int from,
+      int to
+    ) {
+      kernels.multiply(weights, biases, inputs, outputs, from, to);
+    }
+
+    @Override
+    public void multiply(
+      double[] weights,
+      double[] biases,
+      double[][] inputs,
+      double[][] outputs
+    ) {
+      kernels.multiply(weights, biases, inputs, outputs);
+    }
+
+    @Override
+    public void multiplyTransposed(
+      double[] weights,
+      double[] values,
+      double[] outputs
+    ) {
+      kernels.multiplyTransposed(weights, values, outputs);
+    }
+
+    @Override
+    public void addOuterProduct(
+      double[] gradients,
+      double[] values,
+      double[] inputs
+    ) {
+      kernels.addOuterProduct(gradients, values, inputs);
+    }
+  }
+
+  /**
+   * Kernels made of the fastest backend for each kernel.
+   */
+  private record TunedKernels(
+    IKernels multiply,
+    IKernels multiplyBatch,
+    IKernels multiplyTransposed,
+    IKernels addOuterProduct
+  )
+    implements IKernels {
+    @Override
+    public void multiply(
+      double[] weights,
+      double[] biases,
+      double[] inputs,
+      double[] outputs,
+      int from,
+      int to
+    ) {
+      multiply.multiply(weights, biases, inputs, outputs, from, to);
+    }
+
+    @Override
+    public void multiply(
+      double[] weights,
+      double[] biases,
+      double[][] inputs,
+      double[][] outputs
+    ) {
+      multiplyBatch.multiply(weights, biases, inputs, outputs);
+    }
+
+    @Override
+    public void multiplyTransposed(
+      double[] weights,
+      double[] values,
+      double[] outputs
+    ) {
+      multiplyTransposed.multiplyTransposed(weights, values, outputs);
+    }
+
+    @Override
+    public void addOuterProduct(
+      double[] gradients,
+      double[] values,
+      double[] inputs
+    ) {
+      addOuterProduct.addOuterProduct(gradients, values, inputs);
+    }
+  }
+}
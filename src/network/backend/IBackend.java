@@ -0,0 +1,29 @@
+package network.backend;
+
+/**
+ * A family of {@link IKernels}, found with a {@link java.util.ServiceLoader}.
+ * <p>Backends are listed in
+ * {@code META-INF/services/network.backend.IBackend}, and need a public
+ * constructor without arguments.</p>
+ */
+public interface IBackend {
+  /**
+   * @return the name the backend is chosen and cached by, without colons or
+   * commas
+   */
+  String name();
+
+  /**
+   * @return the block sizes worth trying, or only 0 if the kernels aren't
+   * blocked
+   */
+  default int[] blockSizes() {
+    return new int[] { 0 };
+  }
+
+  /**
+   * @param blockSize one of the {@link #blockSizes()}
+   * @return the kernels of this backend
+   */
+  IKernels create(int blockSize);
+}
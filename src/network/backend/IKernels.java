@@ -0,0 +1,60 @@
+package network.backend;
+
+/**
+ * The loops a fully connected layer spends its time in, over weights stored
+ * row by row with one row per output node.
+ * <p>Kernels may add in a different order to each other, so their results
+ * can differ in the last few bits.</p>
+ */
+public interface IKernels {
+  /**
+   * Calculates the weighted inputs of a run of output nodes.
+   * @param weights the weights of the layer
+   * @param biases the biases of the layer
+   * @param inputs the inputs from the previous layer
+   * @param outputs the array to store the weighted inputs in
+   * @param from the first output node, inclusive
+   * @param to the last output node, exclusive
+   */
+  void multiply(
+    double[] weights,
+    double[] biases,
+    double[] inputs,
+    double[] outputs,
+    int from,
+    int to
+  );
+
+  /**
+   * Calculates the weighted inputs of every output node for a batch of
+   * inputs.
+   * @param weights the weights of the layer
+   * @param biases the biases of the layer
+   * @param inputs the batch of inputs from the previous layer
+   * @param outputs the arrays to store the weighted inputs for each input in
+   * the batch in
+   */
+  void multiply(
+    double[] weights,
+    double[] biases,
+    double[][] inputs,
+    double[][] outputs
+  );
+
+  /**
+   * Propagates values of the output nodes back through the weights.
+   * @param weights the weights of the layer
+   * @param values a value for each output node
+   * @param outputs the array to store the result for each input node in
+   */
+  void multiplyTransposed(double[] weights, double[] values, double[] outputs);
+
+  /**
+   * Adds the product of each output node's value and each input to the
+   * gradient of the weight between them.
+   * @param gradients the gradients of the weights, laid out like them
+   * @param values a value for each output node
+   * @param inputs the inputs from the previous layer
+   */
+  void addOuterProduct(double[] gradients, double[] values, double[] inputs);
+}
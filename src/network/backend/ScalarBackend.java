@@ -0,0 +1,99 @@
+package network.backend;
+
+import java.util.Arrays;
+
+/**
+ * Straightforward loops, which every other backend must match to within
+ * rounding.
+ */
+public class ScalarBackend implements IBackend {
+
+  @Override
+  public String name() {
+    return "scalar";
+  }
+
+  @Override
+  public IKernels create(int blockSize) {
+    return new Kernels();
+  }
+
+  private static final class Kernels implements IKernels {
+
+    @Override
+    public void multiply(
+      double[] weights,
+      double[] biases,
+      double[] inputs,
+      double[] outputs,
+      int from,
+      int to
+    ) {
+      final int numNodesIn = inputs.length;
+      for (int nodeOut = from; nodeOut < to; nodeOut++) {
+        final int offset = nodeOut * numNodesIn;
+        double weightedInput = biases[nodeOut];
+        for (int nodeIn = 0; nodeIn < numNodesIn; nodeIn++) {
+          weightedInput += inputs[nodeIn] * weights[offset + nodeIn];
+        }
+        outputs[nodeOut] = weightedInput;
+      }
+    }
+
+    @Override
+    public void multiply(
+      double[] weights,
+      double[] biases,
+      double[][] inputs,
+      double[][] outputs
+    ) {
+      // Each row of weights is reused for every input while still in cache
+      final int numNodesIn = inputs[0].length;
+      for (int nodeOut = 0; nodeOut < biases.length; nodeOut++) {
+        final int offset = nodeOut * numNodesIn;
+        for (int sample = 0; sample < inputs.length; sample++) {
+          final double[] sampleInputs = inputs[sample];
+          double weightedInput = biases[nodeOut];
+          for (int nodeIn = 0; nodeIn < numNodesIn; nodeIn++) {
+            weightedInput += sampleInputs[nodeIn] * weights[offset + nodeIn];
+          }
+          outputs[sample][nodeOut] = weightedInput;
+        }
+      }
+    }
+
+    @Override
+    public void multiplyTransposed(
+      double[] weights,
+      double[] values,
+      double[] outputs
+    ) {
+      // Walk the weights row by row to keep the memory access sequential
+      final int numNodesIn = outputs.length;
+      Arrays.fill(outputs, 0);
+      for (int nodeOut = 0; nodeOut < values.length; nodeOut++) {
+        final double value = values[nodeOut];
+        final int offset = nodeOut * numNodesIn;
+        for (int nodeIn = 0; nodeIn < numNodesIn; nodeIn++) {
+          outputs[nodeIn] += weights[offset + nodeIn] * value;
+        }
+      }
+    }
+
+    @Override
+    public void addOuterProduct(
+      double[] gradients,
+      double[] values,
+      double[] inputs
+    ) {
+      final int numNodesIn = inputs.length;
+      for (int nodeOut = 0; nodeOut < values.length; nodeOut++) {
+        final double value = values[nodeOut];
+        final int offset = nodeOut * numNodesIn;
+        for (int nodeIn = 0; nodeIn < numNodesIn; nodeIn++) {
+          gradients[offset + nodeIn] += inputs[nodeIn] * value;
+        }
+      }
+    }
+  }
+}
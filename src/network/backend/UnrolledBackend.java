@@ -0,0 +1,128 @@
+package network.backend;
+
+import java.util.Arrays;
+
+/**
+ * Kernels that add each weighted input up in four independent sums, so the
+ * processor can work on several additions at once instead of waiting on
+ * each one, and that update outputs four rows of weights at a time.
+ * <p>The loops without a running sum are left simple enough for the JIT to
+ * vectorise them itself.</p>
+ */
+public class UnrolledBackend implements IBackend {
+
+  @Override
+  public String name() {
+    return "unrolled";
+  }
+
+  @Override
+  public IKernels create(int blockSize) {
+    return new Kernels();
+  }
+
+  private static final class Kernels implements IKernels {
+
+    @Override
+    public void multiply(
+      double[] weights,
+      double[] biases,
+      double[] inputs,
+      double[] outputs,
+      int from,
+      int to
+    ) {
+      for (int nodeOut = from; nodeOut < to; nodeOut++) {
+        outputs[nodeOut] =
+          biases[nodeOut] +
+          dot(weights, nodeOut * inputs.length, inputs);
+      }
+    }
+
+    @Override
+    public void multiply(
+      double[] weights,
+      double[] biases,
+      double[][] inputs,
+      double[][] outputs
+    ) {
+      final int numNodesIn = inputs[0].length;
+      for (int nodeOut = 0; nodeOut < biases.length; nodeOut++) {
+        final int offset = nodeOut * numNodesIn;
+        for (int sample = 0; sample < inputs.length; sample++) {
+          outputs[sample][nodeOut] =
+            biases[nodeOut] + dot(weights, offset, inputs[sample]);
+        }
+      }
+    }
+
+    private static double dot(double[] weights, int offset, double[] inputs) {
+      final int length = inputs.length;
+      double sum0 = 0;
+      double sum1 = 0;
+      double sum2 = 0;
+      double sum3 = 0;
+      int i = 0;
+      for (; i + 3 < length; i += 4) {
+        sum0 += inputs[i] * weights[offset + i];
+        sum1 += inputs[i + 1] * weights[offset + i + 1];
+        sum2 += inputs[i + 2] * weights[offset + i + 2];
+        sum3 += inputs[i + 3] * weights[offset + i + 3];
+      }
+      for (; i < length; i++) sum0 += inputs[i] * weights[offset + i];
+      return (sum0 + sum1) + (sum2 + sum3);
+    }
+
+    @Override
+    public void multiplyTransposed(
+      double[] weights,
+      double[] values,
+      double[] outputs
+    ) {
+      final int numNodesIn = outputs.length;
+      Arrays.fill(outputs, 0);
+      int nodeOut = 0;
+      // Each output is loaded and stored once for four rows of weights
+      for (; nodeOut + 3 < values.length; nodeOut += 4) {
+        final double value0 = values[nodeOut];
+        final double value1 = values[nodeOut + 1];
+        final double value2 = values[nodeOut + 2];
+        final double value3 = values[nodeOut + 3];
+        final int offset0 = nodeOut * numNodesIn;
+        final int offset1 = offset0 + numNodesIn;
+        final int offset2 = offset1 + numNodesIn;
+        final int offset3 = offset2 + numNodesIn;
+        for (int nodeIn = 0; nodeIn < numNodesIn; nodeIn++) {
+          outputs[nodeIn] +=
+            weights[offset0 + nodeIn] * value0 +
+            weights[offset1 + nodeIn] * value1 +
+            weights[offset2 + nodeIn] * value2 +
+            weights[offset3 + nodeIn] * value3;
+        }
+      }
+      for (; nodeOut < values.length; nodeOut++) {
+        final double value = values[nodeOut];
+        final int offset = nodeOut * numNodesIn;
+        for (int nodeIn = 0; nodeIn < numNodesIn; nodeIn++) {
+          outputs[nodeIn] += weights[offset + nodeIn] * value;
+        }
+      }
+    }
+
+    @Override
+    public void addOuterProduct(
+      double[] gradients,
+      double[] values,
+      double[] inputs
+    ) {
+      final int numNodesIn = inputs.length;
+      for (int nodeOut = 0; nodeOut < values.length; nodeOut++) {
+        final double value = values[nodeOut];
+        final int offset = nodeOut * numNodesIn;
+        for (int nodeIn = 0; nodeIn < numNodesIn; nodeIn++) {
+          gradients[offset + nodeIn] += inputs[nodeIn] * value;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,514 @@
+package network.core;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.IntStream;
+import network.activation.IActivation;
+import network.activation.Sigmoid;
+import network.initializer.IInitializer;
+
+/**
+ * A 2D convolution over square, channel major images.
+ * <p>Each input is lowered with im2col into a matrix with one column per
+ * output position, so that the convolution, its weight gradients and its
+ * input gradients are all single {@link MatMul} calls.</p>
+ */
+public class ConvLayer<T> implements ILayer<T> {
+
+  private static final long serialVersionUID = 1L;
+
+  private final int inputChannels;
+  private final int inputSide;
+  private final int outputChannels;
+  private final int kernelSize;
+  private final int stride;
+  private final int padding;
+  private final int outputSide;
+  private final IActivation activation;
+
+  /**
+   * The number of rows of the im2col matrix, one per kernel weight
+   */
+  private final int patchSize;
+  /**
+   * The number of columns of the im2col matrix, one per output position
+   */
+  private final int positions;
+
+  // One row of patchSize weights per output channel
+  private final double[] weights;
+  private final double[] biases;
+
+  private final double[] costGradientWeight;
+  private final double[] costGradientBias;
+
+  private final double[] weightVelocities;
+  private final double[] biasVelocities;
+
+  /**
+   * A sigmoid convolution with a stride of 1 and no padding
+   * @param inputChannels the number of channels of the input images
+   * @param inputSide the width and height of the input images
+   * @param outputChannels the number of kernels
+   * @param kernelSize the width and height of each kernel
+   */
+  public ConvLayer(
+    int inputChannels,
+    int inputSide,
+    int outputChannels,
+    int kernelSize
+  ) {
+    this(inputChannels, inputSide, outputChannels, kernelSize, new Sigmoid());
+  }
+
+  /**
+   * A convolution with a stride of 1 and no padding
+   * @param inputChannels the number of channels of the input images
+   * @param inputSide the width and height of the input images
+   * @param outputChannels the number of kernels
+   * @param kernelSize the width and height of each kernel
+   * @param activation the activation function of this layer
+   */
+  public ConvLayer(
+    int inputChannels,
+    int inputSide,
+    int outputChannels,
+    int kernelSize,
+    IActivation activation
+  ) {
+    this(
+      inputChannels,
+      inputSide,
+      outputChannels,
+      kernelSize,
+      1,
+      0,
+      activation
+    );
+  }
+
+  /**
+   * @param inputChannels the number of channels of the input images
+   * @param inputSide the width and height of the input images
+   * @param outputChannels the number of kernels
+   * @param kernelSize the width and height of each kernel
+   * @param stride the distance between neighbouring kernel positions
+   * @param padding the number of zeros added around each side of the input
+   * @param activation the activation function of this layer
+   */
+  public ConvLayer(
+    int inputChannels,
+    int inputSide,
+    int outputChannels,
+    int kernelSize,
+    int stride,
+    int padding,
+    IActivation activation
+  ) {
+    this(
+      inputChannels,
+      inputSide,
+      outputChannels,
+      kernelSize,
+      stride,
+      padding,
+      activation,
+      Layer.initializerFor(activation),
+      ThreadLocalRandom.current().nextLong()
+    );
+  }
+
+  /**
+   * @param inputChannels the number of channels of the input images
+   * @param inputSide the width and height of the input images
+   * @param outputChannels the number of kernels
+   * @param kernelSize the width and height of each kernel
+   * @param stride the distance between neighbouring kernel positions
+   * @param padding the number of zeros added around each side of the input
+   * @param activation the activation function of this layer
+   * @param initializer the scheme to initialise the kernels with
+   * @param seed the seed of the initial kernels
+   */
+  public ConvLayer(
+    int inputChannels,
+    int inputSide,
+    int outputChannels,
+    int kernelSize,
+    int stride,
+    int padding,
+    IActivation activation,
+    IInitializer initializer,
+    long seed
+  ) {
+    this.inputChannels = inputChannels;
+    this.inputSide = inputSide;
+    this.outputChannels = outputChannels;
+    this.kernelSize = kernelSize;
+    this.stride = stride;
+    this.padding = padding;
+    this.activation = activation;
+
+    outputSide = (inputSide + 2 * padding - kernelSize) / stride + 1;
+    if (outputSide <= 0) {
+      throw new IllegalArgumentException("Kernel is larger than the input");
+    }
+    patchSize = inputChannels * kernelSize * kernelSize;
+    positions = outputSide * outputSide;
+
+    weights = new double[outputChannels * patchSize];
+    biases = new double[outputChannels];
+
+    costGradientWeight = new double[weights.length];
+    costGradientBias = new double[biases.length];
+
+    weightVelocities = new double[weights.length];
+    biasVelocities = new double[biases.length];
+
+    // Each input feeds into every kernel at every offset that covers it
+    initializer.initialize(
+      weights,
+      patchSize,
+      outputChannels * kernelSize * kernelSize,
+      seed
+    );
+  }
+
+  @Override
+  public int getNumNodesIn() {
+    return inputChannels * inputSide * inputSide;
+  }
+
+  @Override
+  public int getNumNodesOut() {
+    return outputChannels * positions;
+  }
+
+  public int getOutputChannels() {
+    return outputChannels;
+  }
+
+  public int getOutputSide() {
+    return outputSide;
+  }
+
+  @Override
+  public LearnData createLearnData() {
+    return new ConvLearnData(this);
+  }
+
+  /**
+   * Copies every receptive field of the input into a column of a
+   * {@code patchSize} by {@code positions} matrix.
+   * @param inputs the channel major input image
+   * @param columns the matrix to fill
+   */
+  private void im2col(double[] inputs, double[] columns) {
+    int row = 0;
+    for (int channel = 0; channel < inputChannels; channel++) {
+      final int channelOffset = channel * inputSide * inputSide;
+      for (int ky = 0; ky < kernelSize; ky++) {
+        for (int kx = 0; kx < kernelSize; kx++) {
+          int column = row * positions;
+          for (int oy = 0; oy < outputSide; oy++) {
+            final int iy = oy * stride + ky - padding;
+            final boolean rowInside = iy >= 0 && iy < inputSide;
+            final int rowOffset = channelOffset + iy * inputSide;
+            for (int ox = 0; ox < outputSide; ox++) {
+              final int ix = ox * stride + kx - padding;
+              columns[column++] =
+                rowInside && ix >= 0 && ix < inputSide
+                  ? inputs[rowOffset + ix]
+                  : 0;
+            }
+          }
+          row++;
+        }
+      }
+    }
+  }
+
+  /**
+   * The reverse of {@link #im2col}, summing each column back into the
+   * input positions it was copied from.
+   * @param columns the {@code patchSize} by {@code positions} matrix
+   * @param inputs the channel major image to add to
+   */
+  private void col2im(double[] columns, double[] inputs) {
+    int row = 0;
+    for (int channel = 0; channel < inputChannels; channel++) {
+      final int channelOffset = channel * inputSide * inputSide;
+      for (int ky = 0; ky < kernelSize; ky++) {
+        for (int kx = 0; kx < kernelSize; kx++) {
+          int column = row * positions;
+          for (int oy = 0; oy < outputSide; oy++) {
+            final int iy = oy * stride + ky - padding;
+            if (iy < 0 || iy >= inputSide) {
+              column += outputSide;
+              continue;
+            }
+            final int rowOffset = channelOffset + iy * inputSide;
+            for (int ox = 0; ox < outputSide; ox++, column++) {
+              final int ix = ox * stride + kx - padding;
+              if (ix >= 0 && ix < inputSide) {
+                inputs[rowOffset + ix] += columns[column];
+              }
+            }
+          }
+          row++;
+        }
+      }
+    }
+  }
+
+  /**
+   * Calculates the weighted inputs of every output position.
+   * @param weights the weights to use, laid out like {@link #weights}
+   * @param biases the biases to use
+   * @param columns the im2col matrix of the inputs
+   * @param weightedInputs the channel major array to store the result in
+   */
+  private void calculateWeightedInputs(
+    double[] weights,
+    double[] biases,
+    double[] columns,
+    double[] weightedInputs
+  ) {
+    for (int channel = 0; channel < outputChannels; channel++) {
+      Arrays.fill(
+        weightedInputs,
+        channel * positions,
+        (channel + 1) * positions,
+        biases[channel]
+      );
+    }
+    MatMul.multiply(
+      outputChannels,
+      positions,
+      patchSize,
+      weights,
+      columns,
+      weightedInputs
+    );
+  }
+
+  @Override
+  public double[] forwardPass(double[] inputs, LearnData learnData) {
+    final ConvLearnData data = (ConvLearnData) learnData;
+    data.inputs = inputs;
+
+    im2col(inputs, data.columns);
+    calculateWeightedInputs(weights, biases, data.columns, data.weightedInputs);
+
+    System.arraycopy(
+      data.weightedInputs,
+      0,
+      data.activations,
+      0,
+      data.activations.length
+    );
+    activation.function(data.activations);
+
+    return data.activations;
+  }
+
+  @Override
+  public void calculateNodeValues(
+    LearnData learnData,
+    double[] outputGradients
+  ) {
+    activation.backward(
+      learnData.weightedInputs,
+      learnData.activations,
+      outputGradients,
+      learnData.nodeValues
+    );
+  }
+
+  @Override
+  public void calculateInputGradients(LearnData learnData) {
+    final ConvLearnData data = (ConvLearnData) learnData;
+
+    Arrays.fill(data.columnGradients, 0);
+    MatMul.multiplyTransposeA(
+      patchSize,
+      positions,
+      outputChannels,
+      weights,
+      data.nodeValues,
+      data.columnGradients
+    );
+
+    Arrays.fill(data.inputGradients, 0);
+    col2im(data.columnGradients, data.inputGradients);
+  }
+
+  /**
+   * Calculates the cost gradients of a sample into its own buffer, then
+   * adds them to this layer's gradients while holding the lock.
+   * @param learnData the learn data for this layer
+   */
+  @Override
+  public void updateGradients(LearnData learnData) {
+    final ConvLearnData data = (ConvLearnData) learnData;
+
+    Arrays.fill(data.weightGradients, 0);
+    MatMul.multiplyTransposeB(
+      outputChannels,
+      patchSize,
+      positions,
+      data.nodeValues,
+      data.columns,
+      data.weightGradients
+    );
+
+    final double[] biasGradients = data.biasGradients;
+    for (int channel = 0; channel < outputChannels; channel++) {
+      double sum = 0;
+      for (int i = channel * positions; i < (channel + 1) * positions; i++) {
+        sum += data.nodeValues[i];
+      }
+      biasGradients[channel] = sum;
+    }
+
+    synchronized (costGradientWeight) {
+      for (int i = 0; i < costGradientWeight.length; i++) {
+        costGradientWeight[i] += data.weightGradients[i];
+      }
+      for (int i = 0; i < costGradientBias.length; i++) {
+        costGradientBias[i] += biasGradients[i];
+      }
+    }
+  }
+
+  @Override
+  public void applyGradients(
+    double learnRate,
+    double regularisation,
+    double momentum
+  ) {
+    applyGradients(learnRate, regularisation, momentum, 0, 1);
+  }
+
+  @Override
+  public void applyGradients(
+    double learnRate,
+    double regularisation,
+    double momentum,
+    int part,
+    int parts
+  ) {
+    final double weightDecay = 1 - regularisation * learnRate;
+
+    Layer.applyGradients(
+      weights,
+      costGradientWeight,
+      weightVelocities,
+      part,
+      parts,
+      learnRate,
+      weightDecay,
+      momentum
+    );
+    Layer.applyGradients(
+      biases,
+      costGradientBias,
+      biasVelocities,
+      part,
+      parts,
+      learnRate,
+      1,
+      momentum
+    );
+  }
+
+  @Override
+  public int getParameterCount() {
+    return weights.length + biases.length;
+  }
+
+  @Override
+  public void clearGradients() {
+    Arrays.fill(costGradientWeight, 0);
+    Arrays.fill(costGradientBias, 0);
+  }
+
+  @Override
+  public double gradientLengthSquared() {
+    double sum = 0;
+    for (double gradient : costGradientWeight) sum += gradient * gradient;
+    for (double gradient : costGradientBias) sum += gradient * gradient;
+    return sum;
+  }
+
+  @Override
+  public Snapshot snapshot() {
+    return new Snapshot(weights.clone(), biases.clone());
+  }
+
+  @Override
+  public void restore(ILayer.Snapshot snapshot) {
+    final ConvLayer<?>.Snapshot layerSnapshot =
+      (ConvLayer<?>.Snapshot) snapshot;
+    System.arraycopy(layerSnapshot.weights, 0, weights, 0, weights.length);
+    System.arraycopy(layerSnapshot.biases, 0, biases, 0, biases.length);
+    Arrays.fill(weightVelocities, 0);
+    Arrays.fill(biasVelocities, 0);
+  }
+
+  /**
+   * An immutable copy of a convolution's kernels and biases.
+   */
+  public final class Snapshot implements ILayer.Snapshot {
+
+    private final double[] weights;
+    private final double[] biases;
+
+    private Snapshot(double[] weights, double[] biases) {
+      this.weights = weights;
+      this.biases = biases;
+    }
+
+    @Override
+    public double[] forwardPass(double[] inputs) {
+      final double[] columns = new double[patchSize * positions];
+      im2col(inputs, columns);
+
+      final double[] activations = new double[getNumNodesOut()];
+      calculateWeightedInputs(weights, biases, columns, activations);
+      activation.function(activations);
+      return activations;
+    }
+
+    /**
+     * Computes the activations of this layer for a batch of inputs,
+     * with the samples split across the common pool.
+     * @param inputs the batch of inputs from the previous layer
+     * @return the output activations for each input in the batch
+     */
+    @Override
+    public double[][] forwardPass(double[][] inputs) {
+      final double[][] activations = new double[inputs.length][];
+      IntStream
+        .range(0, inputs.length)
+        .parallel()
+        .forEach(i -> activations[i] = forwardPass(inputs[i]));
+      return activations;
+    }
+  }
+
+  private static class ConvLearnData extends LearnData {
+
+    final double[] columns;
+    final double[] columnGradients;
+    final double[] weightGradients;
+    final double[] biasGradients;
+
+    ConvLearnData(ConvLayer<?> layer) {
+      super(layer);
+      columns = new double[layer.patchSize * layer.positions];
+      columnGradients = new double[columns.length];
+      weightGradients = new double[layer.weights.length];
+      biasGradients = new double[layer.outputChannels];
+    }
+  }
+}
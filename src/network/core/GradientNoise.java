@@ -0,0 +1,71 @@
+package network.core;
+
+/**
+ * Estimates the gradient noise scale of a network while it trains: the
+ * batch size at which the noise of a batch's gradient is about as large as
+ * the gradient itself.
+ * <p>Batches much smaller than the noise scale spend their steps mostly on
+ * noise, and batches much larger than it waste samples on a gradient that
+ * barely gets more accurate. Each measurement compares the gradient of part
+ * of a batch with the gradient of the whole batch, and the estimate is the
+ * ratio of running averages of the two quantities that follow from them.</p>
+ */
+public final class GradientNoise {
+
+  // The weight of the previous average in each new average
+  private static final double SMOOTHING = 0.95;
+
+  private double noise;
+  private double signal;
+  private int measurements;
+
+  /**
+   * Adds a measurement of the squared lengths of two average gradients,
+   * where the small batch is part of the big one.
+   * @param smallBatch the size of the small batch
+   * @param smallLengthSquared the squared length of its average gradient
+   * @param bigBatch the size of the big batch
+   * @param bigLengthSquared the squared length of its average gradient
+   */
+  public void record(
+    int smallBatch,
+    double smallLengthSquared,
+    int bigBatch,
+    double bigLengthSquared
+  ) {
+    if (smallBatch >= bigBatch) {
+      throw new IllegalArgumentException("The small batch must be smaller");
+    }
+
+    // The expected squared length of a batch's average gradient is the true
+    // squared length plus the per sample variance over the batch size
+    final double batchNoise =
+      (smallLengthSquared - bigLengthSquared) /
+      (1.0 / smallBatch - 1.0 / bigBatch);
+    final double batchSignal =
+      (bigBatch * bigLengthSquared - smallBatch * smallLengthSquared) /
+      (bigBatch - smallBatch);
+
+    if (measurements == 0) {
+      noise = batchNoise;
+      signal = batchSignal;
+    } else {
+      noise = SMOOTHING * noise + (1 - SMOOTHING) * batchNoise;
+      signal = SMOOTHING * signal + (1 - SMOOTHING) * batchSignal;
+    }
+    measurements++;
+  }
+
+  public int getMeasurements() {
+    return measurements;
+  }
+
+  /**
+   * @return the estimated noise scale as a batch size, or NaN if there
+   * aren't any measurements yet or they are too noisy to tell
+   */
+  public double getNoiseScale() {
+    if (measurements == 0 || !(signal > 0) || !(noise > 0)) return Double.NaN;
+    return noise / signal;
+  }
+}
@@ -0,0 +1,201 @@
+package network.core;
+
+import java.io.Serializable;
+
+/**
+ * A layer of a {@link NeuralNetwork}, which can be mixed with layers of any
+ * other type as long as the sizes of neighbouring layers match.
+ * <p>Back-propagation is split so that each layer only needs to know about
+ * itself: a layer turns the gradient of the cost with respect to its outputs
+ * into node values, then into the gradient with respect to its inputs for the
+ * layer before it.</p>
+ */
+public interface ILayer<T> extends Serializable {
+  int getNumNodesIn();
+
+  int getNumNodesOut();
+
+  /**
+   * @return a new set of buffers for one sample passing through this layer
+   */
+  LearnData createLearnData();
+
+  /**
+   * Calculates the activations of this layer and stores it in
+   * the given {@link LearnData}.
+   * @param inputs the inputs from the previous layer
+   * @param learnData the learn data of this layer
+   * @return the output activations from this layer
+   */
+  double[] forwardPass(double[] inputs, LearnData learnData);
+
+  /**
+   * Calculates the node values of this layer, the partial derivatives of the
+   * cost with respect to each weighted input.
+   * @param learnData the learn data of this layer
+   * @param outputGradients the partial derivatives of the cost with respect
+   * to each output of this layer
+   */
+  void calculateNodeValues(LearnData learnData, double[] outputGradients);
+
+  /**
+   * Calculates the partial derivatives of the cost with respect to each input
+   * of this layer from its node values, and stores them in
+   * {@link LearnData#inputGradients}.
+   * @param learnData the learn data of this layer
+   */
+  void calculateInputGradients(LearnData learnData);
+
+  /**
+   * Adds the cost gradients of a single sample to this layer's gradients.
+   * <p>This may be called from several threads at once.</p>
+   * @param learnData the learn data of this layer
+   */
+  void updateGradients(LearnData learnData);
+
+  /**
+   * Apply this layer's gradients to each of its parameters.
+   * @param learnRate the learning rate
+   * @param regularisation the regularisation
+   * @param momentum the momentum
+   */
+  void applyGradients(double learnRate, double regularisation, double momentum);
+
+  /**
+   * Apply the gradients of one of several equal parts of this layer's
+   * parameters, so that the parts can be applied on different threads at
+   * once.
+   * <p>Layers that can't be split apply all their gradients with the first
+   * part.</p>
+   * @param learnRate the learning rate
+   * @param regularisation the regularisation
+   * @param momentum the momentum
+   * @param part the index of the part to apply
+   * @param parts the number of parts
+   */
+  default void applyGradients(
+    double learnRate,
+    double regularisation,
+    double momentum,
+    int part,
+    int parts
+  ) {
+    if (part == 0) applyGradients(learnRate, regularisation, momentum);
+  }
+
+  /**
+   * Layers without parameters can keep the default of 0.
+   * @return the number of weights and biases of this layer
+   */
+  default int getParameterCount() {
+    return 0;
+  }
+
+  /**
+   * Discards the gradients added since they were last applied, such as
+   * those of a batch that failed part way through.
+   * <p>Layers without parameters can keep the default, which does
+   * nothing.</p>
+   */
+  default void clearGradients() {}
+
+  /**
+   * Layers without parameters can keep the default of 0.
+   * @return the sum of the squares of the gradients added since they were
+   * last applied
+   */
+  default double gradientLengthSquared() {
+    return 0;
+  }
+
+  /**
+   * Only layers whose outputs are a flat set of activations, with an
+   * activation function the network can report, can be the output layer.
+   * @return whether this layer can be the last layer of a network
+   */
+  default boolean canBeOutputLayer() {
+    return false;
+  }
+
+  /**
+   * Copies the current parameters of this layer.
+   * <p>This must be called from the thread training the layer.</p>
+   * @return an immutable snapshot of this layer's parameters
+   */
+  Snapshot snapshot();
+
+  /**
+   * Overwrites this layer's parameters with those of an earlier snapshot
+   * and clears its momentum.
+   * <p>This must be called from the thread training the layer.</p>
+   * @param snapshot a snapshot taken from this layer
+   */
+  void restore(Snapshot snapshot);
+
+  /**
+   * An immutable copy of a layer's parameters, which can be used for
+   * inference from any thread while the layer itself keeps training.
+   */
+  interface Snapshot {
+    /**
+     * Computes the activations of this layer.
+     * @param inputs the inputs from the previous layer
+     * @return the output activations from this layer
+     */
+    double[] forwardPass(double[] inputs);
+
+    /**
+     * Computes the activations of this layer for a single input, splitting
+     * the work across threads if the layer is large enough to benefit.
+     * <p>This lowers the latency of one prediction on wide layers, at the
+     * cost of the threads other predictions could have used.</p>
+     * @param inputs the inputs from the previous layer
+     * @return the output activations from this layer
+     */
+    default double[] forwardPassParallel(double[] inputs) {
+      return forwardPass(inputs);
+    }
+
+    /**
+     * Computes the activations of this layer for a batch of inputs.
+     * @param inputs the batch of inputs from the previous layer
+     * @return the output activations for each input in the batch
+     */
+    double[][] forwardPass(double[][] inputs);
+
+    /**
+     * Computes the activations of this layer for a batch of inputs into
+     * arrays reused from an earlier batch of the same size.
+     * @param inputs the batch of inputs from the previous layer
+     * @param outputs the arrays to store the activations for each input in
+     */
+    default void forwardPass(double[][] inputs, double[][] outputs) {
+      final double[][] activations = forwardPass(inputs);
+      for (int i = 0; i < inputs.length; i++) {
+        System.arraycopy(activations[i], 0, outputs[i], 0, outputs[i].length);
+      }
+    }
+  }
+
+  /**
+   * The buffers used by a single sample passing through a layer.
+   */
+  class LearnData {
+
+    double[] inputs;
+    final double[] weightedInputs;
+    final double[] activations;
+    final double[] nodeValues;
+    final double[] inputGradients;
+
+    /**
+     * @param layer the layer to create the learn data for
+     */
+    public LearnData(ILayer<?> layer) {
+      weightedInputs = new double[layer.getNumNodesOut()];
+      activations = new double[layer.getNumNodesOut()];
+      nodeValues = new double[layer.getNumNodesOut()];
+      inputGradients = new double[layer.getNumNodesIn()];
+    }
+  }
+}
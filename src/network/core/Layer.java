@@ -1,23 +1,31 @@
 package network.core;
 
-import java.io.Serializable;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.util.Arrays;
-import java.util.Random;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ThreadLocalRandom;
 import network.activation.*;
-import network.cost.*;
+import network.backend.Backends;
+import network.backend.IKernels;
+import network.initializer.HeInitializer;
+import network.initializer.IInitializer;
+import network.initializer.XavierInitializer;
 
-public class Layer<T> implements Serializable {
+public class Layer<T> implements ILayer<T> {
 
   private static final long serialVersionUID = 75L;
 
-  private static final Random random = new Random();
-
-  public static final IActivation ACTIVATION = new Sigmoid();
-  public static final IActivation OUTPUT_ACTIVATION = new Sigmoid();
-  public static final ICost COST = new CrossEntropyLoss();
+  // Layers with fewer weights than this aren't worth splitting across threads
+  // for a single input, as forking costs a few microseconds
+  static final int PARALLEL_THRESHOLD = 1 << 16;
+  // The most weights each task of a split forward pass works through
+  private static final int PARALLEL_GRAIN = 1 << 14;
 
   private final int numNodesIn;
   private final int numNodesOut;
+  // Layers saved before activations were configurable are all sigmoid
+  private IActivation activation;
 
   private final double[] weights;
   private final double[] biases;
@@ -28,14 +36,53 @@ public class Layer<T> implements Serializable {
   private final double[] weightVelocities;
   private final double[] biasVelocities;
 
+  // Chosen for this machine, so never saved with the layer
+  private transient IKernels kernels;
+
   /**
    * The constructor for a layer in a neural network
    * @param numNodesIn the number of nodes in the previous layer of the network
    * @param numNodesOut the number of nodes in this layer
    */
   public Layer(int numNodesIn, int numNodesOut) {
+    this(numNodesIn, numNodesOut, new Sigmoid());
+  }
+
+  /**
+   * The constructor for a layer in a neural network, with weights initialised
+   * to suit its activation function
+   * @param numNodesIn the number of nodes in the previous layer of the network
+   * @param numNodesOut the number of nodes in this layer
+   * @param activation the activation function of this layer
+   */
+  public Layer(int numNodesIn, int numNodesOut, IActivation activation) {
+    this(
+      numNodesIn,
+      numNodesOut,
+      activation,
+      initializerFor(activation),
+      ThreadLocalRandom.current().nextLong()
+    );
+  }
+
+  /**
+   * The constructor for a layer in a neural network
+   * @param numNodesIn the number of nodes in the previous layer of the network
+   * @param numNodesOut the number of nodes in this layer
+   * @param activation the activation function of this layer
+   * @param initializer the scheme to initialise the weights with
+   * @param seed the seed of the initial weights
+   */
+  public Layer(
+    int numNodesIn,
+    int numNodesOut,
+    IActivation activation,
+    IInitializer initializer,
+    long seed
+  ) {
     this.numNodesIn = numNodesIn;
     this.numNodesOut = numNodesOut;
+    this.activation = activation;
 
     weights = new double[numNodesIn * numNodesOut];
     biases = new double[numNodesOut];
@@ -46,103 +93,96 @@ public class Layer<T> implements Serializable {
     weightVelocities = new double[weights.length];
     biasVelocities = new double[biases.length];
 
-    Arrays.parallelSetAll(weights, i -> random.nextDouble(-1, 1));
-    Arrays.setAll(biases, i -> random.nextDouble(-1, 1));
-  }
-
-  private double getWeight(int nodeIn, int nodeOut) {
-    return weights[getWeightIndex(nodeIn, nodeOut)];
-  }
+    // Biases start at zero
+    initializer.initialize(weights, numNodesIn, numNodesOut, seed);
 
-  private int getWeightIndex(int nodeIn, int nodeOut) {
-    return nodeOut * numNodesIn + nodeIn;
+    kernels = Backends.kernelsFor(numNodesIn, numNodesOut);
   }
 
   /**
-   * Computes the activations of the nodes
-   * in this layer from the previous layer's nodes.
-   * @param inputs the inputs from the previous layer
-   * @return the output activations from this layer
+   * A layer with the given parameters and velocities, which it takes
+   * ownership of
    */
-  public double[] forwardPass(double[] inputs) {
-    // Calculate the weighted inputs
-    final double[] activations = calculateWeightedInputs(inputs);
+  Layer(
+    int numNodesIn,
+    int numNodesOut,
+    IActivation activation,
+    double[] weights,
+    double[] biases,
+    double[] weightVelocities,
+    double[] biasVelocities
+  ) {
+    this.numNodesIn = numNodesIn;
+    this.numNodesOut = numNodesOut;
+    this.activation = activation;
 
-    // Apply activation function to weighted inputs
-    ACTIVATION.function(activations);
+    this.weights = weights;
+    this.biases = biases;
 
-    return activations;
-  }
+    costGradientWeight = new double[weights.length];
+    costGradientBias = new double[biases.length];
 
-  /**
-   * Calculates the activations of this layer and stores it in
-   * the given {@link LearnData}.
-   * @param inputs the inputs from the previous layer
-   * @param learnData the learn data of this layer
-   * @return the output activations from this layer
-   */
-  public double[] forwardPass(double[] inputs, LearnData learnData) {
-    // Calculate and store the weighted inputs
-    calculateWeightedInputs(inputs, learnData);
+    this.weightVelocities = weightVelocities;
+    this.biasVelocities = biasVelocities;
 
-    // Apply activation function to weighted inputs
-    ACTIVATION.function(learnData.activations);
+    kernels = Backends.kernelsFor(numNodesIn, numNodesOut);
+  }
 
-    return learnData.activations;
+  private void readObject(ObjectInputStream in)
+    throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    if (activation == null) activation = new Sigmoid();
+    kernels = Backends.kernelsFor(numNodesIn, numNodesOut);
   }
 
   /**
-   * Computes the activations of the nodes
-   * in this layer from the previous layer's nodes.
-   * <p>This method is only meant for the output layer.</p>
-   * @param inputs the inputs from the previous layer
-   * @return the output activations from this layer
+   * @param activation an activation function
+   * @return the initialisation scheme that keeps the activations of a layer
+   * using the function from vanishing or exploding
    */
-  public double[] outputPass(double[] inputs) {
-    // Calculate the weighted inputs
-    final double[] activations = calculateWeightedInputs(inputs);
+  public static IInitializer initializerFor(IActivation activation) {
+    if (activation instanceof ReLU) return new HeInitializer();
+    if (activation instanceof Sigmoid) return new XavierInitializer(4);
+    return new XavierInitializer();
+  }
 
-    // Apply activation function to weighted inputs
-    OUTPUT_ACTIVATION.function(activations);
+  public IActivation getActivation() {
+    return activation;
+  }
 
-    return activations;
+  @Override
+  public int getNumNodesIn() {
+    return numNodesIn;
+  }
+
+  @Override
+  public int getNumNodesOut() {
+    return numNodesOut;
+  }
+
+  @Override
+  public LearnData createLearnData() {
+    return new LearnData(this);
   }
 
   /**
    * Calculates the activations of this layer and stores it in
    * the given {@link LearnData}.
-   * <p>This method is only meant for the output layer.</p>
    * @param inputs the inputs from the previous layer
    * @param learnData the learn data of this layer
    * @return the output activations from this layer
    */
-  public double[] outputPass(double[] inputs, LearnData learnData) {
+  @Override
+  public double[] forwardPass(double[] inputs, LearnData learnData) {
     // Calculate and store the weighted inputs
     calculateWeightedInputs(inputs, learnData);
 
     // Apply activation function to weighted inputs
-    OUTPUT_ACTIVATION.function(learnData.activations);
+    activation.function(learnData.activations);
 
     return learnData.activations;
   }
 
-  /**
-   * Calculates the weighted inputs from the previous layer.
-   * @param inputs the inputs from the previous layer
-   * @return the weighted inputs
-   */
-  private double[] calculateWeightedInputs(double[] inputs) {
-    final double[] weightedInputs = new double[numNodesOut];
-    for (int nodeOut = 0; nodeOut < numNodesOut; nodeOut++) {
-      double weightedInput = biases[nodeOut];
-      for (int nodeIn = 0; nodeIn < numNodesIn; nodeIn++) {
-        weightedInput += inputs[nodeIn] * getWeight(nodeIn, nodeOut);
-      }
-      weightedInputs[nodeOut] = weightedInput;
-    }
-    return weightedInputs;
-  }
-
   /**
    * Calculates the weighted inputs from the previous layer
    * and stores it in the given {@link LearnData}.
@@ -152,14 +192,21 @@ public class Layer<T> implements Serializable {
   private void calculateWeightedInputs(double[] inputs, LearnData learnData) {
     learnData.inputs = inputs;
 
-    for (int nodeOut = 0; nodeOut < numNodesOut; nodeOut++) {
-      double weightedInput = biases[nodeOut];
-      for (int nodeIn = 0; nodeIn < numNodesIn; nodeIn++) {
-        weightedInput += inputs[nodeIn] * getWeight(nodeIn, nodeOut);
-      }
-      learnData.weightedInputs[nodeOut] = weightedInput;
-      learnData.activations[nodeOut] = weightedInput;
-    }
+    kernels.multiply(
+      weights,
+      biases,
+      inputs,
+      learnData.weightedInputs,
+      0,
+      numNodesOut
+    );
+    System.arraycopy(
+      learnData.weightedInputs,
+      0,
+      learnData.activations,
+      0,
+      numNodesOut
+    );
   }
 
   /**
@@ -168,97 +215,149 @@ public class Layer<T> implements Serializable {
    * @param regularisation the regularisation
    * @param momentum the momentum
    */
+  @Override
   public void applyGradients(
     double learnRate,
     double regularisation,
     double momentum
+  ) {
+    applyGradients(learnRate, regularisation, momentum, 0, 1);
+  }
+
+  @Override
+  public void applyGradients(
+    double learnRate,
+    double regularisation,
+    double momentum,
+    int part,
+    int parts
   ) {
     final double weightDecay = 1 - regularisation * learnRate;
 
-    for (int i = 0; i < weights.length; i++) {
-      final double weight = weights[i];
-      final double velocity =
-        weightVelocities[i] * momentum - costGradientWeight[i] * learnRate;
-      weightVelocities[i] = velocity;
-      weights[i] = weight * weightDecay + velocity;
-      costGradientWeight[i] = 0;
-    }
+    applyGradients(
+      weights,
+      costGradientWeight,
+      weightVelocities,
+      part,
+      parts,
+      learnRate,
+      weightDecay,
+      momentum
+    );
+    applyGradients(
+      biases,
+      costGradientBias,
+      biasVelocities,
+      part,
+      parts,
+      learnRate,
+      1,
+      momentum
+    );
+  }
+
+  @Override
+  public int getParameterCount() {
+    return weights.length + biases.length;
+  }
+
+  @Override
+  public void clearGradients() {
+    Arrays.fill(costGradientWeight, 0);
+    Arrays.fill(costGradientBias, 0);
+  }
+
+  @Override
+  public boolean canBeOutputLayer() {
+    return true;
+  }
 
-    for (int i = 0; i < biases.length; i++) {
+  @Override
+  public double gradientLengthSquared() {
+    double sum = 0;
+    for (double gradient : costGradientWeight) sum += gradient * gradient;
+    for (double gradient : costGradientBias) sum += gradient * gradient;
+    return sum;
+  }
+
+  /**
+   * Applies gradient descent with momentum to one of several equal parts of
+   * an array of parameters, then clears their gradients.
+   * @param parameters the parameters to update
+   * @param gradients the cost gradients of the parameters
+   * @param velocities the velocities of the parameters
+   * @param part the index of the part to update
+   * @param parts the number of parts the array is split into
+   * @param learnRate the learning rate
+   * @param decay the factor each parameter is multiplied by before updating
+   * @param momentum the momentum
+   */
+  static void applyGradients(
+    double[] parameters,
+    double[] gradients,
+    double[] velocities,
+    int part,
+    int parts,
+    double learnRate,
+    double decay,
+    double momentum
+  ) {
+    final int from = (int) ((long) parameters.length * part / parts);
+    final int to = (int) ((long) parameters.length * (part + 1) / parts);
+    for (int i = from; i < to; i++) {
       final double velocity =
-        biasVelocities[i] * momentum - costGradientBias[i] * learnRate;
-      biasVelocities[i] = velocity;
-      biases[i] += velocity;
-      costGradientBias[i] = 0;
+        velocities[i] * momentum - gradients[i] * learnRate;
+      velocities[i] = velocity;
+      parameters[i] = parameters[i] * decay + velocity;
+      gradients[i] = 0;
     }
   }
 
   /**
-   * Calculates the node values for each node in the output layer using the
+   * Calculates the node values for each node in this layer using the
    * partial derivative of the cost with respect to the the weighted input.
-   * <p>This method is only meant for the output layer.</p>
    * @param learnData the learn data of this layer
-   * @param expectedOutputs the expected outputs of the network
+   * @param outputGradients the input gradients of the layer after this one,
+   * or the cost gradients if this is the output layer
    */
-  public void calculateOutputNodeValues(
+  @Override
+  public void calculateNodeValues(
     LearnData learnData,
-    double[] expectedOutputs
+    double[] outputGradients
   ) {
-    final double[] derivatives = OUTPUT_ACTIVATION.derivative(
-      learnData.weightedInputs
+    activation.backward(
+      learnData.weightedInputs,
+      learnData.activations,
+      outputGradients,
+      learnData.nodeValues
     );
-    for (int i = 0; i < learnData.nodeValues.length; i++) {
-      final double costDerivative = COST.derivative(
-        learnData.activations[i],
-        expectedOutputs[i]
-      );
-      learnData.nodeValues[i] = costDerivative * derivatives[i];
-    }
   }
 
   /**
-   * Calculates the node values for each node in the output layer using the
-   * partial derivative of the cost with respect to the the weighted input.
+   * Propagates the node values of this layer back through its weights.
    * @param learnData the learn data of this layer
-   * @param oldLayer the layer after this layer in the network
-   * @param oldNodeValues the node values of the {@code oldLayer}
    */
-  public void calculateNodeValues(
-    LearnData learnData,
-    Layer<T> oldLayer,
-    double[] oldNodeValues
-  ) {
-    final double[] derivatives = ACTIVATION.derivative(
-      learnData.weightedInputs
+  @Override
+  public void calculateInputGradients(LearnData learnData) {
+    kernels.multiplyTransposed(
+      weights,
+      learnData.nodeValues,
+      learnData.inputGradients
     );
-    for (int newNode = 0; newNode < numNodesOut; newNode++) {
-      double newNodeValue = 0;
-      for (int oldNode = 0; oldNode < oldNodeValues.length; oldNode++) {
-        final double weightedInputDerivative = oldLayer.getWeight(
-          newNode,
-          oldNode
-        );
-        newNodeValue += weightedInputDerivative * oldNodeValues[oldNode];
-      }
-      learnData.nodeValues[newNode] = newNodeValue * derivatives[newNode];
-    }
   }
 
   /**
    * Calculates the cost gradients for this layer.
    * @param learnData the learn data for this layer
    */
+  @Override
   public void updateGradients(LearnData learnData) {
     synchronized (costGradientWeight) {
-      for (int nodeOut = 0; nodeOut < numNodesOut; nodeOut++) {
-        final double nodeValue = learnData.nodeValues[nodeOut];
-        for (int nodeIn = 0; nodeIn < numNodesIn; nodeIn++) {
-          final double costWeightDerivative =
-            learnData.inputs[nodeIn] * nodeValue;
-          costGradientWeight[getWeightIndex(nodeIn, nodeOut)] +=
-            costWeightDerivative;
-        }
-      }
+      kernels.addOuterProduct(
+        costGradientWeight,
+        learnData.nodeValues,
+        learnData.inputs
+      );
 
       synchronized (costGradientBias) {
         for (int nodeOut = 0; nodeOut < numNodesOut; nodeOut++) {
@@ -269,20 +368,209 @@ public class Layer<T> implements Serializable {
     }
   }
 
-  public static class LearnData {
+  /**
+   * Copies the current weights and biases of this layer.
+   * <p>This must be called from the thread training the layer.</p>
+   * @return an immutable snapshot of this layer's parameters
+   */
+  @Override
+  public Snapshot snapshot() {
+    return new Snapshot(
+      weights.clone(),
+      biases.clone(),
+      activation,
+      kernels
+    );
+  }
 
-    double[] inputs;
-    final double[] weightedInputs;
-    final double[] activations;
-    final double[] nodeValues;
+  /**
+   * Creates a snapshot of parameters held outside a layer.
+   * @param weights the weights, which the snapshot takes ownership of
+   * @param biases the biases, which the snapshot takes ownership of
+   * @param activation the activation function of the layer
+   * @param numNodesIn the number of nodes in the previous layer
+   * @return the snapshot
+   */
+  static Snapshot snapshot(
+    double[] weights,
+    double[] biases,
+    IActivation activation,
+    int numNodesIn
+  ) {
+    return new Snapshot(
+      weights,
+      biases,
+      activation,
+      Backends.kernelsFor(numNodesIn, biases.length)
+    );
+  }
+
+  @Override
+  public void restore(ILayer.Snapshot snapshot) {
+    final Snapshot layerSnapshot = (Snapshot) snapshot;
+    System.arraycopy(layerSnapshot.weights, 0, weights, 0, weights.length);
+    System.arraycopy(layerSnapshot.biases, 0, biases, 0, biases.length);
+    Arrays.fill(weightVelocities, 0);
+    Arrays.fill(biasVelocities, 0);
+  }
+
+  /**
+   * An immutable copy of a layer's parameters, which can be used for
+   * inference from any thread while the layer itself keeps training.
+   */
+  public static final class Snapshot implements ILayer.Snapshot {
+
+    private final double[] weights;
+    private final double[] biases;
+    private final IActivation activation;
+    private final IKernels kernels;
+
+    private Snapshot(
+      double[] weights,
+      double[] biases,
+      IActivation activation,
+      IKernels kernels
+    ) {
+      this.weights = weights;
+      this.biases = biases;
+      this.activation = activation;
+      this.kernels = kernels;
+    }
+
+    double[] getWeights() {
+      return weights;
+    }
+
+    double[] getBiases() {
+      return biases;
+    }
 
     /**
-     * @param layer the layer to create the learn data for
+     * Computes the activations of the nodes
+     * in this layer from the previous layer's nodes.
+     * @param inputs the inputs from the previous layer
+     * @return the output activations from this layer
      */
-    public LearnData(Layer<?> layer) {
-      weightedInputs = new double[layer.numNodesOut];
-      activations = new double[layer.numNodesOut];
-      nodeValues = new double[layer.numNodesOut];
+    @Override
+    public double[] forwardPass(double[] inputs) {
+      final double[] activations = new double[biases.length];
+      kernels.multiply(weights, biases, inputs, activations, 0, biases.length);
+      activation.function(activations);
+      return activations;
+    }
+
+    /**
+     * Computes the activations of this layer, splitting the output nodes
+     * across the common fork join pool if the layer has at least
+     * {@link #PARALLEL_THRESHOLD} weights.
+     * @param inputs the inputs from the previous layer
+     * @return the output activations from this layer
+     */
+    @Override
+    public double[] forwardPassParallel(double[] inputs) {
+      if (weights.length < PARALLEL_THRESHOLD) return forwardPass(inputs);
+
+      final double[] activations = new double[biases.length];
+      new WeightedInputsTask(
+        kernels,
+        weights,
+        biases,
+        inputs,
+        activations,
+        0,
+        biases.length
+      )
+        .invoke();
+      activation.function(activations);
+      return activations;
+    }
+
+    /**
+     * Computes the activations of this layer for a batch of inputs.
+     * @param inputs the batch of inputs from the previous layer
+     * @return the output activations for each input in the batch
+     */
+    @Override
+    public double[][] forwardPass(double[][] inputs) {
+      final double[][] activations = new double[inputs.length][biases.length];
+      kernels.multiply(weights, biases, inputs, activations);
+      for (double[] sampleActivations : activations) {
+        activation.function(sampleActivations);
+      }
+      return activations;
+    }
+
+    @Override
+    public void forwardPass(double[][] inputs, double[][] outputs) {
+      kernels.multiply(weights, biases, inputs, outputs);
+      for (int i = 0; i < inputs.length; i++) {
+        activation.function(outputs[i]);
+      }
+    }
+  }
+
+  /**
+   * Calculates the weighted inputs of a run of output nodes, halving the run
+   * until each task has at most {@link #PARALLEL_GRAIN} weights to go through.
+   */
+  @SuppressWarnings("serial") // Tasks are never serialised
+  private static class WeightedInputsTask extends RecursiveAction {
+
+    private final IKernels kernels;
+    private final double[] weights;
+    private final double[] biases;
+    private final double[] inputs;
+    private final double[] weightedInputs;
+    private final int from;
+    private final int to;
+
+    WeightedInputsTask(
+      IKernels kernels,
+      double[] weights,
+      double[] biases,
+      double[] inputs,
+      double[] weightedInputs,
+      int from,
+      int to
+    ) {
+      this.kernels = kernels;
+      this.weights = weights;
+      this.biases = biases;
+      this.inputs = inputs;
+      this.weightedInputs = weightedInputs;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      final int nodes = to - from;
+      if (nodes < 2 || (long) nodes * inputs.length <= PARALLEL_GRAIN) {
+        kernels.multiply(weights, biases, inputs, weightedInputs, from, to);
+        return;
+      }
+
+      final int middle = (from + to) >>> 1;
+      invokeAll(
+        new WeightedInputsTask(
+          kernels,
+          weights,
+          biases,
+          inputs,
+          weightedInputs,
+          from,
+          middle
+        ),
+        new WeightedInputsTask(
+          kernels,
+          weights,
+          biases,
+          inputs,
+          weightedInputs,
+          middle,
+          to
+        )
+      );
     }
   }
 }
@@ -0,0 +1,120 @@
+package network.core;
+
+/**
+ * Cache blocked kernels for multiplying row major matrices.
+ * <p>Every kernel accumulates into {@code c}, so it must be cleared first if
+ * only the product is wanted.</p>
+ */
+public final class MatMul {
+
+  private static final int BLOCK_K = 128;
+  private static final int BLOCK_N = 512;
+
+  private MatMul() {}
+
+  /**
+   * Computes {@code C += A * B}.
+   * @param m the number of rows of {@code A} and {@code C}
+   * @param n the number of columns of {@code B} and {@code C}
+   * @param k the number of columns of {@code A} and rows of {@code B}
+   * @param a an {@code m} by {@code k} matrix
+   * @param b a {@code k} by {@code n} matrix
+   * @param c an {@code m} by {@code n} matrix
+   */
+  public static void multiply(
+    int m,
+    int n,
+    int k,
+    double[] a,
+    double[] b,
+    double[] c
+  ) {
+    for (int k0 = 0; k0 < k; k0 += BLOCK_K) {
+      final int kEnd = Math.min(k0 + BLOCK_K, k);
+      for (int n0 = 0; n0 < n; n0 += BLOCK_N) {
+        final int nEnd = Math.min(n0 + BLOCK_N, n);
+        for (int i = 0; i < m; i++) {
+          final int rowA = i * k;
+          final int rowC = i * n;
+          for (int p = k0; p < kEnd; p++) {
+            final double aValue = a[rowA + p];
+            if (aValue == 0) continue;
+            final int rowB = p * n;
+            // Contiguous inner loop, which the JIT can vectorise
+            for (int j = n0; j < nEnd; j++) {
+              c[rowC + j] += aValue * b[rowB + j];
+            }
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Computes {@code C += transpose(A) * B}.
+   * @param m the number of columns of {@code A} and rows of {@code C}
+   * @param n the number of columns of {@code B} and {@code C}
+   * @param k the number of rows of {@code A} and {@code B}
+   * @param a a {@code k} by {@code m} matrix
+   * @param b a {@code k} by {@code n} matrix
+   * @param c an {@code m} by {@code n} matrix
+   */
+  public static void multiplyTransposeA(
+    int m,
+    int n,
+    int k,
+    double[] a,
+    double[] b,
+    double[] c
+  ) {
+    for (int n0 = 0; n0 < n; n0 += BLOCK_N) {
+      final int nEnd = Math.min(n0 + BLOCK_N, n);
+      for (int p = 0; p < k; p++) {
+        final int rowA = p * m;
+        final int rowB = p * n;
+        for (int i = 0; i < m; i++) {
+          final double aValue = a[rowA + i];
+          if (aValue == 0) continue;
+          final int rowC = i * n;
+          for (int j = n0; j < nEnd; j++) {
+            c[rowC + j] += aValue * b[rowB + j];
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Computes {@code C += A * transpose(B)}.
+   * @param m the number of rows of {@code A} and {@code C}
+   * @param n the number of rows of {@code B} and columns of {@code C}
+   * @param k the number of columns of {@code A} and {@code B}
+   * @param a an {@code m} by {@code k} matrix
+   * @param b an {@code n} by {@code k} matrix
+   * @param c an {@code m} by {@code n} matrix
+   */
+  public static void multiplyTransposeB(
+    int m,
+    int n,
+    int k,
+    double[] a,
+    double[] b,
+    double[] c
+  ) {
+    for (int k0 = 0; k0 < k; k0 += BLOCK_K) {
+      final int kEnd = Math.min(k0 + BLOCK_K, k);
+      for (int i = 0; i < m; i++) {
+        final int rowA = i * k;
+        final int rowC = i * n;
+        for (int j = 0; j < n; j++) {
+          final int rowB = j * k;
+          double sum = 0;
+          for (int p = k0; p < kEnd; p++) {
+            sum += a[rowA + p] * b[rowB + p];
+          }
+          c[rowC + j] += sum;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,170 @@
+package network.core;
+
+import java.util.Arrays;
+
+/**
+ * Downsamples each channel of a square, channel major image by taking the
+ * largest value of every {@code poolSize} by {@code poolSize} window.
+ * <p>The layer has no parameters, so it is its own snapshot.</p>
+ */
+public class MaxPoolLayer<T> implements ILayer<T>, ILayer.Snapshot {
+
+  private static final long serialVersionUID = 1L;
+
+  private final int channels;
+  private final int inputSide;
+  private final int poolSize;
+  private final int outputSide;
+
+  /**
+   * @param channels the number of channels of the input images
+   * @param inputSide the width and height of the input images
+   * @param poolSize the width and height of each pooling window
+   */
+  public MaxPoolLayer(int channels, int inputSide, int poolSize) {
+    if (inputSide % poolSize != 0) {
+      throw new IllegalArgumentException(
+        "Input side " + inputSide + " isn't a multiple of " + poolSize
+      );
+    }
+    this.channels = channels;
+    this.inputSide = inputSide;
+    this.poolSize = poolSize;
+    outputSide = inputSide / poolSize;
+  }
+
+  @Override
+  public int getNumNodesIn() {
+    return channels * inputSide * inputSide;
+  }
+
+  @Override
+  public int getNumNodesOut() {
+    return channels * outputSide * outputSide;
+  }
+
+  public int getOutputSide() {
+    return outputSide;
+  }
+
+  @Override
+  public LearnData createLearnData() {
+    return new PoolLearnData(this);
+  }
+
+  /**
+   * Pools the inputs, recording where each maximum came from if
+   * {@code maxIndices} isn't null.
+   * @param inputs the channel major input image
+   * @param outputs the array to store the pooled image in
+   * @param maxIndices the array to store the input index of each output in
+   */
+  private void pool(double[] inputs, double[] outputs, int[] maxIndices) {
+    int output = 0;
+    for (int channel = 0; channel < channels; channel++) {
+      final int channelOffset = channel * inputSide * inputSide;
+      for (int oy = 0; oy < outputSide; oy++) {
+        for (int ox = 0; ox < outputSide; ox++) {
+          final int window = channelOffset + (oy * inputSide + ox) * poolSize;
+          int maxIndex = window;
+          for (int py = 0; py < poolSize; py++) {
+            final int row = window + py * inputSide;
+            for (int px = 0; px < poolSize; px++) {
+              if (inputs[row + px] > inputs[maxIndex]) maxIndex = row + px;
+            }
+          }
+          outputs[output] = inputs[maxIndex];
+          if (maxIndices != null) maxIndices[output] = maxIndex;
+          output++;
+        }
+      }
+    }
+  }
+
+  @Override
+  public double[] forwardPass(double[] inputs, LearnData learnData) {
+    final PoolLearnData data = (PoolLearnData) learnData;
+    data.inputs = inputs;
+    pool(inputs, data.activations, data.maxIndices);
+    return data.activations;
+  }
+
+  @Override
+  public void calculateNodeValues(
+    LearnData learnData,
+    double[] outputGradients
+  ) {
+    System.arraycopy(
+      outputGradients,
+      0,
+      learnData.nodeValues,
+      0,
+      learnData.nodeValues.length
+    );
+  }
+
+  /**
+   * Routes each node value back to the input that was the maximum of
+   * its window; every other input has no effect on the cost.
+   * @param learnData the learn data of this layer
+   */
+  @Override
+  public void calculateInputGradients(LearnData learnData) {
+    final PoolLearnData data = (PoolLearnData) learnData;
+    Arrays.fill(data.inputGradients, 0);
+    for (int i = 0; i < data.maxIndices.length; i++) {
+      data.inputGradients[data.maxIndices[i]] += data.nodeValues[i];
+    }
+  }
+
+  @Override
+  public void updateGradients(LearnData learnData) {}
+
+  @Override
+  public void applyGradients(
+    double learnRate,
+    double regularisation,
+    double momentum
+  ) {}
+
+  @Override
+  public Snapshot snapshot() {
+    return this;
+  }
+
+  @Override
+  public void restore(ILayer.Snapshot snapshot) {}
+
+  @Override
+  public double[] forwardPass(double[] inputs) {
+    final double[] outputs = new double[getNumNodesOut()];
+    pool(inputs, outputs, null);
+    return outputs;
+  }
+
+  @Override
+  public double[][] forwardPass(double[][] inputs) {
+    final double[][] outputs = new double[inputs.length][];
+    for (int i = 0; i < inputs.length; i++) {
+      outputs[i] = forwardPass(inputs[i]);
+    }
+    return outputs;
+  }
+
+  @Override
+  public void forwardPass(double[][] inputs, double[][] outputs) {
+    for (int i = 0; i < inputs.length; i++) {
+      pool(inputs[i], outputs[i], null);
+    }
+  }
+
+  private static class PoolLearnData extends LearnData {
+
+    final int[] maxIndices;
+
+    PoolLearnData(MaxPoolLayer<?> layer) {
+      super(layer);
+      maxIndices = new int[layer.getNumNodesOut()];
+    }
+  }
+}
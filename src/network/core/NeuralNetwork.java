@@ -1,26 +1,59 @@
 package network.core;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.SplittableRandom;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 import network.App;
+import network.BatchView;
 import network.DataPoint;
+import network.activation.IActivation;
+import network.activation.Sigmoid;
+import network.backend.Backends;
+import network.cost.CrossEntropyLoss;
+import network.cost.ICost;
 
 public class NeuralNetwork<T> implements Serializable {
 
-  private static final long serialVersionUID = 54L;
+  private static final long serialVersionUID = 55L;
 
-  private static final ExecutorService pool = Executors.newFixedThreadPool(8);
-  private static final List<Future<?>> futures = new ArrayList<>();
+  private static final int THREADS = Runtime.getRuntime().availableProcessors();
+  // The fewest parameters worth applying the gradients of on a thread of
+  // their own
+  private static final int APPLY_GRAIN = 1 << 14;
+  // Shared by every network so that training several at once can't
+  // oversubscribe the CPU
+  private static final ExecutorService pool = Executors.newFixedThreadPool(
+    THREADS
+  );
 
-  private final Layer<T>[] layers;
-  private transient LearnData[] batchLearnData;
+  private final ILayer<T>[] layers;
+  // The buffers of each thread learning a batch, reused for every sample
+  private transient LearnData[] workerLearnData;
   private final double regularisation;
   private final double momentum;
+  // Networks saved before the cost was configurable all use cross entropy
+  private ICost cost;
+  private transient int parallelism;
+  private transient int microBatchSize;
+  private transient Pipeline<T> pipeline;
+  // The number of threads tuned for the last batch size learnt from
+  private transient int tunedParallelism;
+  private transient int tunedBatchSize;
+
+  private transient volatile Snapshot snapshot;
+  private transient volatile boolean snapshotRequested;
+  private transient volatile long version;
 
   /**
    * A very basic implementation of a neural network
@@ -28,36 +61,326 @@ public class NeuralNetwork<T> implements Serializable {
    * @param regularisation the regularisation of the network
    * @param momentum the momentum of the network
    */
-  @SuppressWarnings("unchecked") // Suppress compiler warning for layer array
   public NeuralNetwork(
     int[] layerSizes,
     double regularisation,
     double momentum
+  ) {
+    this(
+      layerSizes,
+      new Sigmoid(),
+      new Sigmoid(),
+      new CrossEntropyLoss(),
+      regularisation,
+      momentum,
+      ThreadLocalRandom.current().nextLong()
+    );
+  }
+
+  /**
+   * A fully connected neural network with reproducible initial weights,
+   * each layer initialised to suit its activation function
+   * @param layerSizes an array containing the number of nodes for each layer
+   * @param hiddenActivation the activation function of the hidden layers
+   * @param outputActivation the activation function of the output layer
+   * @param cost the cost function of the network
+   * @param regularisation the regularisation of the network
+   * @param momentum the momentum of the network
+   * @param seed the seed of the initial weights
+   */
+  @SuppressWarnings("unchecked") // Suppress compiler warning for layer array
+  public NeuralNetwork(
+    int[] layerSizes,
+    IActivation hiddenActivation,
+    IActivation outputActivation,
+    ICost cost,
+    double regularisation,
+    double momentum,
+    long seed
   ) {
     // Create and populate the layers
-    layers = new Layer[layerSizes.length - 1];
+    layers = (ILayer<T>[]) new ILayer<?>[layerSizes.length - 1];
 
-    // Populate the hidden layers
+    // Populate the layers, each with its own seed
+    final SplittableRandom seeds = new SplittableRandom(seed);
     for (int i = 0; i < layers.length; i++) {
-      layers[i] = new Layer<>(layerSizes[i], layerSizes[i + 1]);
+      final IActivation activation = i == layers.length - 1
+        ? outputActivation
+        : hiddenActivation;
+      layers[i] =
+        new Layer<>(
+          layerSizes[i],
+          layerSizes[i + 1],
+          activation,
+          Layer.initializerFor(activation),
+          seeds.nextLong()
+        );
     }
 
+    this.cost = cost;
     this.regularisation = regularisation;
     this.momentum = momentum;
+
+    snapshot = copyParameters();
+  }
+
+  /**
+   * A neural network made of any mix of layer types
+   * @param layers the layers of the network, from input to output
+   * @param regularisation the regularisation of the network
+   * @param momentum the momentum of the network
+   */
+  public NeuralNetwork(
+    List<? extends ILayer<T>> layers,
+    double regularisation,
+    double momentum
+  ) {
+    this(layers, new CrossEntropyLoss(), regularisation, momentum);
+  }
+
+  /**
+   * A neural network made of any mix of layer types
+   * @param layers the layers of the network, from input to output
+   * @param cost the cost function of the network
+   * @param regularisation the regularisation of the network
+   * @param momentum the momentum of the network
+   */
+  @SuppressWarnings("unchecked") // Suppress compiler warning for layer array
+  public NeuralNetwork(
+    List<? extends ILayer<T>> layers,
+    ICost cost,
+    double regularisation,
+    double momentum
+  ) {
+    for (int i = 1; i < layers.size(); i++) {
+      final int inputs = layers.get(i).getNumNodesIn();
+      final int previousOutputs = layers.get(i - 1).getNumNodesOut();
+      if (inputs != previousOutputs) {
+        throw new IllegalArgumentException(
+          "Layer " + i + " expects " + inputs +
+          " inputs but the previous layer has " + previousOutputs + " outputs"
+        );
+      }
+    }
+
+    if (!layers.get(layers.size() - 1).canBeOutputLayer()) {
+      throw new IllegalArgumentException(
+        "The last layer must be fully connected, not a " +
+        layers.get(layers.size() - 1).getClass().getSimpleName()
+      );
+    }
+
+    this.layers = (ILayer<T>[]) layers.toArray(new ILayer<?>[0]);
+    this.cost = cost;
+    this.regularisation = regularisation;
+    this.momentum = momentum;
+
+    snapshot = copyParameters();
+  }
+
+  private void readObject(ObjectInputStream in)
+    throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    if (cost == null) cost = new CrossEntropyLoss();
+    publishSnapshot();
+  }
+
+  /**
+   * Limits how many threads learning a batch may use at once, so that
+   * several networks training together each get a fair share of the CPU.
+   * @param parallelism the largest number of threads to use, or 0 for the
+   * number found fastest for this network on this machine
+   */
+  public void setParallelism(int parallelism) {
+    if (parallelism < 0) {
+      throw new IllegalArgumentException("Parallelism must be >= 0");
+    }
+    this.parallelism = parallelism;
+  }
+
+  public int getParallelism() {
+    return parallelism == 0 ? THREADS : Math.min(parallelism, THREADS);
+  }
+
+  /**
+   * Splits each batch into micro batches, which are learnt one after the
+   * other, with their gradients added up and applied once per batch.
+   * <p>The result is the same as learning the whole batch at once. Memory
+   * only grows with the number of threads either way, but each thread count
+   * is tuned for a batch size, and large batches are best tuned and
+   * dispatched in smaller pieces.</p>
+   * @param microBatchSize the largest number of samples to learn at once,
+   * or 0 to learn whole batches at once
+   */
+  public void setMicroBatchSize(int microBatchSize) {
+    if (microBatchSize < 0) {
+      throw new IllegalArgumentException("Micro batch size must be >= 0");
+    }
+    this.microBatchSize = microBatchSize;
+  }
+
+  public int getMicroBatchSize() {
+    return microBatchSize;
+  }
+
+  /**
+   * Learns batches by splitting the layers into stages, each owned by its
+   * own thread, instead of splitting the samples across threads.
+   * <p>Micro batches stream through the stages, so deep networks scale
+   * without every thread adding to the gradients of every layer. The micro
+   * batch size applies to the pipeline when it is set, otherwise each stage
+   * gets a few micro batches per batch. The results are the same as
+   * learning on a single thread.</p>
+   * @param stages the number of stages, at most the number of layers, or 0
+   * to split the samples across threads
+   */
+  public void setPipelineStages(int stages) {
+    if (stages < 0 || stages > layers.length) {
+      throw new IllegalArgumentException(
+        "Pipeline stages must be between 0 and " + layers.length
+      );
+    }
+    if (pipeline != null) pipeline.shutdown();
+    pipeline = stages == 0 ? null : new Pipeline<>(layers, cost, stages);
+  }
+
+  public int getPipelineStages() {
+    return pipeline == null ? 0 : pipeline.getStageCount();
   }
 
   /**
-   * Feeds an array of inputs to the input layer of the network
+   * @return the index of the first layer of each pipeline stage followed by
+   * the number of layers, or null if the network isn't pipelined
+   */
+  public int[] getPipelineBoundaries() {
+    return pipeline == null ? null : pipeline.getBoundaries();
+  }
+
+  /**
+   * @param reset whether to start measuring afresh afterwards
+   * @return the fraction of the time spent learning that each pipeline stage
+   * was working rather than waiting for its neighbours, or null if the
+   * network isn't pipelined
+   */
+  public double[] getStageUtilization(boolean reset) {
+    if (pipeline == null) return null;
+    final double[] utilization = pipeline.getUtilization();
+    if (reset) pipeline.resetUtilization();
+    return utilization;
+  }
+
+  public ICost getCost() {
+    return cost;
+  }
+
+  public int getInputSize() {
+    return layers[0].getNumNodesIn();
+  }
+
+  public int getOutputSize() {
+    return layers[layers.length - 1].getNumNodesOut();
+  }
+
+  public int getLayerCount() {
+    return layers.length;
+  }
+
+  /**
+   * @return the activation function of the output layer, or null if the
+   * output layer isn't fully connected
+   */
+  public IActivation getOutputActivation() {
+    final ILayer<T> outputLayer = layers[layers.length - 1];
+    if (outputLayer instanceof Layer<T> layer) return layer.getActivation();
+    if (outputLayer instanceof OffHeapLayer<T> layer) {
+      return layer.getActivation();
+    }
+    return null;
+  }
+
+  /**
+   * @param layer the index of a layer, from 0 for the first hidden layer
+   * @return the number of outputs of the layer
+   */
+  public int getLayerOutputSize(int layer) {
+    return layers[layer].getNumNodesOut();
+  }
+
+  /**
+   * Feeds an array of inputs to the input layer of the network,
+   * using the latest published {@link #snapshot()} of its parameters.
+   * <p>This method is safe to call from any thread, even while training.</p>
    * @param inputs the input activations to feed to the input layer
    * @return the outputs of the network
    */
   public double[] calculateOutputs(double[] inputs) {
-    final int outputIndex = layers.length - 1;
-    for (int i = 0; i < outputIndex; i++) {
-      inputs = layers[i].forwardPass(inputs);
+    return snapshot().calculateOutputs(inputs);
+  }
+
+  /**
+   * Feeds an array of inputs to the input layer of the network, splitting
+   * each large enough layer across the common fork join pool.
+   * <p>This is meant for interactive predictions on wide networks, where the
+   * latency of one input matters more than throughput. It is safe to call
+   * from any thread, even while training.</p>
+   * @param inputs the input activations to feed to the input layer
+   * @return the outputs of the network
+   */
+  public double[] calculateOutputsParallel(double[] inputs) {
+    return snapshot().calculateOutputsParallel(inputs);
+  }
+
+  /**
+   * Returns the latest published parameters of the network without blocking.
+   * <p>If the network has been trained since, the trainer is asked to publish
+   * a new snapshot after the batch it is currently learning from.</p>
+   * @return the latest snapshot of the network
+   */
+  public Snapshot snapshot() {
+    final Snapshot current = snapshot;
+    if (current.version != version) snapshotRequested = true;
+    return current;
+  }
+
+  /**
+   * Copies the current parameters of every layer into a new snapshot
+   * and makes it visible to readers.
+   * <p>This must be called from the thread training the network, or while
+   * the network isn't being trained.</p>
+   * @return the published snapshot
+   */
+  public Snapshot publishSnapshot() {
+    snapshotRequested = false;
+    final Snapshot published = copyParameters();
+    snapshot = published;
+    return published;
+  }
+
+  private Snapshot copyParameters() {
+    final ILayer.Snapshot[] layerSnapshots = new ILayer.Snapshot[layers.length];
+    for (int i = 0; i < layers.length; i++) {
+      layerSnapshots[i] = layers[i].snapshot();
+    }
+    return new Snapshot(layerSnapshots, version);
+  }
+
+  /**
+   * Rolls the parameters of every layer back to an earlier snapshot of this
+   * network, then publishes them.
+   * <p>This must be called from the thread training the network, or while
+   * the network isn't being trained.</p>
+   * @param snapshot a snapshot taken from this network
+   */
+  public void restore(Snapshot snapshot) {
+    if (snapshot.layers.length != layers.length) {
+      throw new IllegalArgumentException("Snapshot of a different network");
+    }
+    for (int i = 0; i < layers.length; i++) {
+      layers[i].restore(snapshot.layers[i]);
     }
-    inputs = layers[outputIndex].outputPass(inputs);
-    return inputs;
+
+    version++;
+    publishSnapshot();
   }
 
   /**
@@ -65,116 +388,549 @@ public class NeuralNetwork<T> implements Serializable {
    * to compute the gradient of the cost function at that {@code dataPoint};
    * @param dataPoint the data point to feed to the network
    * @param learnData the learn data of this network
+   * @param applier the applier to tell as back-propagation finishes with
+   * each layer, or null if this isn't the thread's last sample
    */
-  private void updateGradients(DataPoint dataPoint, LearnData learnData) {
+  private void updateGradients(
+    DataPoint dataPoint,
+    LearnData learnData,
+    GradientApplier applier
+  ) {
     // Feed data through network to calculate outputs
     double[] inputsToNextLayer = dataPoint.inputs();
 
-    for (int i = 0; i < layers.length - 1; i++) {
+    for (int i = 0; i < layers.length; i++) {
       inputsToNextLayer =
         layers[i].forwardPass(inputsToNextLayer, learnData.layerData[i]);
     }
 
-    final int outputIndex = layers.length - 1;
-    final Layer<T> outputLayer = layers[outputIndex];
-    final Layer.LearnData outputData = learnData.layerData[outputIndex];
-
-    inputsToNextLayer = outputLayer.outputPass(inputsToNextLayer, outputData);
+    final double[] expectedOutputs = dataPoint.expectedOutputs();
+    final double sampleCost = cost.calculateCost(
+      inputsToNextLayer,
+      expectedOutputs
+    );
+    learnData.cost += sampleCost;
+    if (
+      getMaxIndex(inputsToNextLayer) == dataPoint.expectedOutput()
+    ) learnData.correct++;
 
-    if (App.DEBUG) {
-      final double cost = Layer.COST.calculateCost(
-        inputsToNextLayer,
-        dataPoint.expectedOutputs()
-      );
-      System.out.println(cost);
-    }
+    if (App.DEBUG) System.out.println(sampleCost);
 
     // ---------- Back-propagation ----------
 
     // Update output layer gradients
-    outputLayer.calculateOutputNodeValues(
+    final int outputIndex = layers.length - 1;
+    final ILayer.LearnData outputData = learnData.layerData[outputIndex];
+    for (int i = 0; i < expectedOutputs.length; i++) {
+      learnData.costGradients[i] =
+        cost.derivative(inputsToNextLayer[i], expectedOutputs[i]);
+    }
+    layers[outputIndex].calculateNodeValues(
       outputData,
-      dataPoint.expectedOutputs()
+      learnData.costGradients
     );
-    outputLayer.updateGradients(outputData);
+    layers[outputIndex].updateGradients(outputData);
 
     // Update all hidden layer gradients
     for (int i = outputIndex - 1; i >= 0; i--) {
-      final Layer.LearnData layerLearnData = learnData.layerData[i];
+      final ILayer.LearnData nextLearnData = learnData.layerData[i + 1];
+      layers[i + 1].calculateInputGradients(nextLearnData);
+      if (applier != null) applier.finished(i + 1);
 
+      final ILayer.LearnData layerLearnData = learnData.layerData[i];
       layers[i].calculateNodeValues(
-          layerLearnData,
-          layers[i + 1],
-          learnData.layerData[i + 1].nodeValues
-        );
+        layerLearnData,
+        nextLearnData.inputGradients
+      );
       layers[i].updateGradients(layerLearnData);
     }
+    if (applier != null) applier.finished(0);
   }
 
-  public void learn(DataPoint[] data, double learnRate) {
-    if (batchLearnData == null || batchLearnData.length != data.length) {
-      batchLearnData = new LearnData[data.length];
-      for (int i = 0; i < batchLearnData.length; i++) {
-        batchLearnData[i] = new LearnData(layers);
+  /**
+   * Trains the network on a single batch of data.
+   * @param data the batch of data points to learn from
+   * @param learnRate the learning rate
+   * @return the cost and accuracy of the network on the batch,
+   * from before the gradients were applied
+   */
+  public BatchResult learn(DataPoint[] data, double learnRate) {
+    return learn(BatchView.of(data), learnRate);
+  }
+
+  /**
+   * Trains the network on a single batch of data.
+   * @param batch the batch of data points to learn from
+   * @param learnRate the learning rate
+   * @return the cost and accuracy of the network on the batch,
+   * from before the gradients were applied
+   */
+  public BatchResult learn(BatchView batch, double learnRate) {
+    return learn(batch, learnRate, null);
+  }
+
+  /**
+   * Trains the network on a single batch of data, optionally measuring how
+   * noisy its gradient is.
+   * <p>Measuring learns the batch in two halves, one after the other, so it
+   * is best done every few batches rather than on every one.</p>
+   * @param batch the batch of data points to learn from
+   * @param learnRate the learning rate
+   * @param noise the estimate to add a measurement to, or null to not
+   * measure
+   * @return the cost and accuracy of the network on the batch,
+   * from before the gradients were applied
+   */
+  public BatchResult learn(
+    BatchView batch,
+    double learnRate,
+    GradientNoise noise
+  ) {
+    final int size = batch.size();
+    if (workerLearnData == null) {
+      workerLearnData = new LearnData[THREADS];
+      for (int i = 0; i < workerLearnData.length; i++) {
+        workerLearnData[i] = new LearnData(layers);
       }
     }
+    for (LearnData learnData : workerLearnData) {
+      learnData.cost = 0;
+      learnData.correct = 0;
+    }
+
+    // A pipeline splits the batch into micro batches itself
+    final int microBatch = pipeline != null || microBatchSize == 0
+      ? size
+      : Math.min(microBatchSize, size);
+    final int parallelism = pipeline != null ? 1 : getParallelism(microBatch);
+    // Measuring the noise needs the gradient of the first half on its own
+    final int half = noise == null || size < 2 ? -1 : size / 2;
+    double halfLength = 0;
+    // The squared gradient length of each layer, taken just before the
+    // layer's gradients are applied
+    final double[] layerLengths = half > 0 ? new double[layers.length] : null;
+    try {
+      for (int from = 0; from < size;) {
+        int to = Math.min(from + microBatch, size);
+        if (from < half && half < to) to = half;
 
-    for (int i = 0; i < data.length; i++) {
-      final int iCopy = i;
-      submitTask(() -> updateGradients(data[iCopy], batchLearnData[iCopy]));
+        if (pipeline != null) {
+          pipeline.updateGradients(
+            batch,
+            from,
+            to,
+            microBatchSize,
+            workerLearnData[0]
+          );
+        } else if (to == size) {
+          // The last run applies each layer's gradients while the threads are
+          // still back-propagating through the layers before it
+          final GradientApplier applier = new GradientApplier(
+            Math.min(to - from, parallelism),
+            learnRate / size,
+            layerLengths
+          );
+          try {
+            updateGradients(batch, from, to, parallelism, applier);
+          } finally {
+            applier.await();
+          }
+        } else updateGradients(batch, from, to, parallelism, null);
+        // The gradients are sums until they are applied
+        if (to == half) {
+          halfLength = gradientLengthSquared() / ((double) half * half);
+        }
+        from = to;
+      }
+      // A pipeline applies each stage's gradients on the stage's own thread
+      if (pipeline != null) {
+        if (half > 0) {
+          for (int i = 0; i < layers.length; i++) {
+            layerLengths[i] = layers[i].gradientLengthSquared();
+          }
+        }
+        pipeline.applyGradients(learnRate / size, regularisation, momentum);
+      }
+    } catch (RuntimeException | Error e) {
+      // Layers a failed batch never reached still hold its gradients, which
+      // mustn't leak into the next batch
+      for (ILayer<T> layer : layers) layer.clearGradients();
+      throw e;
     }
-    blockThread();
+    if (half > 0) {
+      double fullLength = 0;
+      for (double length : layerLengths) fullLength += length;
+      noise.record(half, halfLength, size, fullLength / ((double) size * size));
+    }
+
+    // Only pay for copying the parameters when someone is reading them
+    version++;
+    if (snapshotRequested) publishSnapshot();
 
-    // Apply the gradients to the weights and biases of each layer
-    for (Layer<T> layer : layers) {
-      layer.applyGradients(learnRate / data.length, regularisation, momentum);
+    double cost = 0;
+    int correct = 0;
+    for (LearnData learnData : workerLearnData) {
+      cost += learnData.cost;
+      correct += learnData.correct;
     }
+    return new BatchResult(cost / size, (double) correct / size);
   }
 
   /**
-   * A helper method for multithreading that submits
-   * a task to the executor thread pool.
-   * @param task the task to submit to the pool
+   * @param batchSize the size of the batch about to be learnt from
+   * @return the number of threads to learn the batch with
    */
-  private static void submitTask(Runnable task) {
-    futures.add(pool.submit(task));
+  private int getParallelism(int batchSize) {
+    if (parallelism != 0) return getParallelism();
+
+    // Only fully connected networks can be timed from their layer sizes
+    for (ILayer<T> layer : layers) {
+      if (!(layer instanceof Layer)) return THREADS;
+    }
+    if (tunedBatchSize != batchSize) {
+      final int[] layerSizes = new int[layers.length + 1];
+      layerSizes[0] = getInputSize();
+      for (int i = 0; i < layers.length; i++) {
+        layerSizes[i + 1] = layers[i].getNumNodesOut();
+      }
+      final int tuned = Backends.parallelismFor(layerSizes, batchSize);
+      // Still being timed, so ask again on a later batch
+      if (tuned == 0) return THREADS;
+      tunedParallelism = tuned;
+      tunedBatchSize = batchSize;
+    }
+    return Math.min(tunedParallelism, THREADS);
+  }
+
+  /**
+   * Adds the gradients of a run of the batch, split into one contiguous
+   * chunk per thread.
+   * @param applier the applier to tell as each thread finishes with each
+   * layer, or null to leave the gradients unapplied
+   */
+  private void updateGradients(
+    BatchView batch,
+    int from,
+    int to,
+    int parallelism,
+    GradientApplier applier
+  ) {
+    final int tasks = Math.min(to - from, parallelism);
+    if (tasks <= 1) {
+      updateGradients(batch, from, to, workerLearnData[0], applier);
+      return;
+    }
+
+    final List<Future<?>> futures = new ArrayList<>(tasks);
+    for (int t = 0; t < tasks; t++) {
+      final int chunkFrom = from + t * (to - from) / tasks;
+      final int chunkTo = from + (t + 1) * (to - from) / tasks;
+      final LearnData learnData = workerLearnData[t];
+      futures.add(
+        pool.submit(() ->
+          updateGradients(batch, chunkFrom, chunkTo, learnData, applier)
+        )
+      );
+    }
+    blockThread(futures);
+  }
+
+  /**
+   * @return the squared length of the gradients of every layer added since
+   * they were last applied
+   */
+  private double gradientLengthSquared() {
+    double sum = 0;
+    for (ILayer<T> layer : layers) sum += layer.gradientLengthSquared();
+    return sum;
+  }
+
+  private void updateGradients(
+    BatchView batch,
+    int from,
+    int to,
+    LearnData learnData,
+    GradientApplier applier
+  ) {
+    for (int i = from; i < to; i++) {
+      updateGradients(batch.get(i), learnData, i == to - 1 ? applier : null);
+    }
+  }
+
+  /**
+   * Applies each layer's gradients as soon as every thread learning the
+   * batch has back-propagated its last sample through the layer, splitting
+   * the layer's parameters across the pool while the threads carry on with
+   * the layers before it.
+   */
+  private final class GradientApplier {
+
+    // The number of threads yet to finish with each layer
+    private final AtomicIntegerArray remaining;
+    private final double learnRate;
+    private final double[] lengths;
+    private final List<Future<?>> futures = Collections.synchronizedList(
+      new ArrayList<>()
+    );
+
+    /**
+     * @param threads the number of threads learning the batch
+     * @param learnRate the learning rate
+     * @param lengths the array to store the squared gradient length of each
+     * layer in, or null to not measure them
+     */
+    GradientApplier(int threads, double learnRate, double[] lengths) {
+      final int[] counts = new int[layers.length];
+      Arrays.fill(counts, threads);
+      remaining = new AtomicIntegerArray(counts);
+      this.learnRate = learnRate;
+      this.lengths = lengths;
+    }
+
+    /**
+     * Called by a thread once it has back-propagated its last sample through
+     * a layer, and won't read the layer's weights again this batch.
+     * @param layer the index of the layer
+     */
+    void finished(int layer) {
+      if (remaining.decrementAndGet(layer) != 0) return;
+
+      if (lengths != null) {
+        lengths[layer] = layers[layer].gradientLengthSquared();
+      }
+      final int parts = Math.max(
+        1,
+        Math.min(THREADS, layers[layer].getParameterCount() / APPLY_GRAIN)
+      );
+      for (int part = 0; part < parts; part++) {
+        final int applyPart = part;
+        futures.add(
+          pool.submit(() ->
+            layers[layer].applyGradients(
+              learnRate,
+              regularisation,
+              momentum,
+              applyPart,
+              parts
+            )
+          )
+        );
+      }
+    }
+
+    /**
+     * Waits for every layer's gradients to be applied, once every thread
+     * has finished back-propagating.
+     */
+    void await() {
+      blockThread(futures);
+    }
+  }
+
+  /**
+   * @param values the outputs of a network
+   * @return the index of the largest output, the first if several are equal
+   */
+  public static int getMaxIndex(double[] values) {
+    int maxIndex = 0;
+
+    for (int i = 1; i < values.length; i++) {
+      if (values[i] > values[maxIndex]) maxIndex = i;
+    }
+
+    return maxIndex;
   }
 
   /**
    * A helper method for multithreading that blocks the current thread
-   * until all tasks in the {@link #futures} array have been completed.
-   * Clears the array after.
+   * until all the given tasks have been completed, then rethrows the first
+   * failure of any of them.
+   * @param futures the tasks to wait for
    */
-  private static void blockThread() {
-    futures.forEach(future -> {
+  private static void blockThread(List<Future<?>> futures) {
+    Throwable failure = null;
+    for (Future<?> future : futures) {
       try {
         future.get();
       } catch (InterruptedException e) {
         Thread.currentThread().interrupt();
-        e.printStackTrace();
+        throw new IllegalStateException("Interrupted learning a batch", e);
       } catch (ExecutionException e) {
-        e.printStackTrace();
+        if (failure == null) failure = e.getCause();
       }
-    });
-    futures.clear();
+    }
+    if (failure instanceof RuntimeException e) throw e;
+    if (failure instanceof Error e) throw e;
+    if (failure != null) {
+      throw new IllegalStateException("A learning task failed", failure);
+    }
   }
 
   public static void shutdown() {
     pool.shutdown();
   }
 
+  /**
+   * The result of learning from a single batch.
+   * @param cost the average cost of the network over the batch
+   * @param accuracy the fraction of the batch the network classified correctly
+   */
+  public record BatchResult(double cost, double accuracy) {}
+
+  /**
+   * An immutable copy of the parameters of every layer in a network.
+   * <p>Training never modifies a snapshot, so any number of threads can run
+   * inference against one without synchronisation.</p>
+   */
+  public static final class Snapshot {
+
+    private final ILayer.Snapshot[] layers;
+    private final long version;
+
+    private Snapshot(ILayer.Snapshot[] layers, long version) {
+      this.layers = layers;
+      this.version = version;
+    }
+
+    /**
+     * Feeds an array of inputs to the input layer of the network
+     * @param inputs the input activations to feed to the input layer
+     * @return the outputs of the network
+     */
+    public double[] calculateOutputs(double[] inputs) {
+      return calculateOutputs(inputs, 0, layers.length);
+    }
+
+    /**
+     * Feeds an array of inputs through a run of the network's layers.
+     * @param inputs the inputs to the first layer of the run
+     * @param from the index of the first layer, inclusive
+     * @param to the index of the last layer, exclusive
+     * @return the outputs of the last layer of the run
+     */
+    public double[] calculateOutputs(double[] inputs, int from, int to) {
+      for (int i = from; i < to; i++) {
+        inputs = layers[i].forwardPass(inputs);
+      }
+      return inputs;
+    }
+
+    /**
+     * Feeds an array of inputs to the input layer of the network, splitting
+     * each large enough layer across the common fork join pool.
+     * @param inputs the input activations to feed to the input layer
+     * @return the outputs of the network
+     */
+    public double[] calculateOutputsParallel(double[] inputs) {
+      for (ILayer.Snapshot layer : layers) {
+        inputs = layer.forwardPassParallel(inputs);
+      }
+      return inputs;
+    }
+
+    /**
+     * Feeds a batch of inputs through the network in a single pass.
+     * @param inputs the input activations for each sample in the batch
+     * @return the outputs of the network for each sample in the batch
+     */
+    public double[][] calculateOutputs(double[][] inputs) {
+      return calculateOutputs(inputs, 0, layers.length);
+    }
+
+    /**
+     * Feeds a batch of inputs through a run of the network's layers.
+     * @param inputs the inputs to the first layer of the run for each sample
+     * @param from the index of the first layer, inclusive
+     * @param to the index of the last layer, exclusive
+     * @return the outputs of the last layer of the run for each sample
+     */
+    public double[][] calculateOutputs(double[][] inputs, int from, int to) {
+      for (int i = from; i < to; i++) {
+        inputs = layers[i].forwardPass(inputs);
+      }
+      return inputs;
+    }
+
+    /**
+     * Feeds a batch of inputs through the network, keeping the activations
+     * of every layer in a workspace so that later batches of the same size
+     * don't allocate.
+     * <p>The returned arrays belong to the workspace, and are overwritten by
+     * the next batch fed through it.</p>
+     * @param inputs the input activations for each sample in the batch
+     * @param workspace the buffers to reuse, used by one thread at a time
+     * @return the outputs of the network for each sample in the batch
+     */
+    public double[][] calculateOutputs(
+      double[][] inputs,
+      Workspace workspace
+    ) {
+      if (
+        workspace.activations == null ||
+        workspace.activations.length != layers.length ||
+        workspace.activations[0].length != inputs.length
+      ) {
+        // The first batch of a size allocates the buffers it fills
+        workspace.activations = new double[layers.length][][];
+        for (int i = 0; i < layers.length; i++) {
+          inputs = layers[i].forwardPass(inputs);
+          workspace.activations[i] = inputs;
+        }
+        return inputs;
+      }
+
+      for (int i = 0; i < layers.length; i++) {
+        layers[i].forwardPass(inputs, workspace.activations[i]);
+        inputs = workspace.activations[i];
+      }
+      return inputs;
+    }
+
+    public int getLayerCount() {
+      return layers.length;
+    }
+
+    /**
+     * @return the number of batches the network had learnt from
+     * when this snapshot was taken
+     */
+    public long version() {
+      return version;
+    }
+  }
+
+  /**
+   * The activations of every layer for one batch of inputs, reused from one
+   * batch to the next by {@link Snapshot#calculateOutputs(double[][],
+   * Workspace)}.
+   */
+  public static final class Workspace {
+
+    private double[][][] activations;
+  }
+
+  /**
+   * The buffers one thread needs to learn from a sample, reused for each
+   * sample it learns from.
+   */
   public static class LearnData {
 
-    final Layer.LearnData[] layerData;
+    final ILayer.LearnData[] layerData;
+    final double[] costGradients;
+    // The total cost and number of correct predictions of the thread's
+    // samples in the current batch
+    double cost;
+    int correct;
 
     /**
      * @param layers the array of layers to store in the learn data
      */
-    public LearnData(Layer<?>[] layers) {
-      layerData = new Layer.LearnData[layers.length];
+    public LearnData(ILayer<?>[] layers) {
+      layerData = new ILayer.LearnData[layers.length];
       for (int i = 0; i < layers.length; i++) {
-        layerData[i] = new Layer.LearnData(layers[i]);
+        layerData[i] = layers[i].createLearnData();
       }
+      costGradients = new double[layers[layers.length - 1].getNumNodesOut()];
     }
   }
 }
@@ -0,0 +1,401 @@
+package network.core;
+
+import java.io.ObjectStreamException;
+import java.nio.DoubleBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import network.activation.IActivation;
+import network.initializer.IInitializer;
+import network.memory.ParameterArena;
+
+/**
+ * A fully connected layer whose weights, biases, gradients and velocities
+ * live in a {@link ParameterArena} instead of on the Java heap.
+ * <p>It learns exactly like a {@link Layer} with the same parameters, and is
+ * saved as one, so networks saved with off heap layers load as ordinary
+ * networks. A layer built on an arena opened from a file starts from the
+ * parameters in the file rather than initialising them.</p>
+ * <p>Once its arena is closed, everything but taking its shape throws
+ * {@link IllegalStateException}.</p>
+ */
+public class OffHeapLayer<T> implements ILayer<T> {
+
+  private static final long serialVersionUID = 1L;
+
+  private final int numNodesIn;
+  private final int numNodesOut;
+  private final IActivation activation;
+
+  private final transient ParameterArena arena;
+  // Slices of the arena, which can't be serialised, see writeReplace
+  private final transient DoubleBuffer weights;
+  private final transient DoubleBuffer biases;
+
+  private final transient DoubleBuffer costGradientWeight;
+  private final transient DoubleBuffer costGradientBias;
+
+  private final transient DoubleBuffer weightVelocities;
+  private final transient DoubleBuffer biasVelocities;
+
+  /**
+   * The constructor for a layer in a neural network, with its parameters
+   * allocated from an arena
+   * @param arena the arena to allocate the parameters from
+   * @param numNodesIn the number of nodes in the previous layer of the network
+   * @param numNodesOut the number of nodes in this layer
+   * @param activation the activation function of this layer
+   * @param initializer the scheme to initialise the weights with, unless the
+   * arena was loaded from a file
+   * @param seed the seed of the initial weights
+   */
+  public OffHeapLayer(
+    ParameterArena arena,
+    int numNodesIn,
+    int numNodesOut,
+    IActivation activation,
+    IInitializer initializer,
+    long seed
+  ) {
+    this.numNodesIn = numNodesIn;
+    this.numNodesOut = numNodesOut;
+    this.activation = activation;
+    this.arena = arena;
+
+    weights = arena.allocate(numNodesIn * numNodesOut);
+    biases = arena.allocate(numNodesOut);
+
+    costGradientWeight = arena.allocate(weights.capacity());
+    costGradientBias = arena.allocate(biases.capacity());
+
+    weightVelocities = arena.allocate(weights.capacity());
+    biasVelocities = arena.allocate(biases.capacity());
+
+    if (!arena.isLoaded()) {
+      // Biases start at zero
+      final double[] initialWeights = new double[weights.capacity()];
+      initializer.initialize(initialWeights, numNodesIn, numNodesOut, seed);
+      weights.put(0, initialWeights);
+    }
+  }
+
+  /**
+   * @param layerSizes an array containing the number of nodes for each layer
+   * @return the capacity of an arena holding the layers of a fully connected
+   * network
+   */
+  public static long bytesFor(int[] layerSizes) {
+    final int[] lengths = new int[(layerSizes.length - 1) * 6];
+    int slice = 0;
+    for (int i = 0; i < layerSizes.length - 1; i++) {
+      // The parameters, gradients and velocities, as the constructor
+      // allocates them
+      for (int copy = 0; copy < 3; copy++) {
+        lengths[slice++] = layerSizes[i] * layerSizes[i + 1];
+        lengths[slice++] = layerSizes[i + 1];
+      }
+    }
+    return ParameterArena.bytesFor(lengths);
+  }
+
+  /**
+   * Creates the layers of a fully connected network in an arena, with the
+   * same initial weights as {@link NeuralNetwork} gives the same seed.
+   * @param arena the arena to allocate the parameters from, which holds just
+   * these layers
+   * @param layerSizes an array containing the number of nodes for each layer
+   * @param hiddenActivation the activation function of the hidden layers
+   * @param outputActivation the activation function of the output layer
+   * @param seed the seed of the initial weights
+   * @return the layers, from input to output
+   * @throws IllegalStateException if the arena was opened from a file of
+   * different layers
+   */
+  public static <T> List<ILayer<T>> fullyConnected(
+    ParameterArena arena,
+    int[] layerSizes,
+    IActivation hiddenActivation,
+    IActivation outputActivation,
+    long seed
+  ) {
+    final List<ILayer<T>> layers = new ArrayList<>();
+    final SplittableRandom seeds = new SplittableRandom(seed);
+    for (int i = 0; i < layerSizes.length - 1; i++) {
+      final IActivation activation = i == layerSizes.length - 2
+        ? outputActivation
+        : hiddenActivation;
+      layers.add(
+        new OffHeapLayer<>(
+          arena,
+          layerSizes[i],
+          layerSizes[i + 1],
+          activation,
+          Layer.initializerFor(activation),
+          seeds.nextLong()
+        )
+      );
+    }
+    arena.checkLoaded();
+    return layers;
+  }
+
+  public IActivation getActivation() {
+    return activation;
+  }
+
+  @Override
+  public int getNumNodesIn() {
+    return numNodesIn;
+  }
+
+  @Override
+  public int getNumNodesOut() {
+    return numNodesOut;
+  }
+
+  @Override
+  public LearnData createLearnData() {
+    return new LearnData(this);
+  }
+
+  @Override
+  public double[] forwardPass(double[] inputs, LearnData learnData) {
+    arena.checkOpen();
+    learnData.inputs = inputs;
+
+    calculateWeightedInputs(weights, biases, inputs, learnData.weightedInputs);
+    System.arraycopy(
+      learnData.weightedInputs,
+      0,
+      learnData.activations,
+      0,
+      numNodesOut
+    );
+
+    activation.function(learnData.activations);
+    return learnData.activations;
+  }
+
+  private static void calculateWeightedInputs(
+    DoubleBuffer weights,
+    DoubleBuffer biases,
+    double[] inputs,
+    double[] weightedInputs
+  ) {
+    final int numNodesIn = inputs.length;
+    for (int nodeOut = 0; nodeOut < weightedInputs.length; nodeOut++) {
+      final int offset = nodeOut * numNodesIn;
+      double weightedInput = biases.get(nodeOut);
+      for (int nodeIn = 0; nodeIn < numNodesIn; nodeIn++) {
+        weightedInput += inputs[nodeIn] * weights.get(offset + nodeIn);
+      }
+      weightedInputs[nodeOut] = weightedInput;
+    }
+  }
+
+  @Override
+  public void calculateNodeValues(
+    LearnData learnData,
+    double[] outputGradients
+  ) {
+    activation.backward(
+      learnData.weightedInputs,
+      learnData.activations,
+      outputGradients,
+      learnData.nodeValues
+    );
+  }
+
+  @Override
+  public void calculateInputGradients(LearnData learnData) {
+    arena.checkOpen();
+    final double[] inputGradients = learnData.inputGradients;
+    Arrays.fill(inputGradients, 0);
+    for (int nodeOut = 0; nodeOut < numNodesOut; nodeOut++) {
+      final double nodeValue = learnData.nodeValues[nodeOut];
+      final int offset = nodeOut * numNodesIn;
+      for (int nodeIn = 0; nodeIn < numNodesIn; nodeIn++) {
+        inputGradients[nodeIn] += weights.get(offset + nodeIn) * nodeValue;
+      }
+    }
+  }
+
+  @Override
+  public void updateGradients(LearnData learnData) {
+    arena.checkOpen();
+    synchronized (costGradientWeight) {
+      for (int nodeOut = 0; nodeOut < numNodesOut; nodeOut++) {
+        final double nodeValue = learnData.nodeValues[nodeOut];
+        final int offset = nodeOut * numNodesIn;
+        for (int nodeIn = 0; nodeIn < numNodesIn; nodeIn++) {
+          final int i = offset + nodeIn;
+          costGradientWeight.put(
+            i,
+            costGradientWeight.get(i) + learnData.inputs[nodeIn] * nodeValue
+          );
+        }
+        costGradientBias.put(
+          nodeOut,
+          costGradientBias.get(nodeOut) + nodeValue
+        );
+      }
+    }
+  }
+
+  @Override
+  public void applyGradients(
+    double learnRate,
+    double regularisation,
+    double momentum
+  ) {
+    applyGradients(learnRate, regularisation, momentum, 0, 1);
+  }
+
+  @Override
+  public void applyGradients(
+    double learnRate,
+    double regularisation,
+    double momentum,
+    int part,
+    int parts
+  ) {
+    arena.checkOpen();
+    final double weightDecay = 1 - regularisation * learnRate;
+
+    applyGradients(
+      weights,
+      costGradientWeight,
+      weightVelocities,
+      part,
+      parts,
+      learnRate,
+      weightDecay,
+      momentum
+    );
+    applyGradients(
+      biases,
+      costGradientBias,
+      biasVelocities,
+      part,
+      parts,
+      learnRate,
+      1,
+      momentum
+    );
+  }
+
+  @Override
+  public int getParameterCount() {
+    return weights.capacity() + biases.capacity();
+  }
+
+  /**
+   * Applies gradient descent with momentum to one of several equal parts of
+   * a slice of parameters, then clears their gradients, in the same way as
+   * {@link Layer#applyGradients(double[], double[], double[], int, int,
+   * double, double, double)}.
+   */
+  private static void applyGradients(
+    DoubleBuffer parameters,
+    DoubleBuffer gradients,
+    DoubleBuffer velocities,
+    int part,
+    int parts,
+    double learnRate,
+    double decay,
+    double momentum
+  ) {
+    final int length = parameters.capacity();
+    final int from = (int) ((long) length * part / parts);
+    final int to = (int) ((long) length * (part + 1) / parts);
+    for (int i = from; i < to; i++) {
+      final double velocity =
+        velocities.get(i) * momentum - gradients.get(i) * learnRate;
+      velocities.put(i, velocity);
+      parameters.put(i, parameters.get(i) * decay + velocity);
+      gradients.put(i, 0);
+    }
+  }
+
+  @Override
+  public void clearGradients() {
+    arena.checkOpen();
+    clear(costGradientWeight);
+    clear(costGradientBias);
+  }
+
+  @Override
+  public boolean canBeOutputLayer() {
+    return true;
+  }
+
+  @Override
+  public double gradientLengthSquared() {
+    arena.checkOpen();
+    return lengthSquared(costGradientWeight) + lengthSquared(costGradientBias);
+  }
+
+  private static double lengthSquared(DoubleBuffer values) {
+    double sum = 0;
+    for (int i = 0; i < values.capacity(); i++) {
+      sum += values.get(i) * values.get(i);
+    }
+    return sum;
+  }
+
+  /**
+   * Copies the current weights and biases of this layer onto the heap, so
+   * the snapshot outlives the arena and no memory outside the heap is taken
+   * on every publish.
+   * <p>This must be called from the thread training the layer.</p>
+   * @return an immutable snapshot of this layer's parameters
+   */
+  @Override
+  public Layer.Snapshot snapshot() {
+    arena.checkOpen();
+    return Layer.snapshot(
+      toArray(weights),
+      toArray(biases),
+      activation,
+      numNodesIn
+    );
+  }
+
+  @Override
+  public void restore(ILayer.Snapshot snapshot) {
+    arena.checkOpen();
+    final Layer.Snapshot layerSnapshot = (Layer.Snapshot) snapshot;
+    weights.put(0, layerSnapshot.getWeights());
+    biases.put(0, layerSnapshot.getBiases());
+    clear(weightVelocities);
+    clear(biasVelocities);
+  }
+
+  private static double[] toArray(DoubleBuffer values) {
+    final double[] array = new double[values.capacity()];
+    values.get(0, array);
+    return array;
+  }
+
+  private static void clear(DoubleBuffer values) {
+    for (int i = 0; i < values.capacity(); i++) values.put(i, 0);
+  }
+
+  /**
+   * Saves this layer as an ordinary {@link Layer} with the same parameters
+   * and velocities, as its arena can't be saved with it.
+   */
+  private Object writeReplace() throws ObjectStreamException {
+    arena.checkOpen();
+    return new Layer<T>(
+      numNodesIn,
+      numNodesOut,
+      activation,
+      toArray(weights),
+      toArray(biases),
+      toArray(weightVelocities),
+      toArray(biasVelocities)
+    );
+  }
+}
@@ -0,0 +1,480 @@
+package network.core;
+
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import network.BatchView;
+import network.DataPoint;
+import network.cost.ICost;
+
+/**
+ * Learns batches by splitting a network's layers into stages, each owned by
+ * its own thread, and streaming micro batches through them.
+ * <p>Each stage alternates between the forward pass of one micro batch and
+ * the backward pass of another, starting the backward passes as soon as the
+ * last stage can, so a stage never holds more micro batches than there are
+ * stages after it. Activations travel to the next stage and input gradients
+ * to the previous one through bounded queues, and only the thread owning a
+ * layer ever adds to its gradients or applies them.</p>
+ * <p>The stages are balanced by the number of weights of each layer, as if
+ * it were fully connected. Every sample is learnt in the same order as by a
+ * single thread, so the results are identical to it.</p>
+ */
+final class Pipeline<T> {
+
+  // The number of micro batches per stage when none is set, which keeps the
+  // time stages wait at the start and end of a batch to about a fifth
+  private static final int MICRO_BATCHES_PER_STAGE = 4;
+
+  private final ILayer<T>[] layers;
+  private final ICost cost;
+  // The index of the first layer of each stage, then the number of layers
+  private final int[] boundaries;
+  private final ExecutorService threads;
+  // The activations each stage sends to the next
+  private final BlockingQueue<Message>[] forwardQueues;
+  // The input gradients each stage sends to the previous one
+  private final BlockingQueue<Message>[] backwardQueues;
+  // The buffers of each micro batch a stage is working on
+  private final Slot[][] slots;
+
+  private final long[] busyNanos;
+  private long wallNanos;
+
+  /**
+   * @param layers the layers of the network
+   * @param cost the cost function of the network
+   * @param stages the number of stages, at most the number of layers
+   */
+  // Suppress compiler warnings for the generic queue arrays
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  Pipeline(ILayer<T>[] layers, ICost cost, int stages) {
+    if (stages < 1 || stages > layers.length) {
+      throw new IllegalArgumentException(
+        "Stages must be between 1 and " + layers.length
+      );
+    }
+    this.layers = layers;
+    this.cost = cost;
+    boundaries = balance(layers, stages);
+
+    final AtomicInteger threadCount = new AtomicInteger();
+    threads =
+      Executors.newFixedThreadPool(
+        stages,
+        task -> {
+          final Thread thread = new Thread(
+            task,
+            "pipeline-stage-" + threadCount.getAndIncrement()
+          );
+          thread.setDaemon(true);
+          return thread;
+        }
+      );
+
+    forwardQueues = new BlockingQueue[stages];
+    backwardQueues = new BlockingQueue[stages];
+    for (int stage = 0; stage < stages; stage++) {
+      forwardQueues[stage] = new ArrayBlockingQueue<>(stages);
+      backwardQueues[stage] = new ArrayBlockingQueue<>(stages);
+    }
+    // A stage reuses the buffers of a micro batch once it has finished its
+    // backward pass, by which time the stages either side have finished
+    // with them too
+    slots = new Slot[stages][stages];
+    busyNanos = new long[stages];
+  }
+
+  /**
+   * Splits the layers into contiguous stages with the smallest largest
+   * number of weights.
+   * @return the index of the first layer of each stage, then the number of
+   * layers
+   */
+  private static int[] balance(ILayer<?>[] layers, int stages) {
+    final long[] prefix = new long[layers.length + 1];
+    for (int i = 0; i < layers.length; i++) {
+      prefix[i + 1] =
+        prefix[i] +
+        (long) layers[i].getNumNodesIn() * layers[i].getNumNodesOut();
+    }
+
+    // largest[s][i] is the smallest largest stage of the first i layers
+    // split into s stages, ending a stage at cut[s][i]
+    final long[][] largest = new long[stages + 1][layers.length + 1];
+    final int[][] cut = new int[stages + 1][layers.length + 1];
+    for (long[] row : largest) Arrays.fill(row, Long.MAX_VALUE);
+    largest[0][0] = 0;
+    for (int s = 1; s <= stages; s++) {
+      for (int i = s; i <= layers.length; i++) {
+        for (int j = s - 1; j < i; j++) {
+          if (largest[s - 1][j] == Long.MAX_VALUE) continue;
+          final long stageLargest = Math.max(
+            largest[s - 1][j],
+            prefix[i] - prefix[j]
+          );
+          if (stageLargest < largest[s][i]) {
+            largest[s][i] = stageLargest;
+            cut[s][i] = j;
+          }
+        }
+      }
+    }
+
+    final int[] boundaries = new int[stages + 1];
+    boundaries[stages] = layers.length;
+    for (int s = stages; s > 0; s--) {
+      boundaries[s - 1] = cut[s][boundaries[s]];
+    }
+    return boundaries;
+  }
+
+  int getStageCount() {
+    return boundaries.length - 1;
+  }
+
+  /**
+   * @return the index of the first layer of each stage, then the number of
+   * layers
+   */
+  int[] getBoundaries() {
+    return boundaries.clone();
+  }
+
+  /**
+   * @return the fraction of the time spent learning that each stage was
+   * working rather than waiting for its neighbours
+   */
+  synchronized double[] getUtilization() {
+    final double[] utilization = new double[busyNanos.length];
+    if (wallNanos == 0) return utilization;
+    for (int stage = 0; stage < utilization.length; stage++) {
+      utilization[stage] = (double) busyNanos[stage] / wallNanos;
+    }
+    return utilization;
+  }
+
+  synchronized void resetUtilization() {
+    Arrays.fill(busyNanos, 0);
+    wallNanos = 0;
+  }
+
+  /**
+   * Adds the gradients of a run of the batch, streaming it through the
+   * stages in micro batches.
+   * @param batch the batch of data points to learn from
+   * @param from the index of the first data point, inclusive
+   * @param to the index of the last data point, exclusive
+   * @param microBatchSize the number of samples in each micro batch, or 0
+   * for a few micro batches per stage
+   * @param totals the learn data to add the cost and number of correct
+   * predictions to
+   */
+  void updateGradients(
+    BatchView batch,
+    int from,
+    int to,
+    int microBatchSize,
+    NeuralNetwork.LearnData totals
+  ) {
+    if (to <= from) return;
+    final int stages = getStageCount();
+    final int microBatch = microBatchSize > 0
+      ? microBatchSize
+      : Math.max(
+        1,
+        Math.ceilDiv(to - from, stages * MICRO_BATCHES_PER_STAGE)
+      );
+    final int microBatches = Math.ceilDiv(to - from, microBatch);
+
+    run(stage ->
+      runStage(stage, batch, from, to, microBatch, microBatches, totals)
+    );
+  }
+
+  /**
+   * Applies the gradients of each stage's layers on the thread owning them,
+   * with every stage working at once.
+   * @param learnRate the learning rate
+   * @param regularisation the regularisation
+   * @param momentum the momentum
+   */
+  void applyGradients(
+    double learnRate,
+    double regularisation,
+    double momentum
+  ) {
+    run(stage -> {
+      final long startTime = System.nanoTime();
+      for (int i = boundaries[stage]; i < boundaries[stage + 1]; i++) {
+        layers[i].applyGradients(learnRate, regularisation, momentum);
+      }
+      busyNanos[stage] += System.nanoTime() - startTime;
+    });
+  }
+
+  void shutdown() {
+    threads.shutdownNow();
+  }
+
+  /**
+   * Runs a task on every stage's thread and waits for them all. If one
+   * fails, the others are interrupted so that none waits on it forever,
+   * and all of them have stopped by the time the failure is thrown.
+   */
+  private synchronized void run(StageTask task) {
+    final long startTime = System.nanoTime();
+    final int stages = getStageCount();
+    // The thread running each stage, guarded by the array itself
+    final Thread[] stageThreads = new Thread[stages];
+    final AtomicReference<Throwable> failure = new AtomicReference<>();
+    final CountDownLatch finished = new CountDownLatch(stages);
+    for (int stage = 0; stage < stages; stage++) {
+      final int taskStage = stage;
+      threads.execute(() -> {
+        try {
+          synchronized (stageThreads) {
+            if (failure.get() != null) return;
+            stageThreads[taskStage] = Thread.currentThread();
+          }
+          task.run(taskStage);
+        } catch (Throwable e) {
+          stop(stageThreads, failure, e);
+        } finally {
+          synchronized (stageThreads) {
+            stageThreads[taskStage] = null;
+            // Keeps an interrupt meant for this task from leaking into
+            // the pool thread's next one
+            Thread.interrupted();
+          }
+          finished.countDown();
+        }
+      });
+    }
+
+    boolean interrupted = false;
+    while (true) {
+      try {
+        finished.await();
+        break;
+      } catch (InterruptedException e) {
+        interrupted = true;
+        stop(stageThreads, failure, e);
+      }
+    }
+    wallNanos += System.nanoTime() - startTime;
+    if (interrupted) Thread.currentThread().interrupt();
+
+    if (failure.get() != null) {
+      for (BlockingQueue<Message> queue : forwardQueues) queue.clear();
+      for (BlockingQueue<Message> queue : backwardQueues) queue.clear();
+      throw new IllegalStateException("A pipeline stage failed", failure.get());
+    }
+  }
+
+  /**
+   * Records the first failure of a run and interrupts every running stage.
+   */
+  private static void stop(
+    Thread[] stageThreads,
+    AtomicReference<Throwable> failure,
+    Throwable cause
+  ) {
+    synchronized (stageThreads) {
+      if (!failure.compareAndSet(null, cause)) return;
+      for (Thread thread : stageThreads) {
+        if (thread != null) thread.interrupt();
+      }
+    }
+  }
+
+  /**
+   * Runs one stage's forward and backward passes of every micro batch in a
+   * one forward, one backward order.
+   */
+  private void runStage(
+    int stage,
+    BatchView batch,
+    int from,
+    int to,
+    int microBatch,
+    int microBatches,
+    NeuralNetwork.LearnData totals
+  ) throws InterruptedException {
+    // Later stages start their backward passes sooner, as the micro batches
+    // reach them sooner
+    final int warmup = Math.min(getStageCount() - stage - 1, microBatches);
+    int forwards = 0;
+    int backwards = 0;
+    for (; forwards < warmup; forwards++) {
+      forwardPass(stage, batch, from, to, microBatch, forwards, totals);
+    }
+    while (backwards < microBatches) {
+      if (forwards < microBatches) {
+        forwardPass(stage, batch, from, to, microBatch, forwards++, totals);
+      }
+      backwardPass(stage, backwards++);
+    }
+  }
+
+  private void forwardPass(
+    int stage,
+    BatchView batch,
+    int from,
+    int to,
+    int microBatch,
+    int index,
+    NeuralNetwork.LearnData totals
+  ) throws InterruptedException {
+    final int start = from + index * microBatch;
+    final int size = Math.min(microBatch, to - start);
+    final Slot slot = slot(stage, index, size);
+    final boolean last = stage == getStageCount() - 1;
+
+    final double[][] inputs = stage == 0
+      ? null
+      : take(forwardQueues[stage - 1], index);
+
+    final long startTime = System.nanoTime();
+    final int first = boundaries[stage];
+    for (int sample = 0; sample < size; sample++) {
+      double[] activations = stage == 0
+        ? batch.get(start + sample).inputs()
+        : inputs[sample];
+      for (int i = first; i < boundaries[stage + 1]; i++) {
+        activations =
+          layers[i].forwardPass(activations, slot.layerData[sample][i - first]);
+      }
+      slot.outputs[sample] = activations;
+
+      if (last) {
+        final DataPoint dataPoint = batch.get(start + sample);
+        final double[] expectedOutputs = dataPoint.expectedOutputs();
+        totals.cost += cost.calculateCost(activations, expectedOutputs);
+        if (
+          NeuralNetwork.getMaxIndex(activations) == dataPoint.expectedOutput()
+        ) totals.correct++;
+
+        final double[] costGradients = slot.costGradients[sample];
+        for (int i = 0; i < expectedOutputs.length; i++) {
+          costGradients[i] = cost.derivative(
+            activations[i],
+            expectedOutputs[i]
+          );
+        }
+      }
+    }
+    busyNanos[stage] += System.nanoTime() - startTime;
+
+    if (!last) forwardQueues[stage].put(new Message(index, slot.outputs));
+  }
+
+  private void backwardPass(int stage, int index) throws InterruptedException {
+    final Slot slot = slots[stage][index % slots[stage].length];
+    final double[][] outputGradients = stage == getStageCount() - 1
+      ? slot.costGradients
+      : take(backwardQueues[stage], index);
+
+    final long startTime = System.nanoTime();
+    final int first = boundaries[stage];
+    final int end = boundaries[stage + 1];
+    for (int sample = 0; sample < slot.size; sample++) {
+      final ILayer.LearnData[] layerData = slot.layerData[sample];
+      double[] gradients = outputGradients[sample];
+      for (int i = end - 1; i >= first; i--) {
+        final ILayer.LearnData learnData = layerData[i - first];
+        layers[i].calculateNodeValues(learnData, gradients);
+        layers[i].updateGradients(learnData);
+        // The first layer of the network has no one to pass gradients to
+        if (i > 0) {
+          layers[i].calculateInputGradients(learnData);
+          gradients = learnData.inputGradients;
+        }
+      }
+      slot.inputGradients[sample] = gradients;
+    }
+    busyNanos[stage] += System.nanoTime() - startTime;
+
+    if (stage > 0) {
+      backwardQueues[stage - 1].put(new Message(index, slot.inputGradients));
+    }
+  }
+
+  /**
+   * @return the buffers for a micro batch, grown to fit it if needed
+   */
+  private Slot slot(int stage, int index, int size) {
+    final Slot[] stageSlots = slots[stage];
+    final int position = index % stageSlots.length;
+    Slot slot = stageSlots[position];
+    if (slot == null || slot.layerData.length < size) {
+      slot =
+        new Slot(
+          layers,
+          boundaries[stage],
+          boundaries[stage + 1],
+          size,
+          stage == getStageCount() - 1
+        );
+      stageSlots[position] = slot;
+    }
+    slot.size = size;
+    return slot;
+  }
+
+  private static double[][] take(BlockingQueue<Message> queue, int index)
+    throws InterruptedException {
+    final Message message = queue.take();
+    if (message.index() != index) {
+      throw new IllegalStateException(
+        "Expected micro batch " + index + " but got " + message.index()
+      );
+    }
+    return message.values();
+  }
+
+  private interface StageTask {
+    void run(int stage) throws InterruptedException;
+  }
+
+  /**
+   * The activations or gradients of every sample of a micro batch.
+   * @param index the position of the micro batch in the run
+   * @param values the values of each sample
+   */
+  private record Message(int index, double[][] values) {}
+
+  /**
+   * The buffers of a stage's layers for every sample of a micro batch.
+   */
+  private static final class Slot {
+
+    final ILayer.LearnData[][] layerData;
+    // The activations of the stage's last layer for each sample
+    final double[][] outputs;
+    // The input gradients of the stage's first layer for each sample
+    final double[][] inputGradients;
+    // The cost gradients for each sample, on the last stage only
+    final double[][] costGradients;
+    int size;
+
+    Slot(ILayer<?>[] layers, int first, int end, int capacity, boolean last) {
+      layerData = new ILayer.LearnData[capacity][end - first];
+      for (int sample = 0; sample < capacity; sample++) {
+        for (int i = first; i < end; i++) {
+          layerData[sample][i - first] = layers[i].createLearnData();
+        }
+      }
+      outputs = new double[capacity][];
+      inputGradients = new double[capacity][];
+      costGradients = last
+        ? new double[capacity][layers[end - 1].getNumNodesOut()]
+        : null;
+    }
+  }
+}
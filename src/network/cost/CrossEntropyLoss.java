@@ -1,7 +1,31 @@
 package network.cost;
 
+import network.math.MathTier;
+
 public class CrossEntropyLoss implements ICost {
 
+  private static final long serialVersionUID = 1L;
+
+  // Keeps the derivative finite once an output saturates to exactly 0 or 1
+  private static final double EPSILON = 1e-12;
+
+  private final MathTier tier;
+
+  /**
+   * The logarithms are exact by default, as {@link Math#log} is an intrinsic
+   * and the approximations are no faster.
+   */
+  public CrossEntropyLoss() {
+    this(MathTier.EXACT);
+  }
+
+  /**
+   * @param tier the accuracy to evaluate the logarithms at
+   */
+  public CrossEntropyLoss(MathTier tier) {
+    this.tier = tier;
+  }
+
   @Override
   public double calculateCost(double[] outputs, double[] expectedOutputs) {
     double cost = 0;
@@ -9,9 +33,9 @@ public class CrossEntropyLoss implements ICost {
     for (int i = 0; i < outputs.length; i++) {
       final double x =
         expectedOutputs[i] *
-        Math.log(outputs[i]) +
+        tier.log(outputs[i]) +
         (1 - expectedOutputs[i]) *
-        Math.log(1 - outputs[i]);
+        tier.log(1 - outputs[i]);
       if (!Double.isNaN(x)) cost += x;
     }
 
@@ -20,6 +44,19 @@ public class CrossEntropyLoss implements ICost {
 
   @Override
   public double derivative(double output, double expectedOutput) {
+    output = Math.min(Math.max(output, EPSILON), 1 - EPSILON);
     return (output - expectedOutput) / (output * (1 - output));
   }
+
+  public MathTier getTier() {
+    return tier;
+  }
+
+  /**
+   * Costs saved before the tier could be picked used {@link Math}.
+   * @return this, or an equivalent cost if no tier was saved
+   */
+  private Object readResolve() {
+    return tier == null ? new CrossEntropyLoss() : this;
+  }
 }
@@ -1,6 +1,8 @@
 package network.cost;
 
-public interface ICost {
+import java.io.Serializable;
+
+public interface ICost extends Serializable {
   double calculateCost(double[] outputs, double[] expectedOutputs);
 
   double derivative(double output, double expectedOutput);
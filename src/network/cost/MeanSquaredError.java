@@ -2,6 +2,8 @@ package network.cost;
 
 public class MeanSquaredError implements ICost {
 
+  private static final long serialVersionUID = 1L;
+
   /**
    * Calculates the cost of the network through the mean squared error function.
    * @param outputs the outputs of the network
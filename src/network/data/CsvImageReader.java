@@ -0,0 +1,59 @@
+package network.data;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+
+/**
+ * Reads images from a CSV file with one image per line and pixel intensities
+ * between 0 and 255.
+ * <p>Lines with one more value than the image size are assumed to start with
+ * a label, which is skipped. Blank lines are ignored.</p>
+ */
+public class CsvImageReader implements IImageReader {
+
+  private final BufferedReader reader;
+  private final int imageSize;
+  private int lineNumber;
+
+  /**
+   * @param reader the reader of the CSV file
+   * @param imageSize the number of pixels in each image
+   */
+  public CsvImageReader(BufferedReader reader, int imageSize) {
+    this.reader = reader;
+    this.imageSize = imageSize;
+  }
+
+  @Override
+  public double[] read() throws IOException {
+    String line;
+    do {
+      line = reader.readLine();
+      lineNumber++;
+      if (line == null) return null;
+    } while (line.isBlank());
+
+    final String[] values = line.split(",");
+    final int offset = values.length - imageSize;
+    if (offset != 0 && offset != 1) {
+      throw new IOException(
+        "Expected " + imageSize + " values on line " + lineNumber
+      );
+    }
+
+    final double[] image = new double[imageSize];
+    try {
+      for (int i = 0; i < imageSize; i++) {
+        image[i] = Double.parseDouble(values[offset + i].trim()) / 255;
+      }
+    } catch (NumberFormatException e) {
+      throw new IOException("Invalid value on line " + lineNumber, e);
+    }
+    return image;
+  }
+
+  @Override
+  public void close() throws IOException {
+    reader.close();
+  }
+}
@@ -0,0 +1,19 @@
+package network.data;
+
+import java.io.IOException;
+
+/**
+ * Streams images one at a time, so that files of any size can be read in
+ * constant memory.
+ */
+public interface IImageReader extends AutoCloseable {
+  /**
+   * @return the pixels of the next image between 0 and 1,
+   * or {@code null} if there are no images left
+   * @throws IOException if the image could not be read
+   */
+  double[] read() throws IOException;
+
+  @Override
+  void close() throws IOException;
+}
@@ -0,0 +1,62 @@
+package network.data;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads images from an IDX3 file of unsigned bytes, such as the MNIST images.
+ */
+public class IdxImageReader implements IImageReader {
+
+  private static final int MAGIC_NUMBER = 0x00000803;
+
+  private final DataInputStream stream;
+  private final byte[] imageData;
+  private final int numImages;
+  private int imagesRead;
+
+  /**
+   * Reads the header of the file.
+   * @param stream the stream of the IDX file
+   * @param imageSize the number of pixels expected in each image
+   * @throws IOException if the header could not be read or doesn't match
+   */
+  public IdxImageReader(InputStream stream, int imageSize) throws IOException {
+    this.stream = new DataInputStream(new BufferedInputStream(stream));
+
+    if (this.stream.readInt() != MAGIC_NUMBER) {
+      throw new IOException("Not an IDX3 file of unsigned bytes");
+    }
+    numImages = this.stream.readInt();
+    if (imageSize != this.stream.readInt() * this.stream.readInt()) {
+      throw new IOException("Image size is not correct");
+    }
+
+    imageData = new byte[imageSize];
+  }
+
+  public int size() {
+    return numImages;
+  }
+
+  @Override
+  public double[] read() throws IOException {
+    if (imagesRead >= numImages) return null;
+
+    stream.readFully(imageData);
+    imagesRead++;
+
+    final double[] image = new double[imageData.length];
+    for (int i = 0; i < image.length; i++) {
+      image[i] = (imageData[i] & 0xFF) / 255d;
+    }
+    return image;
+  }
+
+  @Override
+  public void close() throws IOException {
+    stream.close();
+  }
+}
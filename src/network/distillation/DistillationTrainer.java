@@ -0,0 +1,292 @@
+package network.distillation;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import network.App;
+import network.DataPoint;
+import network.core.NeuralNetwork;
+import network.trainer.NetworkTrainer;
+import network.trainer.TrainerParams;
+
+/**
+ * Trains a small student network to mimic a larger, frozen teacher.
+ * <p>Each target is a blend of the teacher's outputs, softened by a
+ * temperature, and the hard label. The soft part carries what the teacher
+ * knows about which wrong answers are nearly right, which a student trained
+ * on hard labels alone never sees.</p>
+ * <p>The student learns at temperature 1 against the blended targets, so
+ * its gradients don't need the usual rescaling by the square of the
+ * temperature.</p>
+ */
+public class DistillationTrainer<T> {
+
+  private static final int WARMUP_SAMPLES = 2_000;
+
+  private final NetworkTrainer<T> trainer;
+
+  /**
+   * The accuracy and single prediction latency of a student against its
+   * teacher.
+   * @param teacherAccuracy the accuracy of the teacher
+   * @param teacherMicros the average latency of the teacher
+   * @param studentAccuracy the accuracy of the student
+   * @param studentMicros the average latency of the student
+   */
+  public record Comparison(
+    double teacherAccuracy,
+    double teacherMicros,
+    double studentAccuracy,
+    double studentMicros
+  ) {
+    @Override
+    public String toString() {
+      return String.format(
+        "Teacher: %.2f%% in %.1fus%nStudent: %.2f%% in %.1fus (%.2fx faster)",
+        teacherAccuracy * 100,
+        teacherMicros,
+        studentAccuracy * 100,
+        studentMicros,
+        teacherMicros / studentMicros
+      );
+    }
+  }
+
+  /**
+   * @param params the training parameters of the student, whose layer sizes
+   * are used to build it
+   * @param data the training data, in the order the cache was computed in
+   * @param teacher the teacher's outputs for the training data
+   * @param temperature the temperature to soften the teacher's outputs by
+   * @param softWeight the weight of the softened outputs in each target,
+   * between 0 and 1, with the rest going to the hard label
+   */
+  public DistillationTrainer(
+    TrainerParams params,
+    DataPoint[] data,
+    TeacherCache teacher,
+    double temperature,
+    double softWeight
+  ) {
+    this(
+      params,
+      new NeuralNetwork<>(
+        params.layerSizes(),
+        params.regularisation(),
+        params.momentum()
+      ),
+      data,
+      teacher,
+      temperature,
+      softWeight
+    );
+  }
+
+  /**
+   * @param params the training parameters of the student
+   * @param student the student network
+   * @param data the training data, in the order the cache was computed in
+   * @param teacher the teacher's outputs for the training data
+   * @param temperature the temperature to soften the teacher's outputs by
+   * @param softWeight the weight of the softened outputs in each target,
+   * between 0 and 1, with the rest going to the hard label
+   */
+  public DistillationTrainer(
+    TrainerParams params,
+    NeuralNetwork<T> student,
+    DataPoint[] data,
+    TeacherCache teacher,
+    double temperature,
+    double softWeight
+  ) {
+    if (teacher.size() != data.length) {
+      throw new IllegalArgumentException(
+        "The cache has " + teacher.size() + " data points, not " + data.length
+      );
+    }
+    if (teacher.getOutputSize() != student.getOutputSize()) {
+      throw new IllegalArgumentException(
+        "The student has a different number of outputs to the teacher"
+      );
+    }
+    if (!(temperature > 0)) {
+      throw new IllegalArgumentException("Temperature must be > 0");
+    }
+    if (!(softWeight >= 0 && softWeight <= 1)) {
+      throw new IllegalArgumentException("Soft weight must be in [0, 1]");
+    }
+
+    trainer =
+      new NetworkTrainer<>(
+        params,
+        student,
+        blend(data, teacher, temperature, softWeight)
+      );
+  }
+
+  /**
+   * Replaces the expected outputs of every data point with a blend of the
+   * teacher's softened outputs and the hard label.
+   */
+  private static DataPoint[] blend(
+    DataPoint[] data,
+    TeacherCache teacher,
+    double temperature,
+    double softWeight
+  ) {
+    final DataPoint[] blended = new DataPoint[data.length];
+    for (int i = 0; i < data.length; i++) {
+      final double[] targets = new double[teacher.getOutputSize()];
+      teacher.softTargets(i, temperature, targets);
+
+      final double[] hard = data[i].expectedOutputs();
+      for (int output = 0; output < targets.length; output++) {
+        targets[output] =
+          softWeight * targets[output] + (1 - softWeight) * hard[output];
+      }
+      blended[i] =
+        new DataPoint(data[i].inputs(), targets, data[i].expectedOutput());
+    }
+    return blended;
+  }
+
+  public NetworkTrainer<T> getTrainer() {
+    return trainer;
+  }
+
+  public NeuralNetwork<T> getStudent() {
+    return trainer.getNetwork();
+  }
+
+  /**
+   * @param iterations the number of mini batches to train the student on
+   */
+  public void run(int iterations) {
+    trainer.run(iterations);
+  }
+
+  /**
+   * Measures the accuracy and single prediction latency of a student and
+   * its teacher on the same data.
+   * @param teacher the teacher network
+   * @param student the student network
+   * @param data the data to test on
+   * @return the comparison
+   */
+  public static Comparison compare(
+    NeuralNetwork<?> teacher,
+    NeuralNetwork<?> student,
+    DataPoint[] data
+  ) {
+    final NeuralNetwork.Snapshot teacherSnapshot = teacher.snapshot();
+    final NeuralNetwork.Snapshot studentSnapshot = student.snapshot();
+
+    // Warm up both networks before timing anything
+    for (int i = 0; i < Math.min(data.length, WARMUP_SAMPLES); i++) {
+      teacherSnapshot.calculateOutputs(data[i].inputs());
+      studentSnapshot.calculateOutputs(data[i].inputs());
+    }
+
+    final long teacherStart = System.nanoTime();
+    final double teacherAccuracy = accuracy(teacherSnapshot, data);
+    final long studentStart = System.nanoTime();
+    final double studentAccuracy = accuracy(studentSnapshot, data);
+    final long end = System.nanoTime();
+
+    return new Comparison(
+      teacherAccuracy,
+      (studentStart - teacherStart) / 1e3 / data.length,
+      studentAccuracy,
+      (end - studentStart) / 1e3 / data.length
+    );
+  }
+
+  private static double accuracy(
+    NeuralNetwork.Snapshot snapshot,
+    DataPoint[] data
+  ) {
+    int correct = 0;
+    for (DataPoint point : data) {
+      final double[] outputs = snapshot.calculateOutputs(point.inputs());
+      if (
+        NeuralNetwork.getMaxIndex(outputs) == point.expectedOutput()
+      ) correct++;
+    }
+    return (double) correct / data.length;
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 3) {
+      System.err.println(
+        "Usage: distil <teacher trainer file> <student layer sizes> " +
+        "<student trainer file> [epochs] [temperature] [soft weight]"
+      );
+      System.exit(1);
+    }
+
+    final NetworkTrainer<Byte> teacherTrainer = NetworkTrainer.load(
+      new File(args[0])
+    );
+    final NeuralNetwork<Byte> teacher = teacherTrainer.getNetwork();
+    final int[] layerSizes = Arrays
+      .stream(args[1].split(","))
+      .mapToInt(Integer::parseInt)
+      .toArray();
+    final int epochs = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+    final double temperature = args.length > 4
+      ? Double.parseDouble(args[4])
+      : 4;
+    final double softWeight = args.length > 5
+      ? Double.parseDouble(args[5])
+      : 0.7;
+
+    final DataPoint[] trainingData = App.readTrainingData();
+    final TeacherCache cache = loadOrCompute(
+      new File(args[0]),
+      teacher,
+      trainingData
+    );
+
+    final TrainerParams params = new TrainerParams(layerSizes);
+    final DistillationTrainer<Byte> distillation = new DistillationTrainer<>(
+      params,
+      trainingData,
+      cache,
+      temperature,
+      softWeight
+    );
+
+    final long startTime = System.currentTimeMillis();
+    distillation.run(epochs * (trainingData.length / params.miniBatchSize()));
+    System.out.println(
+      "Training time: " + (System.currentTimeMillis() - startTime) + "ms"
+    );
+    distillation.getTrainer().save(new File(args[2]));
+
+    System.out.println(
+      compare(teacher, distillation.getStudent(), App.readTestingData())
+    );
+    NeuralNetwork.shutdown();
+  }
+
+  /**
+   * Reads the teacher's outputs from next to its file if they were cached by
+   * an earlier run since the teacher was saved, or computes and caches them
+   * if not.
+   */
+  private static TeacherCache loadOrCompute(
+    File teacherFile,
+    NeuralNetwork<?> teacher,
+    DataPoint[] data
+  ) throws IOException {
+    final File file = new File(teacherFile.getPath() + ".teacher");
+    if (file.isFile() && file.lastModified() >= teacherFile.lastModified()) {
+      final TeacherCache cache = TeacherCache.load(file);
+      if (cache.size() == data.length) return cache;
+    }
+
+    final TeacherCache cache = TeacherCache.compute(teacher, data);
+    cache.save(file);
+    return cache;
+  }
+}
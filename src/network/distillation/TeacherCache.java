@@ -0,0 +1,170 @@
+package network.distillation;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.stream.IntStream;
+import network.DataPoint;
+import network.activation.SoftMax;
+import network.core.NeuralNetwork;
+
+/**
+ * The outputs of a frozen teacher network for every training data point,
+ * computed once so that students never run the teacher while training.
+ * <p>Outputs are stored as single precision scores rather than
+ * probabilities: logits for sigmoid output layers, and log probabilities
+ * for soft max output layers. Scores keep the small probabilities that
+ * softening with a temperature brings out, which rounding probabilities
+ * to a few bits would lose, in half the memory of doubles.</p>
+ */
+public final class TeacherCache {
+
+  private static final int MAGIC = 0x54434348;
+  private static final int BATCH_SIZE = 256;
+  // Keeps the scores of saturated outputs finite
+  private static final double EPSILON = 1e-12;
+
+  private final int outputs;
+  private final boolean softMax;
+  private final float[] scores;
+
+  private TeacherCache(int outputs, boolean softMax, float[] scores) {
+    this.outputs = outputs;
+    this.softMax = softMax;
+    this.scores = scores;
+  }
+
+  /**
+   * Runs the teacher over the data in parallel batches.
+   * @param teacher the teacher network
+   * @param data the data the students will train on, in order
+   * @return the cache
+   */
+  public static TeacherCache compute(
+    NeuralNetwork<?> teacher,
+    DataPoint[] data
+  ) {
+    final NeuralNetwork.Snapshot snapshot = teacher.snapshot();
+    final int outputs = teacher.getOutputSize();
+    final boolean softMax = teacher.getOutputActivation() instanceof SoftMax;
+    final float[] scores = new float[data.length * outputs];
+
+    final int batches = (data.length + BATCH_SIZE - 1) / BATCH_SIZE;
+    IntStream
+      .range(0, batches)
+      .parallel()
+      .forEach(batch -> {
+        final int from = batch * BATCH_SIZE;
+        final int to = Math.min(from + BATCH_SIZE, data.length);
+        final double[][] inputs = new double[to - from][];
+        for (int i = from; i < to; i++) inputs[i - from] = data[i].inputs();
+
+        final double[][] probabilities = snapshot.calculateOutputs(inputs);
+        for (int i = from; i < to; i++) {
+          final double[] sample = probabilities[i - from];
+          for (int output = 0; output < outputs; output++) {
+            final double p = Math.min(
+              Math.max(sample[output], EPSILON),
+              1 - EPSILON
+            );
+            scores[i * outputs + output] =
+              (float) (softMax ? Math.log(p) : Math.log(p / (1 - p)));
+          }
+        }
+      });
+
+    return new TeacherCache(outputs, softMax, scores);
+  }
+
+  /**
+   * Reads a cache previously written with {@link #save(File)}.
+   * @param file the file to read the cache from
+   * @return the cache
+   * @throws IOException if the file could not be read
+   */
+  public static TeacherCache load(File file) throws IOException {
+    try (
+      DataInputStream in = new DataInputStream(
+        new BufferedInputStream(new FileInputStream(file))
+      )
+    ) {
+      if (in.readInt() != MAGIC) {
+        throw new IOException("Not a teacher cache: " + file);
+      }
+      final int outputs = in.readInt();
+      final boolean softMax = in.readBoolean();
+      final float[] scores = new float[in.readInt()];
+      for (int i = 0; i < scores.length; i++) scores[i] = in.readFloat();
+      return new TeacherCache(outputs, softMax, scores);
+    }
+  }
+
+  /**
+   * Writes the cache to a file, so that several students can be trained
+   * from one run of the teacher.
+   * @param file the file to write the cache to
+   * @throws IOException if the file could not be written
+   */
+  public void save(File file) throws IOException {
+    try (
+      DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(file))
+      )
+    ) {
+      out.writeInt(MAGIC);
+      out.writeInt(outputs);
+      out.writeBoolean(softMax);
+      out.writeInt(scores.length);
+      for (float score : scores) out.writeFloat(score);
+    }
+  }
+
+  /**
+   * @return the number of data points in the cache
+   */
+  public int size() {
+    return scores.length / outputs;
+  }
+
+  public int getOutputSize() {
+    return outputs;
+  }
+
+  /**
+   * Calculates the teacher's outputs for a data point, softened by dividing
+   * its scores by a temperature.
+   * <p>A temperature of 1 gives the teacher's own outputs, and higher
+   * temperatures spread more weight over the outputs it thinks are less
+   * likely.</p>
+   * @param sample the index of the data point
+   * @param temperature the temperature, above 0
+   * @param targets the array to store the softened outputs in
+   */
+  public void softTargets(int sample, double temperature, double[] targets) {
+    final int offset = sample * outputs;
+    if (!softMax) {
+      for (int output = 0; output < outputs; output++) {
+        final double score = scores[offset + output] / temperature;
+        targets[output] = 1 / (1 + Math.exp(-score));
+      }
+      return;
+    }
+
+    double max = Double.NEGATIVE_INFINITY;
+    for (int output = 0; output < outputs; output++) {
+      max = Math.max(max, scores[offset + output] / temperature);
+    }
+    double sum = 0;
+    for (int output = 0; output < outputs; output++) {
+      targets[output] =
+        Math.exp(scores[offset + output] / temperature - max);
+      sum += targets[output];
+    }
+    for (int output = 0; output < outputs; output++) targets[output] /= sum;
+  }
+}
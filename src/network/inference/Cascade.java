@@ -0,0 +1,430 @@
+package network.inference;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import network.App;
+import network.DataPoint;
+import network.core.NeuralNetwork;
+import network.trainer.NetworkTrainer;
+import network.trainer.TrainerParams;
+
+/**
+ * Answers with a cheap network first, and only runs the full network when
+ * the cheap one isn't confident enough.
+ * <p>The cheap network is either a separate small network fed the same
+ * inputs, or an exit head fed the activations of one of the full network's
+ * hidden layers. With an exit head the layers before the exit are shared,
+ * so an unconfident prediction only pays for the head on top of the full
+ * network.</p>
+ * <p>Confidence is the largest output of the cheap network, which suits
+ * both soft max and sigmoid output layers.</p>
+ */
+public class Cascade<T> {
+
+  private static final int WARMUP_SAMPLES = 2_000;
+  private static final double[] DEFAULT_THRESHOLDS = {
+    0.5,
+    0.7,
+    0.8,
+    0.9,
+    0.95,
+    0.99,
+    0.999,
+  };
+
+  private final NeuralNetwork<T> network;
+  private final NeuralNetwork<T> cheap;
+  // The number of layers of the full network the cheap network reads from
+  private final int exitLayer;
+  private volatile double threshold;
+
+  /**
+   * A single prediction of the cascade.
+   * @param outputs the outputs of the network that answered
+   * @param early whether the cheap network answered
+   */
+  public record Prediction(double[] outputs, boolean early) {}
+
+  /**
+   * The accuracy and latency of the cascade at one threshold.
+   * @param threshold the confidence threshold
+   * @param accuracy the fraction of the data classified correctly
+   * @param earlyRate the fraction of the data the cheap network answered
+   * @param micros the average latency of a single prediction
+   */
+  public record TradeOff(
+    double threshold,
+    double accuracy,
+    double earlyRate,
+    double micros
+  ) {}
+
+  /**
+   * The trade offs of a cascade, against the full network on its own.
+   * @param fullAccuracy the accuracy of the full network
+   * @param fullMicros the average latency of the full network
+   * @param tradeOffs the trade off at each threshold
+   */
+  public record Report(
+    double fullAccuracy,
+    double fullMicros,
+    List<TradeOff> tradeOffs
+  ) {
+    /**
+     * @return the report as a table, one threshold per row
+     */
+    public String table() {
+      final StringBuilder table = new StringBuilder(
+        String.format(
+          "%9s %8s %7s %9s %8s%n",
+          "threshold",
+          "accuracy",
+          "early",
+          "micros",
+          "speedup"
+        )
+      );
+      table.append(
+        String.format(
+          "%9s %7.2f%% %7s %9.1f %7.2fx%n",
+          "full",
+          fullAccuracy * 100,
+          "-",
+          fullMicros,
+          1.0
+        )
+      );
+      for (TradeOff tradeOff : tradeOffs) {
+        table.append(
+          String.format(
+            "%9.3f %7.2f%% %6.1f%% %9.1f %7.2fx%n",
+            tradeOff.threshold(),
+            tradeOff.accuracy() * 100,
+            tradeOff.earlyRate() * 100,
+            tradeOff.micros(),
+            fullMicros / tradeOff.micros()
+          )
+        );
+      }
+      return table.toString();
+    }
+  }
+
+  private Cascade(
+    NeuralNetwork<T> network,
+    NeuralNetwork<T> cheap,
+    int exitLayer,
+    double threshold
+  ) {
+    final int cheapInputs = exitLayer == 0
+      ? network.getInputSize()
+      : network.getLayerOutputSize(exitLayer - 1);
+    if (cheap.getInputSize() != cheapInputs) {
+      throw new IllegalArgumentException(
+        "The cheap network expects " + cheap.getInputSize() +
+        " inputs but is fed " + cheapInputs
+      );
+    }
+    if (cheap.getOutputSize() != network.getOutputSize()) {
+      throw new IllegalArgumentException(
+        "The cheap network has a different number of outputs"
+      );
+    }
+    this.network = network;
+    this.cheap = cheap;
+    this.exitLayer = exitLayer;
+    setThreshold(threshold);
+  }
+
+  /**
+   * @param small a small network fed the same inputs as the full network
+   * @param network the full network
+   * @param threshold the confidence the small network needs to answer
+   * @return the cascade
+   */
+  public static <T> Cascade<T> withSmallNetwork(
+    NeuralNetwork<T> small,
+    NeuralNetwork<T> network,
+    double threshold
+  ) {
+    return new Cascade<>(network, small, 0, threshold);
+  }
+
+  /**
+   * @param network the full network
+   * @param exitLayer the number of layers of the full network before the
+   * exit, between 1 and the number of hidden layers
+   * @param head a small network fed the outputs of the layer before the exit
+   * @param threshold the confidence the head needs to answer
+   * @return the cascade
+   */
+  public static <T> Cascade<T> withExitHead(
+    NeuralNetwork<T> network,
+    int exitLayer,
+    NeuralNetwork<T> head,
+    double threshold
+  ) {
+    checkExitLayer(network, exitLayer);
+    return new Cascade<>(network, head, exitLayer, threshold);
+  }
+
+  private static void checkExitLayer(NeuralNetwork<?> network, int exitLayer) {
+    if (exitLayer < 1 || exitLayer >= network.getLayerCount()) {
+      throw new IllegalArgumentException("No hidden layer " + exitLayer);
+    }
+  }
+
+  /**
+   * Trains an exit head on the activations of a hidden layer of a trained
+   * network, which is left unchanged.
+   * <p>The activations of every data point are computed once up front.</p>
+   * @param network the full network
+   * @param exitLayer the number of layers of the full network before the exit
+   * @param params the training parameters of the head, whose layer sizes
+   * must start with the size of the layer before the exit
+   * @param data the data to train on
+   * @param iterations the number of mini batches to train on
+   * @return the trained head
+   */
+  public static <T> NeuralNetwork<T> trainExitHead(
+    NeuralNetwork<T> network,
+    int exitLayer,
+    TrainerParams params,
+    DataPoint[] data,
+    int iterations
+  ) {
+    final double[][] inputs = new double[data.length][];
+    for (int i = 0; i < data.length; i++) inputs[i] = data[i].inputs();
+    final double[][] features = network
+      .snapshot()
+      .calculateOutputs(inputs, 0, exitLayer);
+
+    final DataPoint[] headData = new DataPoint[data.length];
+    for (int i = 0; i < data.length; i++) {
+      headData[i] =
+        new DataPoint(
+          features[i],
+          data[i].expectedOutputs(),
+          data[i].expectedOutput()
+        );
+    }
+
+    final NetworkTrainer<T> trainer = new NetworkTrainer<>(params, headData);
+    trainer.run(iterations);
+    return trainer.getNetwork();
+  }
+
+  public double getThreshold() {
+    return threshold;
+  }
+
+  /**
+   * @param threshold the confidence the cheap network needs to answer,
+   * where 0 always answers early and above 1 never does
+   */
+  public void setThreshold(double threshold) {
+    if (Double.isNaN(threshold)) {
+      throw new IllegalArgumentException("Threshold must be a number");
+    }
+    this.threshold = threshold;
+  }
+
+  /**
+   * Feeds an array of inputs through the cascade.
+   * <p>This method is safe to call from any thread, even while training.</p>
+   * @param inputs the input activations to feed to the input layer
+   * @return the prediction
+   */
+  public Prediction predict(double[] inputs) {
+    final NeuralNetwork.Snapshot full = network.snapshot();
+    final double[] shared = full.calculateOutputs(inputs, 0, exitLayer);
+
+    final double[] early = cheap.calculateOutputs(shared);
+    if (max(early) >= threshold) return new Prediction(early, true);
+
+    return new Prediction(
+      full.calculateOutputs(shared, exitLayer, full.getLayerCount()),
+      false
+    );
+  }
+
+  /**
+   * Feeds a batch of inputs through the cascade, running the rest of the
+   * full network as one batch of the unconfident inputs.
+   * @param inputs the input activations for each sample in the batch
+   * @return the prediction for each sample in the batch
+   */
+  public Prediction[] predict(double[][] inputs) {
+    final NeuralNetwork.Snapshot full = network.snapshot();
+    final double[][] shared = full.calculateOutputs(inputs, 0, exitLayer);
+    final double[][] early = cheap.snapshot().calculateOutputs(shared);
+    final double threshold = this.threshold;
+
+    final Prediction[] predictions = new Prediction[inputs.length];
+    final List<Integer> unconfident = new ArrayList<>();
+    for (int i = 0; i < inputs.length; i++) {
+      if (max(early[i]) >= threshold) {
+        predictions[i] = new Prediction(early[i], true);
+      } else {
+        unconfident.add(i);
+      }
+    }
+    if (unconfident.isEmpty()) return predictions;
+
+    final double[][] rest = new double[unconfident.size()][];
+    for (int i = 0; i < rest.length; i++) {
+      rest[i] = shared[unconfident.get(i)];
+    }
+    final double[][] outputs = full.calculateOutputs(
+      rest,
+      exitLayer,
+      full.getLayerCount()
+    );
+    for (int i = 0; i < outputs.length; i++) {
+      predictions[unconfident.get(i)] = new Prediction(outputs[i], false);
+    }
+    return predictions;
+  }
+
+  /**
+   * @param inputs the input activations to feed to the input layer
+   * @return the outputs of the network that answered
+   */
+  public double[] calculateOutputs(double[] inputs) {
+    return predict(inputs).outputs();
+  }
+
+  /**
+   * Measures the accuracy and single prediction latency of the cascade at
+   * each threshold, and of the full network on its own.
+   * <p>The threshold of the cascade is left unchanged.</p>
+   * @param data the data to evaluate on
+   * @param thresholds the thresholds to try
+   * @return the report
+   */
+  public Report evaluate(DataPoint[] data, double[] thresholds) {
+    final NeuralNetwork.Snapshot full = network.snapshot();
+
+    final Cascade<T> cascade = new Cascade<>(network, cheap, exitLayer, 0.5);
+
+    // Warm up both paths of the cascade before timing anything
+    for (int i = 0; i < Math.min(data.length, WARMUP_SAMPLES); i++) {
+      full.calculateOutputs(data[i].inputs());
+      cascade.predict(data[i].inputs());
+    }
+
+    int fullCorrect = 0;
+    long startTime = System.nanoTime();
+    for (DataPoint point : data) {
+      final double[] outputs = full.calculateOutputs(point.inputs());
+      if (
+        NeuralNetwork.getMaxIndex(outputs) == point.expectedOutput()
+      ) fullCorrect++;
+    }
+    final double fullMicros = micros(startTime, data.length);
+
+    final List<TradeOff> tradeOffs = new ArrayList<>(thresholds.length);
+    for (double threshold : thresholds) {
+      cascade.setThreshold(threshold);
+      int correct = 0;
+      int early = 0;
+      startTime = System.nanoTime();
+      for (DataPoint point : data) {
+        final Prediction prediction = cascade.predict(point.inputs());
+        if (
+          NeuralNetwork.getMaxIndex(prediction.outputs()) ==
+          point.expectedOutput()
+        ) {
+          correct++;
+        }
+        if (prediction.early()) early++;
+      }
+      tradeOffs.add(
+        new TradeOff(
+          threshold,
+          (double) correct / data.length,
+          (double) early / data.length,
+          micros(startTime, data.length)
+        )
+      );
+    }
+
+    return new Report(
+      (double) fullCorrect / data.length,
+      fullMicros,
+      tradeOffs
+    );
+  }
+
+  private static double micros(long startTime, int count) {
+    return (System.nanoTime() - startTime) / 1e3 / count;
+  }
+
+  private static double max(double[] values) {
+    double max = values[0];
+    for (int i = 1; i < values.length; i++) max = Math.max(max, values[i]);
+    return max;
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.println(
+        "Usage: cascade <trainer file> <small trainer file | exit layer> " +
+        "[thresholds]"
+      );
+      System.exit(1);
+    }
+
+    final NetworkTrainer<Byte> trainer = NetworkTrainer.load(
+      new File(args[0])
+    );
+    final NeuralNetwork<Byte> network = trainer.getNetwork();
+    final double[] thresholds = args.length > 2
+      ? parseThresholds(args[2])
+      : DEFAULT_THRESHOLDS;
+
+    final Cascade<Byte> cascade;
+    if (args[1].matches("\\d{1,9}")) {
+      // Train a head on the chosen hidden layer for one epoch
+      final int exitLayer = Integer.parseInt(args[1]);
+      checkExitLayer(network, exitLayer);
+      final DataPoint[] trainingData = App.readTrainingData();
+      final TrainerParams params = new TrainerParams(
+        new int[] {
+          network.getLayerOutputSize(exitLayer - 1),
+          network.getOutputSize(),
+        }
+      );
+      System.out.println("Training exit head after layer " + exitLayer);
+      final NeuralNetwork<Byte> head = trainExitHead(
+        network,
+        exitLayer,
+        params,
+        trainingData,
+        trainingData.length / params.miniBatchSize()
+      );
+      cascade = withExitHead(network, exitLayer, head, thresholds[0]);
+    } else {
+      final NetworkTrainer<Byte> small = NetworkTrainer.load(
+        new File(args[1])
+      );
+      cascade = withSmallNetwork(small.getNetwork(), network, thresholds[0]);
+    }
+
+    System.out.print(
+      cascade.evaluate(App.readTestingData(), thresholds).table()
+    );
+    NeuralNetwork.shutdown();
+  }
+
+  private static double[] parseThresholds(String csv) {
+    final String[] values = csv.split(",");
+    final double[] thresholds = new double[values.length];
+    for (int i = 0; i < values.length; i++) {
+      thresholds[i] = Double.parseDouble(values[i]);
+    }
+    return thresholds;
+  }
+}
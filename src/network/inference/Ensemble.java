@@ -0,0 +1,310 @@
+package network.inference;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import network.App;
+import network.DataPoint;
+import network.core.NeuralNetwork;
+import network.trainer.NetworkTrainer;
+
+/**
+ * Combines the predictions of several independently trained networks, each
+ * evaluated on its own thread over the same batch of inputs.
+ * <p>The inputs are shared by every network without copying. Each network
+ * keeps a {@link NeuralNetwork.Workspace} per thread, so repeated batches of
+ * the same size only allocate the combined outputs.</p>
+ */
+public class Ensemble<T> {
+
+  private static final int WARMUP_SAMPLES = 2_000;
+
+  private final List<NeuralNetwork<T>> networks;
+  private final double[] weights;
+  private final Combiner combiner;
+  private final ExecutorService pool;
+  // The workspaces of every network for the thread evaluating them
+  private final ThreadLocal<NeuralNetwork.Workspace[]> workspaces;
+
+  /**
+   * How the outputs of each network are combined.
+   */
+  public enum Combiner {
+    /** The average of the outputs */
+    MEAN,
+    /** The fraction of the networks predicting each output */
+    VOTE,
+    /** The average of the outputs, weighted by each network's weight */
+    WEIGHTED_MEAN,
+  }
+
+  /**
+   * @param networks the networks to combine, which must have the same inputs
+   * and outputs
+   * @param combiner how to combine their outputs
+   */
+  public Ensemble(List<NeuralNetwork<T>> networks, Combiner combiner) {
+    this(networks, null, combiner);
+  }
+
+  /**
+   * @param networks the networks to combine, which must have the same inputs
+   * and outputs
+   * @param weights the weight of each network, or null to weigh them equally
+   * @param combiner how to combine their outputs
+   */
+  public Ensemble(
+    List<NeuralNetwork<T>> networks,
+    double[] weights,
+    Combiner combiner
+  ) {
+    if (networks.isEmpty()) {
+      throw new IllegalArgumentException("An ensemble needs a network");
+    }
+    for (NeuralNetwork<T> network : networks) {
+      if (
+        network.getInputSize() != networks.get(0).getInputSize() ||
+        network.getOutputSize() != networks.get(0).getOutputSize()
+      ) {
+        throw new IllegalArgumentException(
+          "The networks have different input or output sizes"
+        );
+      }
+    }
+    if (weights != null && weights.length != networks.size()) {
+      throw new IllegalArgumentException(
+        weights.length + " weights for " + networks.size() + " networks"
+      );
+    }
+
+    this.networks = List.copyOf(networks);
+    this.weights = weights == null ? equalWeights(networks.size()) : weights;
+    this.combiner = combiner;
+    workspaces =
+      ThreadLocal.withInitial(() -> {
+        final NeuralNetwork.Workspace[] workspaces =
+          new NeuralNetwork.Workspace[networks.size()];
+        for (int i = 0; i < workspaces.length; i++) {
+          workspaces[i] = new NeuralNetwork.Workspace();
+        }
+        return workspaces;
+      });
+
+    // The calling thread evaluates one of the networks itself
+    final int threads = Math.min(
+      networks.size() - 1,
+      Runtime.getRuntime().availableProcessors()
+    );
+    pool =
+      threads == 0
+        ? null
+        : Executors.newFixedThreadPool(
+          threads,
+          task -> {
+            final Thread thread = new Thread(task, "ensemble-worker");
+            thread.setDaemon(true);
+            return thread;
+          }
+        );
+  }
+
+  private static double[] equalWeights(int count) {
+    final double[] weights = new double[count];
+    Arrays.fill(weights, 1);
+    return weights;
+  }
+
+  public int size() {
+    return networks.size();
+  }
+
+  public Combiner getCombiner() {
+    return combiner;
+  }
+
+  /**
+   * Feeds an array of inputs to every network and combines their outputs.
+   * @param inputs the input activations to feed to the input layers
+   * @return the combined outputs
+   */
+  public double[] calculateOutputs(double[] inputs) {
+    return calculateOutputs(new double[][] { inputs })[0];
+  }
+
+  /**
+   * Feeds a batch of inputs to every network at once and combines their
+   * outputs.
+   * <p>This method is safe to call from any thread, even while the networks
+   * are training.</p>
+   * @param inputs the input activations for each sample in the batch, which
+   * must not be modified until this returns
+   * @return the combined outputs for each sample in the batch
+   */
+  public double[][] calculateOutputs(double[][] inputs) {
+    final int outputSize = networks.get(0).getOutputSize();
+    final double[][] combined = new double[inputs.length][outputSize];
+
+    final List<Future<?>> futures = new ArrayList<>(networks.size() - 1);
+    for (int i = 1; i < networks.size(); i++) {
+      final int model = i;
+      futures.add(pool.submit(() -> accumulate(model, inputs, combined)));
+    }
+    accumulate(0, inputs, combined);
+
+    try {
+      for (Future<?> future : futures) future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted evaluating an ensemble", e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("A network failed", e.getCause());
+    }
+
+    final double total = combiner == Combiner.WEIGHTED_MEAN
+      ? sum(weights)
+      : networks.size();
+    for (double[] outputs : combined) {
+      for (int i = 0; i < outputs.length; i++) outputs[i] /= total;
+    }
+    return combined;
+  }
+
+  /**
+   * Evaluates one network and adds its contribution to the combined outputs.
+   * <p>The outputs are only locked once the network has finished, and only
+   * long enough to add to them.</p>
+   */
+  private void accumulate(int model, double[][] inputs, double[][] combined) {
+    final double[][] outputs = networks
+      .get(model)
+      .snapshot()
+      .calculateOutputs(inputs, workspaces.get()[model]);
+
+    synchronized (combined) {
+      for (int sample = 0; sample < inputs.length; sample++) {
+        final double[] sampleOutputs = outputs[sample];
+        final double[] sampleCombined = combined[sample];
+        switch (combiner) {
+          case MEAN -> {
+            for (int i = 0; i < sampleOutputs.length; i++) {
+              sampleCombined[i] += sampleOutputs[i];
+            }
+          }
+          case VOTE -> sampleCombined[
+            NeuralNetwork.getMaxIndex(sampleOutputs)
+          ]++;
+          case WEIGHTED_MEAN -> {
+            final double weight = weights[model];
+            for (int i = 0; i < sampleOutputs.length; i++) {
+              sampleCombined[i] += weight * sampleOutputs[i];
+            }
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Stops the threads evaluating the networks.
+   */
+  public void shutdown() {
+    if (pool != null) pool.shutdown();
+  }
+
+  private static double sum(double[] values) {
+    double sum = 0;
+    for (double value : values) sum += value;
+    return sum;
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.println(
+        "Usage: ensemble <mean|vote|weighted_mean> <trainer files...>"
+      );
+      System.exit(1);
+    }
+
+    final Combiner combiner = Combiner.valueOf(args[0].toUpperCase());
+    final List<NeuralNetwork<Byte>> networks = new ArrayList<>();
+    for (int i = 1; i < args.length; i++) {
+      final NetworkTrainer<Byte> trainer = NetworkTrainer.load(
+        new File(args[i])
+      );
+      networks.add(trainer.getNetwork());
+    }
+
+    final DataPoint[] data = App.readTestingData();
+    final double[][] inputs = new double[data.length][];
+    for (int i = 0; i < data.length; i++) inputs[i] = data[i].inputs();
+
+    // Weigh each network by its accuracy, and time the slowest on its own
+    final double[] accuracies = new double[networks.size()];
+    double singleMicros = 0;
+    for (int i = 0; i < networks.size(); i++) {
+      final Ensemble<Byte> single = new Ensemble<>(
+        List.of(networks.get(i)),
+        combiner
+      );
+      final long startTime = warmUpAndTime(single, inputs);
+      final double[][] outputs = single.calculateOutputs(inputs);
+      singleMicros = Math.max(singleMicros, micros(startTime, data.length));
+      accuracies[i] = accuracy(outputs, data);
+      System.out.printf("Network %d: %.2f%%%n", i + 1, accuracies[i] * 100);
+    }
+
+    final Ensemble<Byte> ensemble = new Ensemble<>(
+      networks,
+      accuracies,
+      combiner
+    );
+    final long startTime = warmUpAndTime(ensemble, inputs);
+    final double[][] outputs = ensemble.calculateOutputs(inputs);
+    final double ensembleMicros = micros(startTime, data.length);
+    System.out.printf(
+      "Ensemble of %d (%s): %.2f%%%n",
+      networks.size(),
+      combiner,
+      accuracy(outputs, data) * 100
+    );
+    System.out.printf(
+      "Latency per image: slowest network %.1fus, ensemble %.1fus%n",
+      singleMicros,
+      ensembleMicros
+    );
+
+    ensemble.shutdown();
+    NeuralNetwork.shutdown();
+  }
+
+  /**
+   * Warms the ensemble up on single images before the batch to be timed.
+   * @return the time the warm up finished
+   */
+  private static long warmUpAndTime(Ensemble<?> ensemble, double[][] inputs) {
+    for (int i = 0; i < Math.min(inputs.length, WARMUP_SAMPLES); i++) {
+      ensemble.calculateOutputs(inputs[i]);
+    }
+    return System.nanoTime();
+  }
+
+  private static double micros(long startTime, int count) {
+    return (System.nanoTime() - startTime) / 1e3 / count;
+  }
+
+  private static double accuracy(double[][] outputs, DataPoint[] data) {
+    int correct = 0;
+    for (int i = 0; i < data.length; i++) {
+      if (
+        NeuralNetwork.getMaxIndex(outputs[i]) == data[i].expectedOutput()
+      ) correct++;
+    }
+    return (double) correct / data.length;
+  }
+}
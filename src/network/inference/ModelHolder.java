@@ -0,0 +1,268 @@
+package network.inference;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import network.core.NeuralNetwork;
+import network.trainer.NetworkTrainer;
+
+/**
+ * Holds the model that predictions are made with, and swaps in new ones
+ * without pausing the predictions.
+ * <p>New models are read and warmed up on a background thread, then
+ * published with a single atomic write. A prediction reads the model once
+ * and finishes on that version even if a newer one is published meanwhile.
+ * The holder drops its reference to a replaced model straight away, so its
+ * memory is reclaimed once the last prediction using it finishes.</p>
+ * <p>A model file can also be watched, so that it is reloaded whenever it
+ * is rewritten. Writers should write to a temporary file and rename it over
+ * the model. A partly written file fails to load and is never published, and
+ * is picked up again by the next change to it.</p>
+ */
+public class ModelHolder<T> implements AutoCloseable {
+
+  private static final int WARMUP_ROUNDS = 200;
+  // How long a watched file must go unchanged before it is reloaded
+  private static final long QUIET_MILLIS = 250;
+
+  private final AtomicReference<Model<T>> current = new AtomicReference<>();
+  private final AtomicLong generations = new AtomicLong();
+  private final Consumer<Model<T>> listener;
+  private final ExecutorService loader = Executors.newSingleThreadExecutor(
+    task -> {
+      final Thread thread = new Thread(task, "model-loader");
+      thread.setDaemon(true);
+      return thread;
+    }
+  );
+
+  private WatchService watchService;
+  private Thread watcher;
+
+  /**
+   * A published model.
+   * @param trainer the trainer holding the network
+   * @param generation the order the model was requested in, starting at 1
+   * @param source where the model came from
+   */
+  public record Model<T>(
+    NetworkTrainer<T> trainer,
+    long generation,
+    String source
+  ) {
+    public NeuralNetwork<T> network() {
+      return trainer.getNetwork();
+    }
+  }
+
+  public ModelHolder() {
+    this(model -> {});
+  }
+
+  /**
+   * @param listener called with each model once it is published, from the
+   * thread that published it
+   */
+  public ModelHolder(Consumer<Model<T>> listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * @return the latest published model, or null if there isn't one yet
+   */
+  public Model<T> get() {
+    return current.get();
+  }
+
+  /**
+   * Publishes a model that is already in memory, such as one being trained.
+   * @param trainer the trainer holding the network
+   * @param source a description of where the model came from
+   * @return the published model
+   */
+  public Model<T> set(NetworkTrainer<T> trainer, String source) {
+    final Model<T> model = new Model<>(
+      trainer,
+      generations.incrementAndGet(),
+      source
+    );
+    publish(model);
+    return model;
+  }
+
+  /**
+   * Reads, warms up and publishes a saved trainer on the background thread.
+   * <p>If another model is requested before this one is published, this one
+   * is dropped rather than replacing the newer one.</p>
+   * @param file the file the trainer was saved to
+   * @return the model, completed once it is published or exceptionally if
+   * it couldn't be read
+   */
+  public CompletableFuture<Model<T>> load(Path file) {
+    final long generation = generations.incrementAndGet();
+    return CompletableFuture.supplyAsync(
+      () -> {
+        try {
+          final NetworkTrainer<T> trainer = NetworkTrainer.load(
+            file.toFile()
+          );
+          warmUp(trainer.getNetwork());
+          final Model<T> model = new Model<>(
+            trainer,
+            generation,
+            file.toString()
+          );
+          publish(model);
+          return model;
+        } catch (IOException e) {
+          throw new IllegalStateException("Couldn't load " + file, e);
+        }
+      },
+      loader
+    );
+  }
+
+  /**
+   * Runs the network enough for the JIT to compile its forward pass, and
+   * checks it produces finite outputs of the size the current model does.
+   */
+  private void warmUp(NeuralNetwork<T> network) {
+    final Model<T> previous = current.get();
+    if (
+      previous != null &&
+      (
+        previous.network().getInputSize() != network.getInputSize() ||
+        previous.network().getOutputSize() != network.getOutputSize()
+      )
+    ) {
+      throw new IllegalArgumentException(
+        "The new model has a different number of inputs or outputs"
+      );
+    }
+
+    final SplittableRandom random = new SplittableRandom(0);
+    final double[] inputs = new double[network.getInputSize()];
+    for (int round = 0; round < WARMUP_ROUNDS; round++) {
+      for (int i = 0; i < inputs.length; i++) inputs[i] = random.nextDouble();
+      for (double output : network.calculateOutputs(inputs)) {
+        if (!Double.isFinite(output)) {
+          throw new IllegalArgumentException(
+            "The new model outputs " + output
+          );
+        }
+      }
+    }
+  }
+
+  /**
+   * Replaces the current model, unless a newer one has been published.
+   */
+  private void publish(Model<T> model) {
+    Model<T> previous;
+    do {
+      previous = current.get();
+      if (previous != null && previous.generation() > model.generation()) {
+        return;
+      }
+    } while (!current.compareAndSet(previous, model));
+    listener.accept(model);
+  }
+
+  /**
+   * Reloads the model whenever a file is rewritten, in place of any file
+   * watched before.
+   * <p>A file that fails to load leaves the current model in place.</p>
+   * @param file the file a trainer is saved to
+   * @throws IOException if the file's directory can't be watched
+   */
+  public synchronized void watch(Path file) throws IOException {
+    stopWatching();
+
+    final Path absolute = file.toAbsolutePath();
+    final Path directory = absolute.getParent();
+    final WatchService service = FileSystems.getDefault().newWatchService();
+    directory.register(
+      service,
+      StandardWatchEventKinds.ENTRY_CREATE,
+      StandardWatchEventKinds.ENTRY_MODIFY
+    );
+
+    watchService = service;
+    watcher = new Thread(() -> watchLoop(service, absolute), "model-watcher");
+    watcher.setDaemon(true);
+    watcher.start();
+  }
+
+  private void watchLoop(WatchService service, Path file) {
+    try {
+      while (true) {
+        if (!changed(service.take(), file)) continue;
+
+        // Wait for the writer to finish before reading the file
+        WatchKey key;
+        while (
+          (key = service.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS)) != null
+        ) {
+          changed(key, file);
+        }
+
+        load(file)
+          .exceptionally(e -> {
+            System.err.println("Kept the current model: " + e.getCause());
+            return null;
+          });
+      }
+    } catch (InterruptedException | ClosedWatchServiceException e) {
+      // Stopped watching
+    }
+  }
+
+  /**
+   * @param key the key of the watched directory
+   * @param file the watched file
+   * @return whether any of the key's events were for the file
+   */
+  private static boolean changed(WatchKey key, Path file) {
+    boolean changed = false;
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (file.getFileName().equals(event.context())) changed = true;
+    }
+    key.reset();
+    return changed;
+  }
+
+  /**
+   * Stops reloading the watched file, if there is one.
+   * @throws IOException if the watch service couldn't be closed
+   */
+  public synchronized void stopWatching() throws IOException {
+    if (watchService == null) return;
+    watcher.interrupt();
+    watchService.close();
+    watchService = null;
+    watcher = null;
+  }
+
+  /**
+   * Stops watching and loading models. The current model stays available.
+   * @throws IOException if the watch service couldn't be closed
+   */
+  @Override
+  public void close() throws IOException {
+    stopWatching();
+    loader.shutdownNow();
+  }
+}
@@ -0,0 +1,257 @@
+package network.inference;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import network.core.NeuralNetwork;
+
+/**
+ * Remembers the outputs of a network for recently seen inputs, so that
+ * repeated inputs skip the forward pass.
+ * <p>Inputs are expected between 0 and 1, like the pixels of an image, and
+ * are quantised to 8 bits before being looked up, so inputs that only differ
+ * below that resolution share an entry. The least recently used entries are
+ * evicted once either the entry or the byte limit is reached.</p>
+ * <p>Each entry belongs to the version of the network's parameters that
+ * computed it. As soon as a different network or version is seen, the whole
+ * cache is cleared, so a cache should sit in front of one network at a time,
+ * such as the one in a {@link ModelHolder}.</p>
+ */
+public class PredictionCache {
+
+  // A rough size of an entry besides its arrays: the map entry, key and
+  // the array headers
+  private static final int ENTRY_OVERHEAD = 112;
+
+  private final int maxEntries;
+  private final long maxBytes;
+  private final LinkedHashMap<Key, double[]> entries;
+  private long bytes;
+
+  private NeuralNetwork<?> network;
+  private long version;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+  private final LongAdder invalidations = new LongAdder();
+
+  /**
+   * The counters of a cache.
+   * @param hits the lookups answered from the cache
+   * @param misses the lookups that ran the network
+   * @param evictions the entries dropped to stay within the limits
+   * @param invalidations the times the cache was cleared because the network
+   * or its parameters changed
+   * @param entries the current number of entries
+   * @param bytes the approximate current size of the entries
+   */
+  public record Stats(
+    long hits,
+    long misses,
+    long evictions,
+    long invalidations,
+    int entries,
+    long bytes
+  ) {
+    public double hitRate() {
+      final long lookups = hits + misses;
+      return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+        "%d hits, %d misses (%.1f%% hit rate), %d evictions, " +
+        "%d invalidations, %d entries, %d bytes",
+        hits,
+        misses,
+        hitRate() * 100,
+        evictions,
+        invalidations,
+        entries,
+        bytes
+      );
+    }
+  }
+
+  /**
+   * @param maxEntries the most entries to keep
+   */
+  public PredictionCache(int maxEntries) {
+    this(maxEntries, Long.MAX_VALUE);
+  }
+
+  /**
+   * @param maxEntries the most entries to keep
+   * @param maxBytes the approximate most memory the entries may take
+   */
+  public PredictionCache(int maxEntries, long maxBytes) {
+    if (maxEntries <= 0 || maxBytes <= 0) {
+      throw new IllegalArgumentException("Cache limits must be > 0");
+    }
+    this.maxEntries = maxEntries;
+    this.maxBytes = maxBytes;
+    entries = new LinkedHashMap<>(16, 0.75f, true);
+  }
+
+  /**
+   * Looks the inputs up, or feeds them to the network if they aren't cached.
+   * <p>This method is safe to call from any thread. The network runs
+   * without holding the cache's lock.</p>
+   * @param network the network to evaluate
+   * @param inputs the input activations to feed to the input layer
+   * @return the outputs of the network
+   */
+  public double[] calculateOutputs(NeuralNetwork<?> network, double[] inputs) {
+    return calculateOutputs(network, inputs, false);
+  }
+
+  /**
+   * Looks the inputs up, or feeds them to the network, splitting wide layers
+   * across threads, if they aren't cached.
+   * @param network the network to evaluate
+   * @param inputs the input activations to feed to the input layer
+   * @return the outputs of the network
+   */
+  public double[] calculateOutputsParallel(
+    NeuralNetwork<?> network,
+    double[] inputs
+  ) {
+    return calculateOutputs(network, inputs, true);
+  }
+
+  private double[] calculateOutputs(
+    NeuralNetwork<?> network,
+    double[] inputs,
+    boolean parallel
+  ) {
+    final NeuralNetwork.Snapshot snapshot = network.snapshot();
+    final Key key = new Key(inputs);
+
+    final double[] cached = lookUp(network, snapshot.version(), key);
+    if (cached != null) {
+      hits.increment();
+      return cached.clone();
+    }
+    misses.increment();
+
+    final double[] outputs = parallel
+      ? snapshot.calculateOutputsParallel(inputs)
+      : snapshot.calculateOutputs(inputs);
+    store(network, snapshot.version(), key, outputs.clone());
+    return outputs;
+  }
+
+  private synchronized double[] lookUp(
+    NeuralNetwork<?> network,
+    long version,
+    Key key
+  ) {
+    if (network != this.network || version != this.version) {
+      if (!entries.isEmpty()) invalidations.increment();
+      clear();
+      this.network = network;
+      this.version = version;
+      return null;
+    }
+    return entries.get(key);
+  }
+
+  private synchronized void store(
+    NeuralNetwork<?> network,
+    long version,
+    Key key,
+    double[] outputs
+  ) {
+    // The network moved on while this was computed
+    if (network != this.network || version != this.version) return;
+
+    final double[] previous = entries.put(key, outputs);
+    if (previous == null) bytes += size(key, outputs);
+
+    final var iterator = entries.entrySet().iterator();
+    while (
+      (entries.size() > maxEntries || bytes > maxBytes) && iterator.hasNext()
+    ) {
+      final Map.Entry<Key, double[]> eldest = iterator.next();
+      if (eldest.getKey() == key) break;
+      bytes -= size(eldest.getKey(), eldest.getValue());
+      iterator.remove();
+      evictions.increment();
+    }
+  }
+
+  private static long size(Key key, double[] outputs) {
+    return ENTRY_OVERHEAD + key.quantised.length + 8L * outputs.length;
+  }
+
+  /**
+   * Drops every entry.
+   */
+  public synchronized void clear() {
+    entries.clear();
+    bytes = 0;
+  }
+
+  /**
+   * @return the current counters of the cache
+   */
+  public synchronized Stats getStats() {
+    return new Stats(
+      hits.sum(),
+      misses.sum(),
+      evictions.sum(),
+      invalidations.sum(),
+      entries.size(),
+      bytes
+    );
+  }
+
+  /**
+   * Inputs quantised to 8 bits each, with a hash computed while quantising
+   * a word at a time.
+   */
+  private static final class Key {
+
+    private final byte[] quantised;
+    private final int hash;
+
+    Key(double[] inputs) {
+      quantised = new byte[inputs.length];
+      long hash = inputs.length;
+      long word = 0;
+      for (int i = 0; i < inputs.length; i++) {
+        final double clamped = Math.min(Math.max(inputs[i], 0), 1);
+        final int value = (int) (clamped * 255 + 0.5);
+        quantised[i] = (byte) value;
+        word = word << 8 | value;
+        if ((i & 7) == 7) {
+          hash = mix(hash ^ word);
+          word = 0;
+        }
+      }
+      this.hash = (int) mix(hash ^ word);
+    }
+
+    private static long mix(long value) {
+      value *= 0x9E3779B97F4A7C15L;
+      return value ^ (value >>> 32);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return (
+        o instanceof Key key &&
+        hash == key.hash &&
+        Arrays.equals(quantised, key.quantised)
+      );
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+}
@@ -0,0 +1,18 @@
+package network.initializer;
+
+public class HeInitializer implements IInitializer {
+
+  /**
+   * He initialisation, drawing from a normal distribution with twice the
+   * variance of LeCun's to make up for ReLU zeroing half its inputs.
+   * Suited to ReLU layers.
+   * @param weights the weights to fill
+   * @param fanIn the number of inputs feeding into each node
+   * @param fanOut the number of nodes each input feeds into
+   * @param seed the seed of the random values
+   */
+  @Override
+  public void initialize(double[] weights, int fanIn, int fanOut, long seed) {
+    ParallelFill.normal(weights, Math.sqrt(2.0 / fanIn), seed);
+  }
+}
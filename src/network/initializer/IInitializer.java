@@ -0,0 +1,14 @@
+package network.initializer;
+
+public interface IInitializer {
+  /**
+   * Fills the weights of a layer with random values.
+   * <p>The same seed always gives the same weights, however many threads
+   * fill them.</p>
+   * @param weights the weights to fill
+   * @param fanIn the number of inputs feeding into each node
+   * @param fanOut the number of nodes each input feeds into
+   * @param seed the seed of the random values
+   */
+  void initialize(double[] weights, int fanIn, int fanOut, long seed);
+}
@@ -0,0 +1,18 @@
+package network.initializer;
+
+public class LeCunInitializer implements IInitializer {
+
+  /**
+   * LeCun initialisation, drawing from a normal distribution with a variance
+   * of one over the number of inputs.
+   * Suited to tanh and SELU layers.
+   * @param weights the weights to fill
+   * @param fanIn the number of inputs feeding into each node
+   * @param fanOut the number of nodes each input feeds into
+   * @param seed the seed of the random values
+   */
+  @Override
+  public void initialize(double[] weights, int fanIn, int fanOut, long seed) {
+    ParallelFill.normal(weights, Math.sqrt(1.0 / fanIn), seed);
+  }
+}
@@ -0,0 +1,50 @@
+package network.initializer;
+
+import java.util.SplittableRandom;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.IntStream;
+
+/**
+ * Fills arrays with random values in parallel.
+ * <p>The array is split into fixed size chunks, each with its own generator
+ * split from the seed, so threads never share a generator and the result
+ * doesn't depend on how the chunks are scheduled.</p>
+ */
+final class ParallelFill {
+
+  private static final int CHUNK_SIZE = 1 << 14;
+
+  private ParallelFill() {}
+
+  static void uniform(double[] values, double bound, long seed) {
+    fill(values, seed, random -> random.nextDouble(-bound, bound));
+  }
+
+  static void normal(double[] values, double standardDeviation, long seed) {
+    fill(values, seed, random -> random.nextGaussian(0, standardDeviation));
+  }
+
+  private static void fill(
+    double[] values,
+    long seed,
+    ToDoubleFunction<SplittableRandom> distribution
+  ) {
+    final int chunks = (values.length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+
+    // Splitting is sequential, so each chunk's generator only depends on seed
+    final SplittableRandom root = new SplittableRandom(seed);
+    final SplittableRandom[] generators = new SplittableRandom[chunks];
+    for (int i = 0; i < chunks; i++) generators[i] = root.split();
+
+    IntStream
+      .range(0, chunks)
+      .parallel()
+      .forEach(chunk -> {
+        final SplittableRandom random = generators[chunk];
+        final int end = Math.min(values.length, (chunk + 1) * CHUNK_SIZE);
+        for (int i = chunk * CHUNK_SIZE; i < end; i++) {
+          values[i] = distribution.applyAsDouble(random);
+        }
+      });
+  }
+}
@@ -0,0 +1,33 @@
+package network.initializer;
+
+public class XavierInitializer implements IInitializer {
+
+  private final double gain;
+
+  public XavierInitializer() {
+    this(1);
+  }
+
+  /**
+   * @param gain the factor to scale the range of the weights by, such as 4
+   * for sigmoid layers, whose slope at zero is a quarter of tanh's
+   */
+  public XavierInitializer(double gain) {
+    this.gain = gain;
+  }
+
+  /**
+   * Xavier/Glorot initialisation, drawing from a uniform distribution that
+   * keeps the variance of activations and gradients level between layers.
+   * Suited to sigmoid and tanh layers.
+   * @param weights the weights to fill
+   * @param fanIn the number of inputs feeding into each node
+   * @param fanOut the number of nodes each input feeds into
+   * @param seed the seed of the random values
+   */
+  @Override
+  public void initialize(double[] weights, int fanIn, int fanOut, long seed) {
+    final double bound = gain * Math.sqrt(6.0 / (fanIn + fanOut));
+    ParallelFill.uniform(weights, bound, seed);
+  }
+}
@@ -0,0 +1,52 @@
+package network.math;
+
+/**
+ * The {@link MathTier#BIT_TRICK} kernels, which write a linear function of
+ * the input straight into the exponent bits of a double (Schraudolph, 1999).
+ */
+final class BitTrickMath {
+
+  // 2^20 / ln 2, and the exponent bias shifted by 20 bits less a correction
+  private static final double A = 1512775;
+  private static final double B = 1072632447;
+  // Beyond these the integer overflows into the sign bit
+  private static final double MIN_EXP = -700;
+  private static final double MAX_EXP = 700;
+
+  private BitTrickMath() {}
+
+  static double exp(double x) {
+    x = x < MIN_EXP ? MIN_EXP : x > MAX_EXP ? MAX_EXP : x;
+    return Double.longBitsToDouble((long) (A * x + B) << 32);
+  }
+
+  static double log(double x) {
+    if (!(x >= Double.MIN_NORMAL && x <= Double.MAX_VALUE)) return Math.log(x);
+    return ((Double.doubleToRawLongBits(x) >>> 32) - B) / A;
+  }
+
+  static double sigmoid(double x) {
+    return 1 / (1 + exp(-x));
+  }
+
+  static double tanh(double x) {
+    final double e = exp(-2 * Math.abs(x));
+    return Math.copySign((1 - e) / (1 + e), x);
+  }
+
+  static void exp(double[] values) {
+    for (int i = 0; i < values.length; i++) values[i] = exp(values[i]);
+  }
+
+  static void log(double[] values) {
+    for (int i = 0; i < values.length; i++) values[i] = log(values[i]);
+  }
+
+  static void sigmoid(double[] values) {
+    for (int i = 0; i < values.length; i++) values[i] = sigmoid(values[i]);
+  }
+
+  static void tanh(double[] values) {
+    for (int i = 0; i < values.length; i++) values[i] = tanh(values[i]);
+  }
+}
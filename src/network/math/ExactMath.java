@@ -0,0 +1,41 @@
+package network.math;
+
+/**
+ * The {@link MathTier#EXACT} kernels, built on {@link Math}.
+ */
+final class ExactMath {
+
+  private ExactMath() {}
+
+  static double exp(double x) {
+    return Math.exp(x);
+  }
+
+  static double log(double x) {
+    return Math.log(x);
+  }
+
+  static double sigmoid(double x) {
+    return 1 / (1 + Math.exp(-x));
+  }
+
+  static double tanh(double x) {
+    return Math.tanh(x);
+  }
+
+  static void exp(double[] values) {
+    for (int i = 0; i < values.length; i++) values[i] = exp(values[i]);
+  }
+
+  static void log(double[] values) {
+    for (int i = 0; i < values.length; i++) values[i] = log(values[i]);
+  }
+
+  static void sigmoid(double[] values) {
+    for (int i = 0; i < values.length; i++) values[i] = sigmoid(values[i]);
+  }
+
+  static void tanh(double[] values) {
+    for (int i = 0; i < values.length; i++) values[i] = tanh(values[i]);
+  }
+}
@@ -0,0 +1,138 @@
+package network.math;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.function.BiConsumer;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Measures the throughput and maximum error of every {@link MathTier}.
+ * <p>Each function runs over arrays of random inputs, with the first rounds
+ * discarded to let the JIT compile the kernels.</p>
+ */
+public final class MathBenchmark {
+
+  private static final int SIZE = 1 << 16;
+  private static final int WARMUP_ROUNDS = 200;
+  private static final int ROUNDS = 500;
+
+  private MathBenchmark() {}
+
+  /**
+   * The inputs a function is measured over.
+   * @param name the name of the function
+   * @param min the smallest input
+   * @param max the largest input
+   * @param logScale whether the inputs are spread on a log scale
+   * @param relative whether the error is relative rather than absolute
+   */
+  private record Function(
+    String name,
+    double min,
+    double max,
+    boolean logScale,
+    boolean relative
+  ) {
+    double[] inputs(long seed) {
+      final SplittableRandom random = new SplittableRandom(seed);
+      final double[] inputs = new double[SIZE];
+      for (int i = 0; i < SIZE; i++) {
+        inputs[i] =
+          logScale
+            ? Math.exp(random.nextDouble(Math.log(min), Math.log(max)))
+            : random.nextDouble(min, max);
+      }
+      return inputs;
+    }
+  }
+
+  private static final Function[] FUNCTIONS = {
+    new Function("exp", -20, 20, false, true),
+    new Function("log", 1e-12, 1e3, true, false),
+    new Function("sigmoid", -20, 20, false, false),
+    new Function("tanh", -20, 20, false, false),
+  };
+
+  public static void main(String[] args) {
+    System.out.printf(
+      "%-8s %-10s %10s %12s %12s%n",
+      "function",
+      "tier",
+      "ns/value",
+      "max error",
+      "scalar error"
+    );
+
+    for (Function function : FUNCTIONS) {
+      final double[] inputs = function.inputs(42);
+      final double[] expected = Arrays.copyOf(inputs, SIZE);
+      kernel(function.name()).accept(MathTier.EXACT, expected);
+
+      for (MathTier tier : MathTier.values()) {
+        final BiConsumer<MathTier, double[]> kernel = kernel(function.name());
+        final double[] values = new double[SIZE];
+
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+          System.arraycopy(inputs, 0, values, 0, SIZE);
+          kernel.accept(tier, values);
+        }
+        final long startTime = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+          System.arraycopy(inputs, 0, values, 0, SIZE);
+          kernel.accept(tier, values);
+        }
+        final double nanos =
+          (double) (System.nanoTime() - startTime) / ROUNDS / SIZE;
+
+        System.arraycopy(inputs, 0, values, 0, SIZE);
+        kernel.accept(tier, values);
+        final DoubleUnaryOperator scalar = scalar(tier, function.name());
+        double arrayError = 0;
+        double scalarError = 0;
+        for (int i = 0; i < SIZE; i++) {
+          arrayError =
+            Math.max(arrayError, error(function, values[i], expected[i]));
+          scalarError =
+            Math.max(
+              scalarError,
+              error(function, scalar.applyAsDouble(inputs[i]), expected[i])
+            );
+        }
+
+        System.out.printf(
+          "%-8s %-10s %10.2f %12.3g %12.3g%n",
+          function.name(),
+          tier,
+          nanos,
+          arrayError,
+          scalarError
+        );
+      }
+    }
+  }
+
+  private static double error(Function function, double actual, double exact) {
+    final double error = Math.abs(actual - exact);
+    return function.relative() ? error / Math.abs(exact) : error;
+  }
+
+  private static BiConsumer<MathTier, double[]> kernel(String name) {
+    return switch (name) {
+      case "exp" -> MathTier::exp;
+      case "log" -> MathTier::log;
+      case "sigmoid" -> MathTier::sigmoid;
+      case "tanh" -> MathTier::tanh;
+      default -> throw new IllegalArgumentException(name);
+    };
+  }
+
+  private static DoubleUnaryOperator scalar(MathTier tier, String name) {
+    return switch (name) {
+      case "exp" -> tier::exp;
+      case "log" -> tier::log;
+      case "sigmoid" -> tier::sigmoid;
+      case "tanh" -> tier::tanh;
+      default -> throw new IllegalArgumentException(name);
+    };
+  }
+}
@@ -0,0 +1,145 @@
+package network.math;
+
+/**
+ * Implementations of the transcendental functions used by activations and
+ * costs, each trading accuracy for speed by a documented amount.
+ * <p>The maximum errors below were measured by {@link MathBenchmark} against
+ * {@link #EXACT}, over {@code [-20, 20]} for {@code exp}, {@code sigmoid}
+ * and {@code tanh}, and over {@code [1e-12, 1e3]} for {@code log}. Relative
+ * errors are given for {@code exp}, absolute errors for the rest.</p>
+ * <p>The array variants work in place and pick their kernel once per call,
+ * so each loop is free of dispatch and can be unrolled and vectorised by the
+ * JIT.</p>
+ */
+public enum MathTier {
+  /**
+   * The functions of {@link Math}, correct to about 1 ulp.
+   */
+  EXACT,
+  /**
+   * Range reduction followed by a short polynomial: {@code exp} to 8e-9,
+   * {@code log} to 2e-11, {@code sigmoid} to 2e-9 and {@code tanh} to 4e-9.
+   * <p>{@code exp} saturates below {@code e^-708} and above {@code e^709}
+   * rather than reaching 0 or infinity.</p>
+   */
+  POLYNOMIAL,
+  /**
+   * Small lookup tables with an interpolating correction: {@code exp} to
+   * 4e-9, {@code log} to 4e-12, {@code sigmoid} to 8e-7 and {@code tanh} to
+   * 6e-6.
+   * <p>{@code sigmoid} and {@code tanh} are clamped outside of
+   * {@code [-16, 16]} and {@code [-8, 8]} respectively.</p>
+   */
+  TABLE,
+  /**
+   * Schraudolph's approximation, which writes a linear function of the input
+   * straight into the exponent bits: {@code exp} to 4%, {@code log} to 0.04,
+   * {@code sigmoid} to 0.01 and {@code tanh} to 0.02.
+   * <p>Only worth it where the function barely matters to the result.</p>
+   */
+  BIT_TRICK;
+
+  /**
+   * @param x the exponent
+   * @return e raised to {@code x}
+   */
+  public double exp(double x) {
+    return switch (this) {
+      case EXACT -> ExactMath.exp(x);
+      case POLYNOMIAL -> PolynomialMath.exp(x);
+      case TABLE -> TableMath.exp(x);
+      case BIT_TRICK -> BitTrickMath.exp(x);
+    };
+  }
+
+  /**
+   * @param x the value to take the logarithm of
+   * @return the natural logarithm of {@code x}
+   */
+  public double log(double x) {
+    return switch (this) {
+      case EXACT -> ExactMath.log(x);
+      case POLYNOMIAL -> PolynomialMath.log(x);
+      case TABLE -> TableMath.log(x);
+      case BIT_TRICK -> BitTrickMath.log(x);
+    };
+  }
+
+  /**
+   * @param x the value to squish
+   * @return {@code 1 / (1 + e^-x)}
+   */
+  public double sigmoid(double x) {
+    return switch (this) {
+      case EXACT -> ExactMath.sigmoid(x);
+      case POLYNOMIAL -> PolynomialMath.sigmoid(x);
+      case TABLE -> TableMath.sigmoid(x);
+      case BIT_TRICK -> BitTrickMath.sigmoid(x);
+    };
+  }
+
+  /**
+   * @param x the value to squish
+   * @return the hyperbolic tangent of {@code x}
+   */
+  public double tanh(double x) {
+    return switch (this) {
+      case EXACT -> ExactMath.tanh(x);
+      case POLYNOMIAL -> PolynomialMath.tanh(x);
+      case TABLE -> TableMath.tanh(x);
+      case BIT_TRICK -> BitTrickMath.tanh(x);
+    };
+  }
+
+  /**
+   * Replaces every value with e raised to it.
+   * @param values the exponents
+   */
+  public void exp(double[] values) {
+    switch (this) {
+      case EXACT -> ExactMath.exp(values);
+      case POLYNOMIAL -> PolynomialMath.exp(values);
+      case TABLE -> TableMath.exp(values);
+      case BIT_TRICK -> BitTrickMath.exp(values);
+    }
+  }
+
+  /**
+   * Replaces every value with its natural logarithm.
+   * @param values the values to take the logarithm of
+   */
+  public void log(double[] values) {
+    switch (this) {
+      case EXACT -> ExactMath.log(values);
+      case POLYNOMIAL -> PolynomialMath.log(values);
+      case TABLE -> TableMath.log(values);
+      case BIT_TRICK -> BitTrickMath.log(values);
+    }
+  }
+
+  /**
+   * Replaces every value with its sigmoid.
+   * @param values the values to squish
+   */
+  public void sigmoid(double[] values) {
+    switch (this) {
+      case EXACT -> ExactMath.sigmoid(values);
+      case POLYNOMIAL -> PolynomialMath.sigmoid(values);
+      case TABLE -> TableMath.sigmoid(values);
+      case BIT_TRICK -> BitTrickMath.sigmoid(values);
+    }
+  }
+
+  /**
+   * Replaces every value with its hyperbolic tangent.
+   * @param values the values to squish
+   */
+  public void tanh(double[] values) {
+    switch (this) {
+      case EXACT -> ExactMath.tanh(values);
+      case POLYNOMIAL -> PolynomialMath.tanh(values);
+      case TABLE -> TableMath.tanh(values);
+      case BIT_TRICK -> BitTrickMath.tanh(values);
+    }
+  }
+}
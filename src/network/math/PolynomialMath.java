@@ -0,0 +1,103 @@
+package network.math;
+
+/**
+ * The {@link MathTier#POLYNOMIAL} kernels.
+ * <p>{@code exp} splits its input into {@code k ln 2 + r} with
+ * {@code |r| <= ln 2 / 2}, evaluates a degree 7 polynomial for {@code e^r}
+ * and scales it by {@code 2^k} through the exponent bits. {@code log} splits
+ * its input into {@code m 2^e} with {@code m} near 1, and sums the odd series
+ * of {@code 2 atanh((m - 1) / (m + 1))}.</p>
+ * <p>The array kernels are branch free, so the JIT can unroll and vectorise
+ * them.</p>
+ */
+final class PolynomialMath {
+
+  // Beyond these e^x overflows or becomes subnormal
+  static final double MIN_EXP = -708;
+  static final double MAX_EXP = 709;
+
+  private static final double LOG2E = 1.4426950408889634;
+  // ln 2 split in two so that k * LN2_HI is exact
+  private static final double LN2_HI = 0.6931471803691238;
+  private static final double LN2_LO = 1.9082149292705877e-10;
+  private static final double LN2 = 0.6931471805599453;
+  private static final double ROUND = 0x1.8p52;
+  private static final double SQRT2 = 1.4142135623730951;
+
+  private PolynomialMath() {}
+
+  static double exp(double x) {
+    x = x < MIN_EXP ? MIN_EXP : x > MAX_EXP ? MAX_EXP : x;
+    // Adding then subtracting 1.5 * 2^52 rounds to the nearest integer
+    final double shifted = x * LOG2E + ROUND;
+    final double k = shifted - ROUND;
+    final double r = x - k * LN2_HI - k * LN2_LO;
+
+    // Taylor series of e^r up to r^7, in Horner form
+    double p = 1.0 / 5040;
+    p = p * r + 1.0 / 720;
+    p = p * r + 1.0 / 120;
+    p = p * r + 1.0 / 24;
+    p = p * r + 1.0 / 6;
+    p = p * r + 0.5;
+    p = p * r + 1;
+    p = p * r + 1;
+
+    // The low bits of shifted hold k, so it can go straight into the exponent
+    return p * Double.longBitsToDouble(
+      (Double.doubleToRawLongBits(shifted) + 1023) << 52
+    );
+  }
+
+  static double log(double x) {
+    // Zero, negatives, infinities, NaN and subnormals
+    if (!(x >= Double.MIN_NORMAL && x <= Double.MAX_VALUE)) return Math.log(x);
+
+    final long bits = Double.doubleToRawLongBits(x);
+    int exponent = (int) (bits >>> 52) - 1023;
+    double m = Double.longBitsToDouble(
+      (bits & 0x000FFFFFFFFFFFFFL) | 0x3FF0000000000000L
+    );
+    if (m > SQRT2) {
+      m *= 0.5;
+      exponent++;
+    }
+
+    final double s = (m - 1) / (m + 1);
+    final double s2 = s * s;
+    double p = 1.0 / 11;
+    p = p * s2 + 1.0 / 9;
+    p = p * s2 + 1.0 / 7;
+    p = p * s2 + 1.0 / 5;
+    p = p * s2 + 1.0 / 3;
+    p = p * s2 + 1;
+
+    return exponent * LN2 + 2 * s * p;
+  }
+
+  static double sigmoid(double x) {
+    return 1 / (1 + exp(-x));
+  }
+
+  static double tanh(double x) {
+    // Written in terms of e^(-2|x|) so it can't overflow
+    final double e = exp(-2 * Math.abs(x));
+    return Math.copySign((1 - e) / (1 + e), x);
+  }
+
+  static void exp(double[] values) {
+    for (int i = 0; i < values.length; i++) values[i] = exp(values[i]);
+  }
+
+  static void log(double[] values) {
+    for (int i = 0; i < values.length; i++) values[i] = log(values[i]);
+  }
+
+  static void sigmoid(double[] values) {
+    for (int i = 0; i < values.length; i++) values[i] = sigmoid(values[i]);
+  }
+
+  static void tanh(double[] values) {
+    for (int i = 0; i < values.length; i++) values[i] = tanh(values[i]);
+  }
+}
@@ -0,0 +1,121 @@
+package network.math;
+
+/**
+ * The {@link MathTier#TABLE} kernels.
+ * <p>{@code sigmoid} and {@code tanh} interpolate linearly between values
+ * sampled every 1/128 over the range where they aren't yet flat, and clamp
+ * outside it. {@code exp} looks up {@code 2^(j / 256)} and corrects for the
+ * remainder with a quadratic, while {@code log} looks up the logarithm of the
+ * nearest {@code 1 + j / 256} and corrects with a cubic.</p>
+ * <p>The tables take about 60KB in total.</p>
+ */
+final class TableMath {
+
+  private static final int STEPS_PER_UNIT = 128;
+  private static final double SIGMOID_RANGE = 16;
+  private static final double TANH_RANGE = 8;
+  private static final int EXP_BITS = 8;
+  private static final int EXP_SIZE = 1 << EXP_BITS;
+  private static final int LOG_SIZE = 256;
+
+  private static final double MIN_EXP = PolynomialMath.MIN_EXP;
+  private static final double MAX_EXP = PolynomialMath.MAX_EXP;
+  private static final double LOG2E = 1.4426950408889634;
+  private static final double LN2 = 0.6931471805599453;
+
+  private static final double[] SIGMOID = sample(SIGMOID_RANGE, true);
+  private static final double[] TANH = sample(TANH_RANGE, false);
+  // 2^(j / EXP_SIZE)
+  private static final double[] EXP2 = new double[EXP_SIZE];
+  // ln(1 + j / LOG_SIZE) and its reciprocal 1 + j / LOG_SIZE
+  private static final double[] LOG = new double[LOG_SIZE + 1];
+  private static final double[] LOG_INVERSE = new double[LOG_SIZE + 1];
+
+  static {
+    for (int j = 0; j < EXP_SIZE; j++) {
+      EXP2[j] = Math.pow(2, (double) j / EXP_SIZE);
+    }
+    for (int j = 0; j <= LOG_SIZE; j++) {
+      final double c = 1 + (double) j / LOG_SIZE;
+      LOG[j] = Math.log(c);
+      LOG_INVERSE[j] = 1 / c;
+    }
+  }
+
+  private TableMath() {}
+
+  private static double[] sample(double range, boolean sigmoid) {
+    final double[] table = new double[(int) (2 * range * STEPS_PER_UNIT) + 2];
+    for (int i = 0; i < table.length; i++) {
+      final double x = (double) i / STEPS_PER_UNIT - range;
+      table[i] = sigmoid ? ExactMath.sigmoid(x) : Math.tanh(x);
+    }
+    return table;
+  }
+
+  private static double interpolate(double[] table, double range, double x) {
+    x = x < -range ? -range : x > range ? range : x;
+    final double position = (x + range) * STEPS_PER_UNIT;
+    final int i = (int) position;
+    final double fraction = position - i;
+    return table[i] + (table[i + 1] - table[i]) * fraction;
+  }
+
+  static double exp(double x) {
+    x = x < MIN_EXP ? MIN_EXP : x > MAX_EXP ? MAX_EXP : x;
+    final double scaled = x * LOG2E * EXP_SIZE;
+    final double floor = Math.floor(scaled);
+    final long n = (long) floor;
+    final int j = (int) (n & (EXP_SIZE - 1));
+    final long exponent = n >> EXP_BITS;
+
+    // The remainder in natural units, between 0 and ln 2 / EXP_SIZE
+    final double f = (scaled - floor) * (LN2 / EXP_SIZE);
+    final double correction = 1 + f + f * f * 0.5;
+
+    return (
+      Double.longBitsToDouble((exponent + 1023) << 52) * EXP2[j] * correction
+    );
+  }
+
+  static double log(double x) {
+    // Zero, negatives, infinities, NaN and subnormals
+    if (!(x >= Double.MIN_NORMAL && x <= Double.MAX_VALUE)) return Math.log(x);
+
+    final long bits = Double.doubleToRawLongBits(x);
+    final int exponent = (int) (bits >>> 52) - 1023;
+    final long mantissa = bits & 0x000FFFFFFFFFFFFFL;
+    final double m = Double.longBitsToDouble(mantissa | 0x3FF0000000000000L);
+
+    // Round to the nearest table entry, so |t| <= 1 / (2 * LOG_SIZE)
+    final int j = (int) ((mantissa + (1L << 43)) >>> 44);
+    final double t = (m - (1 + (double) j / LOG_SIZE)) * LOG_INVERSE[j];
+    final double log1p = t * (1 - t * (0.5 - t * (1.0 / 3)));
+
+    return exponent * LN2 + LOG[j] + log1p;
+  }
+
+  static double sigmoid(double x) {
+    return interpolate(SIGMOID, SIGMOID_RANGE, x);
+  }
+
+  static double tanh(double x) {
+    return interpolate(TANH, TANH_RANGE, x);
+  }
+
+  static void exp(double[] values) {
+    for (int i = 0; i < values.length; i++) values[i] = exp(values[i]);
+  }
+
+  static void log(double[] values) {
+    for (int i = 0; i < values.length; i++) values[i] = log(values[i]);
+  }
+
+  static void sigmoid(double[] values) {
+    for (int i = 0; i < values.length; i++) values[i] = sigmoid(values[i]);
+  }
+
+  static void tanh(double[] values) {
+    for (int i = 0; i < values.length; i++) values[i] = tanh(values[i]);
+  }
+}
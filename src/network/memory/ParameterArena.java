@@ -0,0 +1,359 @@
+package network.memory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Memory outside the Java heap for the parameters and optimiser state of
+ * large networks, handed out as aligned slices of doubles.
+ * <p>An arena reserves all of its memory up front. The garbage collector
+ * never scans or moves the slices, however big they are. An
+ * arena can be backed by a file, which then holds the parameters themselves:
+ * flushing it saves them without copying, and opening it again maps them
+ * straight back in. A file can also be mapped by several processes at
+ * once.</p>
+ * <p>Slices of a file must be allocated in the same order and with the same
+ * lengths every time it is opened, which is the case when the same layers
+ * are built in the same order.</p>
+ */
+public final class ParameterArena implements AutoCloseable {
+
+  private static final int MAGIC = 0x50524d41;
+  // Slices start on cache line boundaries
+  private static final int ALIGNMENT = 64;
+  // Room for the magic number, the number of slices and each slice's length
+  private static final int HEADER_BYTES = 4096;
+  private static final int MAX_SLICES = (HEADER_BYTES - 8) / 8;
+  // The most one buffer can hold with room to align it, so bigger arenas are
+  // reserved in chunks
+  private static final long CHUNK_BYTES =
+    (Integer.MAX_VALUE - ALIGNMENT) / ALIGNMENT * ALIGNMENT;
+
+  private final FileChannel channel;
+  private final MappedByteBuffer header;
+  // The aligned chunks the slices are cut from, mapped if there's a file
+  private final List<ByteBuffer> chunks;
+  private final long capacity;
+  // The number of slices the file already had when it was opened
+  private final int loadedSlices;
+  private int chunk;
+  private int chunkOffset;
+  private long bytes;
+  private int slices;
+  private volatile boolean closed;
+
+  private ParameterArena(
+    FileChannel channel,
+    MappedByteBuffer header,
+    List<ByteBuffer> chunks,
+    long capacity,
+    int loadedSlices
+  ) {
+    this.channel = channel;
+    this.header = header;
+    this.chunks = chunks;
+    this.capacity = capacity;
+    this.loadedSlices = loadedSlices;
+  }
+
+  /**
+   * Reserves an arena in memory, which is lost when it is closed.
+   * @param capacity the number of bytes to reserve, see {@link #bytesFor}
+   * @return the arena
+   */
+  public static ParameterArena reserve(long capacity) {
+    checkCapacity(capacity);
+    final List<ByteBuffer> chunks = new ArrayList<>();
+    for (long start = 0; start < capacity; start += CHUNK_BYTES) {
+      final int chunkBytes = (int) Math.min(CHUNK_BYTES, capacity - start);
+      // Over-allocated so that the chunk can start on a cache line, as an
+      // aligned slice also ends on one
+      final ByteBuffer buffer = ByteBuffer.allocateDirect(
+        (int) align(chunkBytes) + ALIGNMENT
+      );
+      chunks.add(buffer.alignedSlice(ALIGNMENT).limit(chunkBytes).slice());
+    }
+    return new ParameterArena(null, null, chunks, capacity, 0);
+  }
+
+  /**
+   * Creates an arena backed by a new file, replacing any file already there.
+   * @param file the file to keep the slices in
+   * @param capacity the number of bytes to reserve, see {@link #bytesFor}
+   * @return the arena
+   * @throws IOException if the file couldn't be created
+   */
+  public static ParameterArena create(Path file, long capacity)
+    throws IOException {
+    checkCapacity(capacity);
+    final FileChannel channel = FileChannel.open(
+      file,
+      StandardOpenOption.CREATE,
+      StandardOpenOption.TRUNCATE_EXISTING,
+      StandardOpenOption.READ,
+      StandardOpenOption.WRITE
+    );
+    try {
+      final MappedByteBuffer header = mapHeader(channel);
+      final List<ByteBuffer> chunks = mapChunks(channel, capacity);
+      // Only marked as an arena once all of it is mapped
+      header.putInt(0, MAGIC);
+      header.putInt(4, 0);
+      return new ParameterArena(channel, header, chunks, capacity, 0);
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Opens an arena previously created in a file, whose slices keep the
+   * values they had when it was last flushed.
+   * <p>Once the slices have been allocated again, {@link #checkLoaded()}
+   * confirms that none of the file's slices were left out.</p>
+   * @param file the file the arena was created in
+   * @return the arena
+   * @throws IOException if the file couldn't be opened or isn't an arena
+   */
+  public static ParameterArena open(Path file) throws IOException {
+    final FileChannel channel = FileChannel.open(
+      file,
+      StandardOpenOption.READ,
+      StandardOpenOption.WRITE
+    );
+    try {
+      if (channel.size() < HEADER_BYTES) {
+        throw new IOException("Not a parameter arena: " + file);
+      }
+      final MappedByteBuffer header = mapHeader(channel);
+      if (header.getInt(0) != MAGIC) {
+        throw new IOException(
+          "Not a parameter arena, or written with a different byte order: " +
+          file
+        );
+      }
+      final int loadedSlices = header.getInt(4);
+      if (loadedSlices < 0 || loadedSlices > MAX_SLICES) {
+        throw new IOException("Corrupt parameter arena: " + file);
+      }
+      final long capacity = channel.size() - HEADER_BYTES;
+      final List<ByteBuffer> chunks = mapChunks(channel, capacity);
+      return new ParameterArena(
+        channel,
+        header,
+        chunks,
+        capacity,
+        loadedSlices
+      );
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  private static void checkCapacity(long capacity) {
+    if (capacity < 0) {
+      throw new IllegalArgumentException("Invalid capacity " + capacity);
+    }
+  }
+
+  private static MappedByteBuffer mapHeader(FileChannel channel)
+    throws IOException {
+    final MappedByteBuffer header = channel.map(
+      FileChannel.MapMode.READ_WRITE,
+      0,
+      HEADER_BYTES
+    );
+    header.order(ByteOrder.nativeOrder());
+    return header;
+  }
+
+  /**
+   * Maps the part of a file after its header.
+   */
+  private static List<ByteBuffer> mapChunks(FileChannel channel, long capacity)
+    throws IOException {
+    final List<ByteBuffer> chunks = new ArrayList<>();
+    for (long start = 0; start < capacity; start += CHUNK_BYTES) {
+      final MappedByteBuffer chunk = channel.map(
+        FileChannel.MapMode.READ_WRITE,
+        HEADER_BYTES + start,
+        Math.min(CHUNK_BYTES, capacity - start)
+      );
+      chunks.add(chunk);
+    }
+    return chunks;
+  }
+
+  /**
+   * @param lengths the number of doubles in each slice, in the order they
+   * will be allocated
+   * @return the capacity an arena needs to hold the slices
+   */
+  public static long bytesFor(int... lengths) {
+    long full = 0;
+    long offset = 0;
+    for (int length : lengths) {
+      final long sliceBytes = (long) length * Double.BYTES;
+      if (offset + sliceBytes > CHUNK_BYTES) {
+        full += CHUNK_BYTES;
+        offset = 0;
+      }
+      offset += align(sliceBytes);
+    }
+    return full + offset;
+  }
+
+  private static long align(long bytes) {
+    return (bytes + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+  }
+
+  /**
+   * @return whether the slices hold values loaded from a file, rather than
+   * zeros
+   */
+  public boolean isLoaded() {
+    return loadedSlices > 0;
+  }
+
+  /**
+   * @return the number of bytes reserved for slices
+   */
+  public long capacity() {
+    return capacity;
+  }
+
+  /**
+   * @return the number of bytes handed out in slices
+   */
+  public synchronized long size() {
+    return bytes;
+  }
+
+  /**
+   * Hands out the next slice of the arena.
+   * @param length the number of doubles in the slice
+   * @return the slice, in the platform's byte order
+   * @throws IllegalStateException if the arena is closed or full, or its
+   * file was laid out differently
+   */
+  public synchronized DoubleBuffer allocate(int length) {
+    checkOpen();
+    if (length < 0 || length > CHUNK_BYTES / Double.BYTES) {
+      throw new IllegalArgumentException("Invalid slice length " + length);
+    }
+    final int sliceBytes = length * Double.BYTES;
+
+    if (channel != null) {
+      if (slices >= MAX_SLICES) {
+        throw new IllegalStateException("More than " + MAX_SLICES + " slices");
+      }
+      if (isLoaded()) {
+        if (slices >= loadedSlices) {
+          throw new IllegalStateException(
+            "The file only has " + loadedSlices + " slices"
+          );
+        }
+        final long savedLength = header.getLong(8 + slices * 8);
+        if (savedLength != length) {
+          throw new IllegalStateException(
+            "Slice " + slices + " of the file has " + savedLength +
+            " doubles, not " + length
+          );
+        }
+      }
+    }
+
+    // Slices never straddle two chunks, as in bytesFor
+    int sliceChunk = chunk;
+    int sliceOffset = chunkOffset;
+    if (sliceOffset + (long) sliceBytes > CHUNK_BYTES) {
+      sliceChunk++;
+      sliceOffset = 0;
+    }
+    if ((long) sliceChunk * CHUNK_BYTES + sliceOffset + sliceBytes > capacity) {
+      throw new IllegalStateException(
+        "The arena's " + capacity + " bytes can't fit another " + sliceBytes
+      );
+    }
+
+    final DoubleBuffer slice = sliceBytes == 0
+      ? DoubleBuffer.allocate(0)
+      : chunks
+        .get(sliceChunk)
+        .slice(sliceOffset, sliceBytes)
+        .order(ByteOrder.nativeOrder())
+        .asDoubleBuffer();
+    chunk = sliceChunk;
+    chunkOffset = (int) align(sliceOffset + (long) sliceBytes);
+
+    if (channel != null && !isLoaded()) {
+      header.putLong(8 + slices * 8, length);
+      header.putInt(4, slices + 1);
+    }
+    slices++;
+    bytes += sliceBytes;
+    return slice;
+  }
+
+  /**
+   * Checks that every slice of the file the arena was opened from has been
+   * allocated again, so that the layers built on it hold all of its
+   * parameters.
+   * @throws IllegalStateException if fewer slices have been allocated than
+   * the file has
+   */
+  public synchronized void checkLoaded() {
+    if (slices < loadedSlices) {
+      throw new IllegalStateException(
+        "The file has " + loadedSlices + " slices, but only " + slices +
+        " were allocated"
+      );
+    }
+  }
+
+  /**
+   * Checks that the slices of the arena may still be used, which everything
+   * holding slices does before touching them.
+   * @throws IllegalStateException if the arena is closed
+   */
+  public void checkOpen() {
+    if (closed) throw new IllegalStateException("The arena is closed");
+  }
+
+  /**
+   * Writes every slice of a file backed arena through to the file.
+   * <p>This must be called while the slices aren't being modified, such as
+   * between batches.</p>
+   */
+  public synchronized void force() {
+    if (channel == null || closed) return;
+    header.force();
+    for (ByteBuffer chunk : chunks) ((MappedByteBuffer) chunk).force();
+  }
+
+  /**
+   * Flushes the arena to its file, if it has one, and closes it.
+   * <p>Layers on the arena throw {@link IllegalStateException} from then on,
+   * while snapshots taken of them hold copies and stay usable. The memory
+   * is returned once those layers become unreachable, as NIO can't release
+   * it any sooner.</p>
+   * @throws IOException if the file couldn't be closed
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    if (closed) return;
+    force();
+    closed = true;
+    chunks.clear();
+    if (channel != null) channel.close();
+  }
+}
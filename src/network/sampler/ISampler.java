@@ -0,0 +1,20 @@
+package network.sampler;
+
+/**
+ * Decides which data points a trainer visits in each epoch, and in what
+ * order, as indices into the training data.
+ * <p>Samplers write into an array owned by the trainer, so nothing is
+ * allocated from one epoch to the next.</p>
+ */
+public interface ISampler {
+  /**
+   * @return the number of indices in each epoch
+   */
+  int epochSize();
+
+  /**
+   * Fills the order of the next epoch.
+   * @param order the array to fill, of length {@link #epochSize()}
+   */
+  void nextEpoch(int[] order);
+}
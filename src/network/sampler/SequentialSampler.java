@@ -0,0 +1,26 @@
+package network.sampler;
+
+/**
+ * Visits every data point once per epoch, in the order they are stored.
+ */
+public class SequentialSampler implements ISampler {
+
+  private final int size;
+
+  /**
+   * @param size the number of data points
+   */
+  public SequentialSampler(int size) {
+    this.size = size;
+  }
+
+  @Override
+  public int epochSize() {
+    return size;
+  }
+
+  @Override
+  public void nextEpoch(int[] order) {
+    for (int i = 0; i < size; i++) order[i] = i;
+  }
+}
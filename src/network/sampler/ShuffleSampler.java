@@ -0,0 +1,56 @@
+package network.sampler;
+
+import java.util.Random;
+
+/**
+ * Visits every data point once per epoch in a new random order, so the
+ * mini batches are made up differently each epoch.
+ */
+public class ShuffleSampler implements ISampler {
+
+  private final int size;
+  private final Random random;
+
+  /**
+   * @param size the number of data points
+   */
+  public ShuffleSampler(int size) {
+    this(size, new Random());
+  }
+
+  /**
+   * @param size the number of data points
+   * @param random the source of randomness
+   */
+  public ShuffleSampler(int size, Random random) {
+    this.size = size;
+    this.random = random;
+  }
+
+  @Override
+  public int epochSize() {
+    return size;
+  }
+
+  @Override
+  public void nextEpoch(int[] order) {
+    for (int i = 0; i < size; i++) order[i] = i;
+    shuffle(order, 0, size, random);
+  }
+
+  /**
+   * Shuffles part of an array in place with a Fisher-Yates shuffle.
+   * @param array the array to shuffle
+   * @param from the first index to shuffle
+   * @param to the index after the last one to shuffle
+   * @param random the source of randomness
+   */
+  static void shuffle(int[] array, int from, int to, Random random) {
+    for (int i = to - 1; i > from; i--) {
+      final int j = from + random.nextInt(i - from + 1);
+      final int swap = array[i];
+      array[i] = array[j];
+      array[j] = swap;
+    }
+  }
+}
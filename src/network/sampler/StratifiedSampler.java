@@ -0,0 +1,86 @@
+package network.sampler;
+
+import java.util.Arrays;
+import java.util.Random;
+import network.DataPoint;
+
+/**
+ * Visits every data point once per epoch in a random order, spreading each
+ * label evenly across the epoch so every mini batch has close to the same
+ * mix of labels as the whole data set.
+ */
+public class StratifiedSampler implements ISampler {
+
+  private final int size;
+  private final Random random;
+  // The indices of the data points with each label
+  private final int[][] labelIndices;
+  private final int[] taken;
+
+  /**
+   * @param data the data points to sample
+   */
+  public StratifiedSampler(DataPoint[] data) {
+    this(data, new Random());
+  }
+
+  /**
+   * @param data the data points to sample
+   * @param random the source of randomness
+   */
+  public StratifiedSampler(DataPoint[] data, Random random) {
+    this.size = data.length;
+    this.random = random;
+
+    int labels = 0;
+    for (DataPoint dataPoint : data) {
+      labels = Math.max(labels, dataPoint.expectedOutput() + 1);
+    }
+
+    final int[] counts = new int[labels];
+    for (DataPoint dataPoint : data) counts[dataPoint.expectedOutput()]++;
+
+    labelIndices = new int[labels][];
+    for (int label = 0; label < labels; label++) {
+      labelIndices[label] = new int[counts[label]];
+    }
+
+    final int[] filled = new int[labels];
+    for (int i = 0; i < data.length; i++) {
+      final int label = data[i].expectedOutput();
+      labelIndices[label][filled[label]++] = i;
+    }
+
+    taken = new int[labels];
+  }
+
+  @Override
+  public int epochSize() {
+    return size;
+  }
+
+  @Override
+  public void nextEpoch(int[] order) {
+    for (int[] indices : labelIndices) {
+      ShuffleSampler.shuffle(indices, 0, indices.length, random);
+    }
+    Arrays.fill(taken, 0);
+
+    // Always take from the label that is furthest behind its share
+    for (int i = 0; i < size; i++) {
+      int next = -1;
+      double lowest = Double.MAX_VALUE;
+      for (int label = 0; label < labelIndices.length; label++) {
+        final int count = labelIndices[label].length;
+        if (taken[label] == count) continue;
+
+        final double progress = (taken[label] + 0.5) / count;
+        if (progress < lowest) {
+          lowest = progress;
+          next = label;
+        }
+      }
+      order[i] = labelIndices[next][taken[next]++];
+    }
+  }
+}
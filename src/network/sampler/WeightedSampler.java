@@ -0,0 +1,107 @@
+package network.sampler;
+
+import java.util.Random;
+import network.DataPoint;
+
+/**
+ * Draws data points at random with replacement, each with a probability
+ * proportional to its weight, such as to over-sample rare labels.
+ * <p>Draws take constant time using Vose's alias method.</p>
+ */
+public class WeightedSampler implements ISampler {
+
+  private final int size;
+  private final Random random;
+  private final double[] probabilities;
+  private final int[] aliases;
+
+  /**
+   * @param weights the relative weight of each data point
+   * @param epochSize the number of draws in each epoch
+   */
+  public WeightedSampler(double[] weights, int epochSize) {
+    this(weights, epochSize, new Random());
+  }
+
+  /**
+   * @param weights the relative weight of each data point
+   * @param epochSize the number of draws in each epoch
+   * @param random the source of randomness
+   */
+  public WeightedSampler(double[] weights, int epochSize, Random random) {
+    this.size = epochSize;
+    this.random = random;
+
+    final int n = weights.length;
+    double total = 0;
+    for (double weight : weights) {
+      if (weight < 0) throw new IllegalArgumentException("Negative weight");
+      total += weight;
+    }
+    if (total <= 0) throw new IllegalArgumentException("No positive weights");
+
+    probabilities = new double[n];
+    aliases = new int[n];
+
+    // Split the scaled weights into those above and below the average
+    final double[] scaled = new double[n];
+    final int[] small = new int[n];
+    final int[] large = new int[n];
+    int smallCount = 0;
+    int largeCount = 0;
+    for (int i = 0; i < n; i++) {
+      scaled[i] = weights[i] * n / total;
+      if (scaled[i] < 1) small[smallCount++] = i;
+      else large[largeCount++] = i;
+    }
+
+    // Top up each small weight with part of a large one
+    while (smallCount > 0 && largeCount > 0) {
+      final int less = small[--smallCount];
+      final int more = large[--largeCount];
+      probabilities[less] = scaled[less];
+      aliases[less] = more;
+
+      scaled[more] -= 1 - scaled[less];
+      if (scaled[more] < 1) small[smallCount++] = more;
+      else large[largeCount++] = more;
+    }
+    while (largeCount > 0) probabilities[large[--largeCount]] = 1;
+    while (smallCount > 0) probabilities[small[--smallCount]] = 1;
+  }
+
+  /**
+   * Weights every label equally, however many data points have it.
+   * @param data the data points to sample
+   * @return a sampler drawing as many data points per epoch as there are
+   */
+  public static WeightedSampler balanced(DataPoint[] data) {
+    int labels = 0;
+    for (DataPoint dataPoint : data) {
+      labels = Math.max(labels, dataPoint.expectedOutput() + 1);
+    }
+
+    final int[] counts = new int[labels];
+    for (DataPoint dataPoint : data) counts[dataPoint.expectedOutput()]++;
+
+    final double[] weights = new double[data.length];
+    for (int i = 0; i < data.length; i++) {
+      weights[i] = 1.0 / counts[data[i].expectedOutput()];
+    }
+    return new WeightedSampler(weights, data.length);
+  }
+
+  @Override
+  public int epochSize() {
+    return size;
+  }
+
+  @Override
+  public void nextEpoch(int[] order) {
+    for (int i = 0; i < size; i++) {
+      final int column = random.nextInt(probabilities.length);
+      order[i] =
+        random.nextDouble() < probabilities[column] ? column : aliases[column];
+    }
+  }
+}
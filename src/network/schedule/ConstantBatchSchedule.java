@@ -0,0 +1,14 @@
+package network.schedule;
+
+import network.core.GradientNoise;
+
+/**
+ * Keeps every batch the same size for the whole run.
+ */
+public class ConstantBatchSchedule implements IBatchSchedule {
+
+  @Override
+  public int batchSize(int epoch, int batchSize, GradientNoise noise) {
+    return batchSize;
+  }
+}
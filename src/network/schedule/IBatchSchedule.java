@@ -0,0 +1,38 @@
+package network.schedule;
+
+import network.core.GradientNoise;
+
+/**
+ * Decides the size of the mini batches a trainer learns from in each epoch,
+ * and how the learn rate follows it.
+ * <p>Batches are views onto the trainer's order of the training data, so
+ * changing their size never copies the data.</p>
+ */
+public interface IBatchSchedule {
+  /**
+   * @param epoch the number of epochs completed so far
+   * @param batchSize the size of the batches of the previous epoch
+   * @param noise the estimate of the gradient noise measured so far
+   * @return the size of the batches of the next epoch
+   */
+  int batchSize(int epoch, int batchSize, GradientNoise noise);
+
+  /**
+   * @return how many batches apart to measure the gradient noise, or 0 to
+   * never measure it
+   */
+  default int noiseInterval() {
+    return 0;
+  }
+
+  /**
+   * Scales the learn rate linearly with the batch size, which keeps the
+   * size of a step per sample the same.
+   * @param batchSize the size of the current batches
+   * @param baseBatchSize the batch size the learn rate was chosen for
+   * @return the factor to multiply the learn rate by
+   */
+  default double learnRateScale(int batchSize, int baseBatchSize) {
+    return (double) batchSize / baseBatchSize;
+  }
+}
@@ -0,0 +1,49 @@
+package network.schedule;
+
+import network.core.GradientNoise;
+
+/**
+ * Grows the batch size towards the measured gradient noise scale, the size
+ * beyond which bigger batches stop making each step more accurate.
+ * <p>The noise scale tends to rise as the loss falls, so the batch size only
+ * ever grows. It is rounded down to a power of two, so that it changes in a
+ * few large steps rather than every epoch.</p>
+ */
+public class NoiseBatchSchedule implements IBatchSchedule {
+
+  // The measurements needed before the estimate is trusted
+  private static final int MIN_MEASUREMENTS = 10;
+
+  private final int maxSize;
+  private final int noiseInterval;
+
+  /**
+   * @param maxSize the largest batch size
+   * @param noiseInterval how many batches apart to measure the noise
+   */
+  public NoiseBatchSchedule(int maxSize, int noiseInterval) {
+    if (maxSize <= 0 || noiseInterval <= 0) {
+      throw new IllegalArgumentException("Schedule parameters must be > 0");
+    }
+    this.maxSize = maxSize;
+    this.noiseInterval = noiseInterval;
+  }
+
+  @Override
+  public int batchSize(int epoch, int batchSize, GradientNoise noise) {
+    final double scale = noise.getNoiseScale();
+    if (noise.getMeasurements() < MIN_MEASUREMENTS || Double.isNaN(scale)) {
+      return batchSize;
+    }
+
+    final int target = Integer.highestOneBit(
+      (int) Math.min(scale, maxSize)
+    );
+    return Math.max(batchSize, Math.min(target, maxSize));
+  }
+
+  @Override
+  public int noiseInterval() {
+    return noiseInterval;
+  }
+}
@@ -0,0 +1,44 @@
+package network.schedule;
+
+import network.core.GradientNoise;
+
+/**
+ * Multiplies the batch size by a fixed factor every few epochs, up to a
+ * limit.
+ */
+public class StepBatchSchedule implements IBatchSchedule {
+
+  private final int initialSize;
+  private final int factor;
+  private final int epochsPerStep;
+  private final int maxSize;
+
+  /**
+   * @param initialSize the size of the batches of the first epochs
+   * @param factor the factor to grow the batch size by at each step
+   * @param epochsPerStep the number of epochs between steps
+   * @param maxSize the largest batch size
+   */
+  public StepBatchSchedule(
+    int initialSize,
+    int factor,
+    int epochsPerStep,
+    int maxSize
+  ) {
+    if (initialSize <= 0 || factor <= 0 || epochsPerStep <= 0) {
+      throw new IllegalArgumentException("Schedule parameters must be > 0");
+    }
+    this.initialSize = initialSize;
+    this.factor = factor;
+    this.epochsPerStep = epochsPerStep;
+    this.maxSize = Math.max(maxSize, initialSize);
+  }
+
+  @Override
+  public int batchSize(int epoch, int batchSize, GradientNoise noise) {
+    final int steps = epoch / epochsPerStep;
+    long size = initialSize;
+    for (int step = 0; step < steps && size < maxSize; step++) size *= factor;
+    return (int) Math.min(size, maxSize);
+  }
+}
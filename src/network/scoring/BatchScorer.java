@@ -0,0 +1,184 @@
+package network.scoring;
+
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import network.App;
+import network.core.NeuralNetwork;
+import network.data.CsvImageReader;
+import network.data.IImageReader;
+import network.data.IdxImageReader;
+import network.trainer.NetworkTrainer;
+
+/**
+ * Scores a stream of images with a network in parallel batches.
+ * <p>Only a bounded number of batches are read ahead of the output, so memory
+ * use doesn't depend on the number of images. Results are always written in
+ * the same order as the images were read.</p>
+ */
+public class BatchScorer {
+
+  private final NeuralNetwork<?> network;
+  private final int batchSize;
+  private final int maxInFlight;
+  private final ExecutorService pool;
+
+  /**
+   * @param network the network to score the images with
+   * @param batchSize the number of images in each forward pass
+   * @param threads the number of threads to score batches on
+   */
+  public BatchScorer(NeuralNetwork<?> network, int batchSize, int threads) {
+    this.network = network;
+    this.batchSize = batchSize;
+    maxInFlight = threads * 2;
+    pool = Executors.newFixedThreadPool(threads);
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 3) {
+      System.err.println(
+        "Usage: score <trainer file> <images file> <output file> " +
+        "[batch size] [threads]"
+      );
+      System.exit(1);
+    }
+
+    final NetworkTrainer<Byte> trainer = NetworkTrainer.load(
+      Path.of(args[0]).toFile()
+    );
+    final Path input = Path.of(args[1]);
+    final int batchSize = args.length > 3 ? Integer.parseInt(args[3]) : 256;
+    final int threads = args.length > 4
+      ? Integer.parseInt(args[4])
+      : Runtime.getRuntime().availableProcessors();
+
+    final BatchScorer scorer = new BatchScorer(
+      trainer.getNetwork(),
+      batchSize,
+      threads
+    );
+    final long startTime = System.currentTimeMillis();
+    final long scored;
+
+    try (
+      IImageReader reader = openImages(input);
+      Writer out = new BufferedWriter(
+        Files.newBufferedWriter(Path.of(args[2])),
+        1 << 16
+      )
+    ) {
+      scored = scorer.score(reader, out);
+    } finally {
+      scorer.shutdown();
+    }
+
+    final long time = System.currentTimeMillis() - startTime;
+    System.out.println(
+      "Scored " + scored + " images in " + time + "ms (" +
+      (scored * 1000 / Math.max(time, 1)) + " images/s)"
+    );
+  }
+
+  private static IImageReader openImages(Path path) throws IOException {
+    if (path.toString().endsWith(".csv")) {
+      return new CsvImageReader(Files.newBufferedReader(path), App.IMAGE_SIZE);
+    }
+    return new IdxImageReader(
+      new FileInputStream(path.toFile()),
+      App.IMAGE_SIZE
+    );
+  }
+
+  /**
+   * Scores every image from the reader, writing one CSV line per image with
+   * its index, the predicted output and the output of each node.
+   * @param reader the images to score
+   * @param out the writer for the results
+   * @return the number of images scored
+   * @throws IOException if reading, writing or scoring failed
+   */
+  public long score(IImageReader reader, Writer out) throws IOException {
+    final Deque<Future<String>> inFlight = new ArrayDeque<>();
+    long index = 0;
+
+    out.write(header());
+    try {
+      double[][] batch;
+      while ((batch = readBatch(reader)) != null) {
+        final long firstIndex = index;
+        final double[][] inputs = batch;
+        inFlight.add(pool.submit(() -> scoreBatch(firstIndex, inputs)));
+        index += batch.length;
+
+        // Block on the oldest batch to keep memory bounded
+        if (inFlight.size() >= maxInFlight) out.write(await(inFlight.poll()));
+      }
+      while (!inFlight.isEmpty()) out.write(await(inFlight.poll()));
+    } finally {
+      inFlight.forEach(future -> future.cancel(true));
+    }
+
+    return index;
+  }
+
+  public void shutdown() {
+    pool.shutdown();
+  }
+
+  private double[][] readBatch(IImageReader reader) throws IOException {
+    final double[][] batch = new double[batchSize][];
+    int size = 0;
+    while (size < batchSize && (batch[size] = reader.read()) != null) size++;
+
+    if (size == 0) return null;
+    return size == batchSize ? batch : Arrays.copyOf(batch, size);
+  }
+
+  private String scoreBatch(long firstIndex, double[][] inputs) {
+    final double[][] outputs = network.snapshot().calculateOutputs(inputs);
+
+    final StringBuilder lines = new StringBuilder(outputs.length * 128);
+    for (int i = 0; i < outputs.length; i++) {
+      lines
+        .append(firstIndex + i)
+        .append(',')
+        .append(NeuralNetwork.getMaxIndex(outputs[i]));
+      for (double output : outputs[i]) {
+        // Round to keep the output compact without the cost of formatting
+        lines.append(',').append(Math.round(output * 1e6) / 1e6);
+      }
+      lines.append('\n');
+    }
+    return lines.toString();
+  }
+
+  private String header() {
+    final StringBuilder header = new StringBuilder("index,prediction");
+    for (int i = 0; i < network.getOutputSize(); i++) {
+      header.append(",p").append(i);
+    }
+    return header.append('\n').toString();
+  }
+
+  private static String await(Future<String> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while scoring", e);
+    } catch (ExecutionException e) {
+      throw new IOException("Scoring failed", e.getCause());
+    }
+  }
+}
@@ -0,0 +1,173 @@
+package network.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import network.core.NeuralNetwork;
+import network.trainer.NetworkTrainer;
+
+/**
+ * A local HTTP server for network predictions.
+ * <p>Each exchange is handled on its own virtual thread, which blocks cheaply
+ * while its request waits in the {@link MicroBatcher}.</p>
+ * <ul>
+ * <li>{@code POST /predict} takes as many comma or whitespace separated
+ * finite inputs as the network has and responds with the predicted class
+ * and the outputs of the network as JSON.</li>
+ * <li>{@code GET /metrics} responds with the latency histograms and queue
+ * depth in the Prometheus text format.</li>
+ * </ul>
+ */
+public class InferenceServer {
+
+  private final HttpServer server;
+  private final ExecutorService executor;
+  private final MicroBatcher batcher;
+  private final int inputSize;
+
+  /**
+   * Starts a server bound to the loopback address.
+   * @param network the network to serve
+   * @param params the server parameters
+   * @throws IOException if the server could not be bound
+   */
+  public InferenceServer(NeuralNetwork<?> network, ServerParams params)
+    throws IOException {
+    batcher = new MicroBatcher(network, params);
+    inputSize = network.getInputSize();
+    executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    server =
+      HttpServer.create(
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), params.port()),
+        0
+      );
+    server.setExecutor(executor);
+    server.createContext("/predict", this::predict);
+    server.createContext("/metrics", this::metrics);
+    server.start();
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1) {
+      System.err.println("Usage: serve <trainer file> [port]");
+      System.exit(1);
+    }
+
+    final NetworkTrainer<Byte> trainer = NetworkTrainer.load(new File(args[0]));
+    final int port = args.length > 1 ? Integer.parseInt(args[1]) : 8080;
+    final InferenceServer server = new InferenceServer(
+      trainer.getNetwork(),
+      new ServerParams(port)
+    );
+    System.out.println("Serving on http://localhost:" + server.port());
+  }
+
+  public int port() {
+    return server.getAddress().getPort();
+  }
+
+  public MicroBatcher batcher() {
+    return batcher;
+  }
+
+  public void stop() {
+    server.stop(0);
+    batcher.shutdown();
+    executor.shutdown();
+  }
+
+  private void predict(HttpExchange exchange) throws IOException {
+    try (exchange) {
+      if (!"POST".equals(exchange.getRequestMethod())) {
+        respond(exchange, 405, "Use POST");
+        return;
+      }
+
+      final double[] inputs;
+      try {
+        inputs = parseInputs(exchange.getRequestBody());
+      } catch (IllegalArgumentException e) {
+        respond(exchange, 400, e.getMessage());
+        return;
+      }
+
+      final double[] outputs;
+      try {
+        outputs = batcher.submit(inputs).get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        respond(exchange, 503, "Interrupted");
+        return;
+      } catch (CancellationException e) {
+        // The batcher is shutting down
+        respond(exchange, 503, "Shutting down");
+        return;
+      } catch (ExecutionException e) {
+        respond(exchange, 500, String.valueOf(e.getCause()));
+        return;
+      }
+
+      final StringBuilder json = new StringBuilder("{\"prediction\":");
+      json.append(NeuralNetwork.getMaxIndex(outputs)).append(",\"outputs\":[");
+      for (int i = 0; i < outputs.length; i++) {
+        if (i > 0) json.append(',');
+        json.append(outputs[i]);
+      }
+      json.append("]}");
+      respond(exchange, 200, json.toString());
+    }
+  }
+
+  private void metrics(HttpExchange exchange) throws IOException {
+    try (exchange) {
+      final StringBuilder out = new StringBuilder();
+      batcher.appendMetrics(out);
+      respond(exchange, 200, out.toString());
+    }
+  }
+
+  private double[] parseInputs(InputStream body) throws IOException {
+    final String[] values = new String(
+      body.readAllBytes(),
+      StandardCharsets.US_ASCII
+    )
+      .trim()
+      .split("[,\\s]+");
+    if (values.length != inputSize) {
+      throw new IllegalArgumentException(
+        "Expected " + inputSize + " inputs, got " + values.length
+      );
+    }
+
+    final double[] inputs = new double[values.length];
+    for (int i = 0; i < values.length; i++) {
+      inputs[i] = Double.parseDouble(values[i]);
+      if (!Double.isFinite(inputs[i])) {
+        throw new IllegalArgumentException(
+          "Input " + i + " isn't finite: " + values[i]
+        );
+      }
+    }
+    return inputs;
+  }
+
+  private static void respond(HttpExchange exchange, int status, String body)
+    throws IOException {
+    final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    exchange.sendResponseHeaders(status, bytes.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(bytes);
+    }
+  }
+}
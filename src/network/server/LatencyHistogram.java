@@ -0,0 +1,114 @@
+package network.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of latencies with power of two microsecond buckets.
+ * <p>Bucket {@code i} counts latencies of less than {@code 2^i} microseconds,
+ * so reported percentiles are upper bounds within a factor of two.</p>
+ */
+public class LatencyHistogram {
+
+  private static final int BUCKETS = 32;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong totalNanos = new AtomicLong();
+  private final AtomicLong maxNanos = new AtomicLong();
+
+  /**
+   * @param nanos the latency to record in nanoseconds
+   */
+  public void record(long nanos) {
+    final long micros = Math.max(nanos / 1000, 0);
+    final int bucket = Math.min(
+      64 - Long.numberOfLeadingZeros(micros),
+      BUCKETS - 1
+    );
+    counts.incrementAndGet(bucket);
+    count.incrementAndGet();
+    totalNanos.addAndGet(nanos);
+    maxNanos.accumulateAndGet(nanos, Math::max);
+  }
+
+  public long count() {
+    return count.get();
+  }
+
+  public double meanMicros() {
+    final long n = count.get();
+    return n == 0 ? 0 : totalNanos.get() / 1000d / n;
+  }
+
+  public double maxMicros() {
+    return maxNanos.get() / 1000d;
+  }
+
+  /**
+   * @param percentile the percentile between 0 and 100
+   * @return the upper bound in microseconds of the bucket
+   * containing the percentile
+   */
+  public long percentileMicros(double percentile) {
+    final long n = count.get();
+    if (n == 0) return 0;
+
+    final long rank = (long) Math.ceil(percentile / 100 * n);
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts.get(i);
+      if (seen >= rank) return bucketLimit(i);
+    }
+    return bucketLimit(BUCKETS - 1);
+  }
+
+  /**
+   * Writes the histogram in the Prometheus text exposition format.
+   * @param name the name of the metric
+   * @param out the builder to append to
+   */
+  public void appendTo(String name, StringBuilder out) {
+    long cumulative = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      cumulative += counts.get(i);
+      out
+        .append(name)
+        .append("_bucket{le=\"")
+        .append(bucketLimit(i))
+        .append("\"} ")
+        .append(cumulative)
+        .append('\n');
+    }
+    out
+      .append(name)
+      .append("_bucket{le=\"+Inf\"} ")
+      .append(count())
+      .append('\n')
+      .append(name)
+      .append("_sum ")
+      .append(totalNanos.get() / 1000)
+      .append('\n')
+      .append(name)
+      .append("_count ")
+      .append(count())
+      .append('\n');
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+      "count=%d mean=%.1fus p50<%dus p90<%dus p99<%dus max=%.1fus",
+      count(),
+      meanMicros(),
+      percentileMicros(50),
+      percentileMicros(90),
+      percentileMicros(99),
+      maxMicros()
+    );
+  }
+
+  private static long bucketLimit(int bucket) {
+    return 1L << bucket;
+  }
+}
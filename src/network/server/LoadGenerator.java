@@ -0,0 +1,113 @@
+package network.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import network.App;
+import network.core.NeuralNetwork;
+import network.trainer.NetworkTrainer;
+
+/**
+ * Starts an {@link InferenceServer} on a free local port and measures it with
+ * concurrent clients, each running on its own virtual thread.
+ * <p>Usage: {@code LoadGenerator [clients] [requests per client]
+ * [trainer file]}. Without a trainer file an untrained network is served.</p>
+ */
+public class LoadGenerator {
+
+  public static void main(String[] args) throws Exception {
+    final int clients = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+    final int requests = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+    final NeuralNetwork<Byte> network = args.length > 2
+      ? NetworkTrainer.<Byte>load(new File(args[2])).getNetwork()
+      : new NeuralNetwork<>(new int[] { App.IMAGE_SIZE, 256, 64, 16, 10 }, 0, 0);
+
+    final InferenceServer server = new InferenceServer(
+      network,
+      new ServerParams(0)
+    );
+    final URI uri = URI.create(
+      "http://localhost:" + server.port() + "/predict"
+    );
+
+    final LatencyHistogram latency = new LatencyHistogram();
+    final AtomicLong failures = new AtomicLong();
+    final long start = System.nanoTime();
+
+    try (
+      ExecutorService clientThreads = Executors.newVirtualThreadPerTaskExecutor()
+    ) {
+      for (int c = 0; c < clients; c++) {
+        final byte[] body = randomImage(new Random(c));
+        clientThreads.execute(() -> {
+          for (int r = 0; r < requests; r++) {
+            final long sent = System.nanoTime();
+            try {
+              if (post(uri, body) == 200) {
+                latency.record(System.nanoTime() - sent);
+              } else {
+                failures.incrementAndGet();
+              }
+            } catch (IOException e) {
+              failures.incrementAndGet();
+            }
+          }
+        });
+      }
+    }
+
+    final double seconds = (System.nanoTime() - start) / 1e9;
+    System.out.printf(
+      "%d clients, %d requests, %d failed, %.0f requests/s%n",
+      clients,
+      latency.count(),
+      failures.get(),
+      latency.count() / seconds
+    );
+    System.out.println("Client latency: " + latency);
+    System.out.println("Server latency: " + server.batcher().latency());
+    System.out.println("Max queue depth: " + server.batcher().maxQueueDepth());
+
+    server.stop();
+    if (failures.get() > 0) System.exit(1);
+  }
+
+  private static int post(URI uri, byte[] body) throws IOException {
+    final HttpURLConnection connection = (HttpURLConnection) uri
+      .toURL()
+      .openConnection();
+    connection.setRequestMethod("POST");
+    connection.setDoOutput(true);
+    connection.setFixedLengthStreamingMode(body.length);
+    try (OutputStream out = connection.getOutputStream()) {
+      out.write(body);
+    }
+
+    final int status = connection.getResponseCode();
+    try (
+      InputStream in = status == 200
+        ? connection.getInputStream()
+        : connection.getErrorStream()
+    ) {
+      if (in != null) in.readAllBytes();
+    }
+    return status;
+  }
+
+  private static byte[] randomImage(Random random) {
+    final StringBuilder image = new StringBuilder();
+    for (int i = 0; i < App.IMAGE_SIZE; i++) {
+      if (i > 0) image.append(',');
+      image.append(random.nextDouble() < 0.2 ? "1" : "0");
+    }
+    return image.toString().getBytes(StandardCharsets.US_ASCII);
+  }
+}
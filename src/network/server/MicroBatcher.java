@@ -0,0 +1,165 @@
+package network.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import network.core.NeuralNetwork;
+
+/**
+ * Gathers concurrent inference requests into micro batches, each of which is
+ * evaluated with a single batched forward pass.
+ * <p>A batch is dispatched as soon as it is full, or once its oldest request
+ * has waited for the maximum wait time.</p>
+ */
+public class MicroBatcher {
+
+  private final NeuralNetwork<?> network;
+  private final int maxBatchSize;
+  private final long maxWaitNanos;
+
+  private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+  private final Thread[] workers;
+  private volatile boolean stopped;
+
+  private final LatencyHistogram latency = new LatencyHistogram();
+  private final LatencyHistogram queueLatency = new LatencyHistogram();
+  private final AtomicInteger maxQueueDepth = new AtomicInteger();
+  private final AtomicLong batches = new AtomicLong();
+  private final AtomicLong batchedRequests = new AtomicLong();
+
+  private record Request(
+    double[] inputs,
+    long enqueued,
+    CompletableFuture<double[]> result
+  ) {}
+
+  /**
+   * @param network the network to evaluate, read through its snapshots
+   * @param params the batching parameters
+   */
+  public MicroBatcher(NeuralNetwork<?> network, ServerParams params) {
+    this.network = network;
+    maxBatchSize = params.maxBatchSize();
+    maxWaitNanos = TimeUnit.MICROSECONDS.toNanos(params.maxWaitMicros());
+
+    workers = new Thread[params.workers()];
+    for (int i = 0; i < workers.length; i++) {
+      workers[i] = new Thread(this::dispatch, "micro-batcher-" + i);
+      workers[i].setDaemon(true);
+      workers[i].start();
+    }
+  }
+
+  /**
+   * Queues the inputs to be evaluated in the next batch.
+   * @param inputs the inputs to feed to the network
+   * @return the outputs of the network, completed once the batch has run,
+   * or cancelled if the batcher shuts down first
+   */
+  public CompletableFuture<double[]> submit(double[] inputs) {
+    final Request request = new Request(
+      inputs,
+      System.nanoTime(),
+      new CompletableFuture<>()
+    );
+    queue.add(request);
+    // No worker is left to evaluate requests queued after shutdown
+    if (stopped && queue.remove(request)) request.result.cancel(false);
+    maxQueueDepth.accumulateAndGet(queue.size(), Math::max);
+    return request.result;
+  }
+
+  private void dispatch() {
+    final List<Request> batch = new ArrayList<>(maxBatchSize);
+    try {
+      while (!Thread.currentThread().isInterrupted()) {
+        final Request first = queue.take();
+        batch.add(first);
+
+        final long deadline = first.enqueued + maxWaitNanos;
+        while (batch.size() < maxBatchSize) {
+          final long remaining = deadline - System.nanoTime();
+          final Request next = remaining > 0
+            ? queue.poll(remaining, TimeUnit.NANOSECONDS)
+            : queue.poll();
+          if (next == null) break;
+          batch.add(next);
+        }
+
+        evaluate(batch);
+        batch.clear();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    batch.forEach(request -> request.result.cancel(false));
+  }
+
+  private void evaluate(List<Request> batch) {
+    final long start = System.nanoTime();
+    final double[][] inputs = new double[batch.size()][];
+    for (int i = 0; i < inputs.length; i++) {
+      inputs[i] = batch.get(i).inputs;
+      queueLatency.record(start - batch.get(i).enqueued);
+    }
+
+    try {
+      final double[][] outputs = network.snapshot().calculateOutputs(inputs);
+      final long end = System.nanoTime();
+      for (int i = 0; i < outputs.length; i++) {
+        final Request request = batch.get(i);
+        latency.record(end - request.enqueued);
+        request.result.complete(outputs[i]);
+      }
+    } catch (RuntimeException e) {
+      batch.forEach(request -> request.result.completeExceptionally(e));
+    }
+
+    batches.incrementAndGet();
+    batchedRequests.addAndGet(batch.size());
+  }
+
+  /**
+   * Stops the workers and cancels every request that hasn't been evaluated.
+   */
+  public void shutdown() {
+    stopped = true;
+    for (Thread worker : workers) worker.interrupt();
+    Request request;
+    while ((request = queue.poll()) != null) request.result.cancel(false);
+  }
+
+  public int queueDepth() {
+    return queue.size();
+  }
+
+  public int maxQueueDepth() {
+    return maxQueueDepth.get();
+  }
+
+  /**
+   * Writes the batching metrics in the Prometheus text exposition format.
+   * @param out the builder to append to
+   */
+  public void appendMetrics(StringBuilder out) {
+    final long batchCount = batches.get();
+    out.append("queue_depth ").append(queueDepth()).append('\n');
+    out.append("max_queue_depth ").append(maxQueueDepth()).append('\n');
+    out.append("batches_total ").append(batchCount).append('\n');
+    out
+      .append("mean_batch_size ")
+      .append(batchCount == 0 ? 0 : (double) batchedRequests.get() / batchCount)
+      .append('\n');
+    latency.appendTo("request_latency_us", out);
+    queueLatency.appendTo("queue_latency_us", out);
+  }
+
+  public LatencyHistogram latency() {
+    return latency;
+  }
+}
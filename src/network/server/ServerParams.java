@@ -0,0 +1,18 @@
+package network.server;
+
+/**
+ * @param port the local port to listen on, or 0 for any free port
+ * @param maxBatchSize the most requests to evaluate in one forward pass
+ * @param maxWaitMicros the longest a request waits for a batch to fill up
+ * @param workers the number of threads running forward passes
+ */
+public record ServerParams(
+  int port,
+  int maxBatchSize,
+  long maxWaitMicros,
+  int workers
+) {
+  public ServerParams(int port) {
+    this(port, 64, 500, Runtime.getRuntime().availableProcessors());
+  }
+}
@@ -0,0 +1,106 @@
+package network.sweep;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import network.trainer.TrainerParams;
+
+/**
+ * The candidate values of each of the {@link TrainerParams} to search over.
+ * @param layerSizes the candidate network shapes
+ * @param learnRates the candidate initial learn rates
+ * @param learnRateDecays the candidate learn rate decays
+ * @param regularisations the candidate regularisations
+ * @param momentums the candidate momentums
+ * @param miniBatchSizes the candidate mini batch sizes
+ */
+public record SearchSpace(
+  List<int[]> layerSizes,
+  double[] learnRates,
+  double[] learnRateDecays,
+  double[] regularisations,
+  double[] momentums,
+  int[] miniBatchSizes
+) {
+  /**
+   * @return every combination of the candidate values
+   */
+  public List<TrainerParams> grid() {
+    final List<TrainerParams> configs = new ArrayList<>();
+    for (int[] sizes : layerSizes) {
+      for (double learnRate : learnRates) {
+        for (double decay : learnRateDecays) {
+          for (double regularisation : regularisations) {
+            for (double momentum : momentums) {
+              for (int miniBatchSize : miniBatchSizes) {
+                configs.add(
+                  new TrainerParams(
+                    sizes,
+                    learnRate,
+                    decay,
+                    regularisation,
+                    momentum,
+                    miniBatchSize
+                  )
+                );
+              }
+            }
+          }
+        }
+      }
+    }
+    return configs;
+  }
+
+  /**
+   * Picks random configurations from the space.
+   * <p>Network shapes and batch sizes are picked from the candidates, while
+   * the other parameters are drawn from the range their candidates cover.
+   * Learn rates and regularisations are drawn on a log scale, as they
+   * usually span orders of magnitude.</p>
+   * @param count the number of configurations to pick
+   * @param random the source of randomness
+   * @return the configurations
+   */
+  public List<TrainerParams> sample(int count, Random random) {
+    final List<TrainerParams> configs = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      configs.add(
+        new TrainerParams(
+          layerSizes.get(random.nextInt(layerSizes.size())),
+          logUniform(learnRates, random),
+          uniform(learnRateDecays, random),
+          logUniform(regularisations, random),
+          uniform(momentums, random),
+          miniBatchSizes[random.nextInt(miniBatchSizes.length)]
+        )
+      );
+    }
+    return configs;
+  }
+
+  private static double uniform(double[] candidates, Random random) {
+    final double min = min(candidates);
+    final double max = max(candidates);
+    return min == max ? min : random.nextDouble(min, max);
+  }
+
+  private static double logUniform(double[] candidates, Random random) {
+    final double min = min(candidates);
+    final double max = max(candidates);
+    if (min <= 0 || min == max) return uniform(candidates, random);
+    return Math.exp(random.nextDouble(Math.log(min), Math.log(max)));
+  }
+
+  private static double min(double[] values) {
+    double min = values[0];
+    for (double value : values) min = Math.min(min, value);
+    return min;
+  }
+
+  private static double max(double[] values) {
+    double max = values[0];
+    for (double value : values) max = Math.max(max, value);
+    return max;
+  }
+}
@@ -0,0 +1,321 @@
+package network.sweep;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import network.App;
+import network.DataPoint;
+import network.core.NeuralNetwork;
+import network.core.NeuralNetwork.BatchResult;
+import network.trainer.NetworkTrainer;
+import network.trainer.TrainerParams;
+
+/**
+ * Trains many configurations of {@link NetworkTrainer} at once, all sharing
+ * the same training and validation data in memory.
+ * <p>At most {@code concurrency} trials train at once, and each network is
+ * limited to an even share of the CPU.</p>
+ */
+public class SweepRunner<T> {
+
+  private static final int VALIDATION_SIZE = 5_000;
+  private static final Comparator<Result> BEST_FIRST = Comparator
+    .comparingDouble((Result result) -> -result.accuracy())
+    .thenComparingDouble(Result::cost);
+
+  private final DataPoint[] trainingData;
+  private final DataPoint[] validationData;
+  private final int concurrency;
+  private final int parallelism;
+
+  /**
+   * The validation results of a single configuration.
+   * @param params the training parameters
+   * @param samples the number of training samples the network learnt from
+   * @param cost the average cost on the validation data
+   * @param accuracy the accuracy on the validation data
+   * @param seconds the time spent training the network
+   */
+  public record Result(
+    TrainerParams params,
+    long samples,
+    double cost,
+    double accuracy,
+    double seconds
+  ) {}
+
+  /**
+   * @param trainingData the data every configuration trains on
+   * @param validationData the data every configuration is ranked by
+   * @param concurrency the number of configurations to train at once
+   */
+  public SweepRunner(
+    DataPoint[] trainingData,
+    DataPoint[] validationData,
+    int concurrency
+  ) {
+    this.trainingData = trainingData;
+    this.validationData = validationData;
+    this.concurrency = concurrency;
+
+    final int threads = Runtime.getRuntime().availableProcessors();
+    parallelism = Math.max(1, threads / concurrency);
+  }
+
+  /**
+   * Trains every configuration on the same number of samples.
+   * <p>This is how grid and random searches are run.</p>
+   * @param configs the configurations to try
+   * @param samples the number of training samples each network learns from
+   * @return the results, best first
+   * @throws InterruptedException if interrupted while training
+   */
+  public List<Result> run(List<TrainerParams> configs, long samples)
+    throws InterruptedException {
+    final List<Trial> trials = createTrials(configs);
+    trainAll(trials, samples);
+    return rank(trials);
+  }
+
+  /**
+   * Runs successive halving: every configuration trains on a small number
+   * of samples, then only the best {@code 1 / eta} carry on training for
+   * {@code eta} times as long, until one configuration is left.
+   * <p>Bad configurations are dropped early, so far more can be tried for
+   * the same budget than with {@link #run}.</p>
+   * @param configs the configurations to try
+   * @param minSamples the number of samples in the first round
+   * @param eta the factor the configurations are cut by each round
+   * @return the results, with configurations that lasted longer first
+   * @throws InterruptedException if interrupted while training
+   */
+  public List<Result> successiveHalving(
+    List<TrainerParams> configs,
+    long minSamples,
+    int eta
+  ) throws InterruptedException {
+    if (eta < 2) throw new IllegalArgumentException("Eta must be >= 2");
+
+    final List<Trial> trials = createTrials(configs);
+    List<Trial> survivors = trials;
+    long samples = minSamples;
+
+    while (true) {
+      trainAll(survivors, samples);
+      if (survivors.size() == 1) break;
+
+      survivors.sort((a, b) -> BEST_FIRST.compare(a.result, b.result));
+      final int kept = (survivors.size() + eta - 1) / eta;
+      survivors = new ArrayList<>(survivors.subList(0, kept));
+      samples *= eta;
+    }
+
+    return rank(trials);
+  }
+
+  private List<Trial> createTrials(List<TrainerParams> configs) {
+    final List<Trial> trials = new ArrayList<>(configs.size());
+    for (TrainerParams params : configs) trials.add(new Trial(params));
+    return trials;
+  }
+
+  /**
+   * Trains each trial until it has learnt from {@code samples} samples in
+   * total, then validates it.
+   * @param trials the trials to train
+   * @param samples the total number of samples each trial should learn from
+   * @throws InterruptedException if interrupted while training
+   */
+  private void trainAll(List<Trial> trials, long samples)
+    throws InterruptedException {
+    final ExecutorService pool = Executors.newFixedThreadPool(concurrency);
+    try {
+      final List<Future<?>> futures = new ArrayList<>(trials.size());
+      for (Trial trial : trials) {
+        futures.add(pool.submit(() -> trial.train(samples)));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("A trial failed", e.getCause());
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  private List<Result> rank(List<Trial> trials) {
+    return trials
+      .stream()
+      .map(trial -> trial.result)
+      .sorted(
+        Comparator
+          .comparingLong((Result result) -> -result.samples())
+          .thenComparing(BEST_FIRST)
+      )
+      .toList();
+  }
+
+  /**
+   * Formats results as a table, one configuration per row.
+   * @param results the results to format, in order
+   * @return the table
+   */
+  public static String table(List<Result> results) {
+    final StringBuilder table = new StringBuilder(
+      String.format(
+        "%4s %8s %8s %9s %8s  %-22s %7s %6s %6s %6s %5s%n",
+        "rank",
+        "accuracy",
+        "cost",
+        "samples",
+        "seconds",
+        "layers",
+        "rate",
+        "decay",
+        "reg",
+        "moment",
+        "batch"
+      )
+    );
+
+    for (int i = 0; i < results.size(); i++) {
+      final Result result = results.get(i);
+      final TrainerParams params = result.params();
+      table.append(
+        String.format(
+          "%4d %7.2f%% %8.4f %9d %8.1f  %-22s %7.4f %6.3f %6.4f %6.3f %5d%n",
+          i + 1,
+          result.accuracy() * 100,
+          result.cost(),
+          result.samples(),
+          result.seconds(),
+          Arrays.toString(params.layerSizes()),
+          params.initialLearnRate(),
+          params.learnRateDecay(),
+          params.regularisation(),
+          params.momentum(),
+          params.miniBatchSize()
+        )
+      );
+    }
+
+    return table.toString();
+  }
+
+  /**
+   * @return a default space around the parameters the app trains with
+   */
+  public static SearchSpace defaultSearchSpace() {
+    return new SearchSpace(
+      List.of(
+        new int[] { App.IMAGE_SIZE, 64, 10 },
+        new int[] { App.IMAGE_SIZE, 128, 10 },
+        new int[] { App.IMAGE_SIZE, 256, 64, 16, 10 }
+      ),
+      new double[] { 0.1, 0.3, 0.6, 1.2 },
+      new double[] { 0.025, 0.075 },
+      new double[] { 0.01, 0.1 },
+      new double[] { 0.8, 0.9 },
+      new int[] { 16, 32, 64 }
+    );
+  }
+
+  public static void main(String[] args)
+    throws IOException, InterruptedException {
+    if (args.length < 1) {
+      System.err.println(
+        "Usage: sweep <grid|random|halving> [configurations] [concurrency]"
+      );
+      System.exit(1);
+    }
+
+    final int count = args.length > 1 ? Integer.parseInt(args[1]) : 27;
+    final int concurrency = args.length > 2
+      ? Integer.parseInt(args[2])
+      : Runtime.getRuntime().availableProcessors();
+
+    // Read the data once for every trial
+    final DataPoint[] data = App.readTrainingData();
+    final int trainingSize = data.length - VALIDATION_SIZE;
+    final SweepRunner<Byte> runner = new SweepRunner<>(
+      Arrays.copyOf(data, trainingSize),
+      Arrays.copyOfRange(data, trainingSize, data.length),
+      concurrency
+    );
+
+    final SearchSpace space = defaultSearchSpace();
+    final long startTime = System.currentTimeMillis();
+    final List<Result> results =
+      switch (args[0]) {
+        case "grid" -> runner.run(space.grid(), trainingSize);
+        case "random" -> runner.run(
+          space.sample(count, new Random()),
+          trainingSize
+        );
+        case "halving" -> runner.successiveHalving(
+          space.sample(count, new Random()),
+          trainingSize / 9,
+          3
+        );
+        default -> throw new IllegalArgumentException(
+          "Unknown search: " + args[0]
+        );
+      };
+
+    System.out.print(table(results));
+    System.out.println(
+      "Sweep time: " + (System.currentTimeMillis() - startTime) + "ms"
+    );
+
+    NeuralNetwork.shutdown();
+  }
+
+  /**
+   * A single configuration being trained.
+   */
+  private class Trial {
+
+    final TrainerParams params;
+    NetworkTrainer<T> trainer;
+    long samples;
+    double seconds;
+    Result result;
+
+    Trial(TrainerParams params) {
+      this.params = params;
+    }
+
+    void train(long totalSamples) {
+      // Networks are only built once their trial starts, to bound memory
+      if (trainer == null) {
+        trainer = new NetworkTrainer<>(params, trainingData);
+        trainer.getNetwork().setParallelism(parallelism);
+      }
+
+      final long startTime = System.nanoTime();
+      while (samples < totalSamples) {
+        samples += trainer.getBatchSize();
+        trainer.step();
+      }
+      seconds += (System.nanoTime() - startTime) / 1e9;
+
+      final BatchResult validation = trainer.evaluate(validationData);
+      result =
+        new Result(
+          params,
+          samples,
+          validation.cost(),
+          validation.accuracy(),
+          seconds
+        );
+    }
+  }
+}
@@ -0,0 +1,145 @@
+package network.swing;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+
+/**
+ * A drawing canvas backed by a {@link BufferedImage} that is updated in place.
+ * <p>The canvas can be drawn on at a higher internal resolution than the
+ * network input, and is downsampled to {@code side} x {@code side} on demand.
+ * </p>
+ */
+class CanvasRenderer {
+
+  /**
+   * White with every possible alpha value, indexed by intensity.
+   */
+  private static final int[] COLOURS = new int[256];
+
+  static {
+    Arrays.setAll(COLOURS, alpha -> alpha << 24 | 0xFFFFFF);
+  }
+
+  private final int side;
+  private final int scale;
+  private final int resolution;
+
+  private final BufferedImage image;
+  private final byte[] intensities;
+  private final int[] brush;
+
+  /**
+   * @param side the number of cells along each side of the downsampled image
+   * @param scale the number of internal pixels along each side of a cell
+   */
+  CanvasRenderer(int side, int scale) {
+    this.side = side;
+    this.scale = scale;
+    resolution = side * scale;
+
+    image =
+      new BufferedImage(resolution, resolution, BufferedImage.TYPE_INT_ARGB);
+    intensities = new byte[resolution * resolution];
+    brush = new int[scale * scale];
+    Arrays.fill(brush, COLOURS[255]);
+  }
+
+  /**
+   * @return the number of internal pixels along each side of the canvas
+   */
+  int resolution() {
+    return resolution;
+  }
+
+  /**
+   * Fills a cell sized brush centred on the given internal pixel.
+   * @param x the x coordinate of the internal pixel
+   * @param y the y coordinate of the internal pixel
+   * @return the internal pixels that changed,
+   * or {@code null} if the canvas is unchanged
+   */
+  Rectangle paint(int x, int y) {
+    final int half = scale / 2;
+    final int minX = Math.max(x - half, 0);
+    final int minY = Math.max(y - half, 0);
+    final int maxX = Math.min(x - half + scale, resolution);
+    final int maxY = Math.min(y - half + scale, resolution);
+    if (minX >= maxX || minY >= maxY) return null;
+
+    boolean changed = false;
+    for (int row = minY; row < maxY; row++) {
+      final int offset = row * resolution;
+      for (int col = minX; col < maxX; col++) {
+        if (intensities[offset + col] != -1) {
+          intensities[offset + col] = -1;
+          changed = true;
+        }
+      }
+    }
+    if (!changed) return null;
+
+    final int width = maxX - minX;
+    final int height = maxY - minY;
+    image.getRaster().setDataElements(minX, minY, width, height, brush);
+
+    return new Rectangle(minX, minY, width, height);
+  }
+
+  /**
+   * Clears every pixel of the canvas.
+   */
+  void clear() {
+    Arrays.fill(intensities, (byte) 0);
+    final WritableRaster raster = image.getRaster();
+    final int[] row = new int[resolution];
+    Arrays.fill(row, COLOURS[0]);
+    for (int y = 0; y < resolution; y++) {
+      raster.setDataElements(0, y, resolution, 1, row);
+    }
+  }
+
+  /**
+   * Draws the canvas scaled to the given size. Only the area inside the clip
+   * of the graphics context is rasterised.
+   * @param g2 the graphics context to draw on
+   * @param width the width to draw the canvas at
+   * @param height the height to draw the canvas at
+   */
+  void render(Graphics2D g2, int width, int height) {
+    g2.setRenderingHint(
+      RenderingHints.KEY_INTERPOLATION,
+      RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR
+    );
+    g2.drawImage(image, 0, 0, width, height, null);
+  }
+
+  /**
+   * Averages each cell of the canvas into a single input value.
+   * <p>Values are laid out row by row like the MNIST images,
+   * {@code y * side + x}.</p>
+   * @return the downsampled canvas with values between 0 and 1
+   */
+  double[] downsample() {
+    final double[] cells = new double[side * side];
+    final double normaliser = 255d * scale * scale;
+
+    for (int x = 0; x < side; x++) {
+      for (int y = 0; y < side; y++) {
+        int sum = 0;
+        for (int row = y * scale; row < (y + 1) * scale; row++) {
+          final int offset = row * resolution;
+          for (int col = x * scale; col < (x + 1) * scale; col++) {
+            sum += intensities[offset + col] & 0xFF;
+          }
+        }
+        cells[y * side + x] = sum / normaliser;
+      }
+    }
+
+    return cells;
+  }
+}
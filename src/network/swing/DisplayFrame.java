@@ -5,15 +5,15 @@ import java.awt.Dimension;
 import java.awt.Font;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
-import java.awt.RenderingHints;
+import java.awt.Rectangle;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseMotionAdapter;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
 import javax.swing.BorderFactory;
 import javax.swing.Box;
 import javax.swing.BoxLayout;
@@ -22,42 +22,63 @@ import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
 import network.App;
+import network.DataPoint;
+import network.inference.ModelHolder;
 import network.trainer.NetworkTrainer;
+import network.trainer.StoppingCriteria;
+import network.trainer.TrainerParams;
+import network.trainer.TrainingJob;
 
 public class DisplayFrame extends JFrame {
 
   private static final byte CELL_SIZE = 20;
   private static final short SIDE_LENGTH = CELL_SIZE * App.IMAGE_SIDE;
   private static final Color COLOUR = new Color(50, 50, 80);
-
-  private final double[][] image = new double[App.IMAGE_SIDE][App.IMAGE_SIDE];
+  private static final byte CANVAS_SCALE = 1;
+  private static final int[] LAYER_SIZES = { App.IMAGE_SIZE, 256, 64, 16, 10 };
+  private static final int TRAINING_ITERATIONS = 50_000;
+  private static final int REPORT_INTERVAL = 100;
+  private static final int VALIDATION_SIZE = 5_000;
+  private static final StoppingCriteria STOPPING_CRITERIA =
+    new StoppingCriteria(500, 6, 0.001, 0.985, Duration.ofMinutes(20));
+
+  private final transient CanvasRenderer canvas = new CanvasRenderer(
+    App.IMAGE_SIDE,
+    CANVAS_SCALE
+  );
   private double[] results = new double[10];
   private final DrawPane draw;
   private final StatsPane stats;
   private final transient CustomMouseAdapter mouseAdapter;
+  private final transient PredictionScheduler predictions =
+    new PredictionScheduler(this::showResults);
+  private final transient ModelHolder<Byte> models;
 
   private class CustomMouseAdapter extends MouseMotionAdapter {
 
-    private NetworkTrainer<Byte> trainer;
-
     @Override
     public void mouseDragged(MouseEvent e) {
-      if (trainer == null) return;
-
-      final int x = e.getX() / CELL_SIZE;
-      final int y = e.getY() / CELL_SIZE;
-
-      if (x < 0 || y < 0 || x >= App.IMAGE_SIDE || y >= App.IMAGE_SIDE) return;
-
-      image[x][y] = 1;
-
-      draw.repaint();
-      results =
-        trainer.testImage(
-          Arrays.stream(image).flatMapToDouble(Arrays::stream).toArray()
-        );
-      stats.update();
+      // Read the model once, so a swap can't happen halfway through
+      final ModelHolder.Model<Byte> model = models.get();
+      if (model == null) return;
+
+      if (e.getX() < 0 || e.getY() < 0) return;
+
+      final int scale = SIDE_LENGTH / canvas.resolution();
+      final Rectangle dirty = canvas.paint(e.getX() / scale, e.getY() / scale);
+      // Dragging over already filled pixels doesn't change the prediction
+      if (dirty == null) return;
+
+      draw.repaint(
+        dirty.x * scale,
+        dirty.y * scale,
+        dirty.width * scale,
+        dirty.height * scale
+      );
+      predictions.request(model.trainer(), canvas.downsample());
     }
   }
 
@@ -76,25 +97,7 @@ public class DisplayFrame extends JFrame {
     @Override
     protected void paintComponent(Graphics g) {
       super.paintComponent(g);
-
-      final Graphics2D g2 = (Graphics2D) g;
-      g2.setRenderingHint(
-        RenderingHints.KEY_ANTIALIASING,
-        RenderingHints.VALUE_ANTIALIAS_ON
-      );
-      g2.setRenderingHint(
-        RenderingHints.KEY_ALPHA_INTERPOLATION,
-        RenderingHints.VALUE_ALPHA_INTERPOLATION_QUALITY
-      );
-
-      for (int x = 0; x < image.length; x++) {
-        for (int y = 0; y < image.length; y++) {
-          final int scaledX = x * CELL_SIZE;
-          final int scaledY = y * CELL_SIZE;
-          g2.setColor(new Color(255, 255, 255, (int) (image[x][y] * 255)));
-          g2.fillRect(scaledX, scaledY, CELL_SIZE + 1, CELL_SIZE + 1);
-        }
-      }
+      canvas.render((Graphics2D) g, SIDE_LENGTH, SIDE_LENGTH);
     }
   }
 
@@ -123,6 +126,11 @@ public class DisplayFrame extends JFrame {
     }
 
     private final Label[] labels = new Label[results.length];
+    private final Label status;
+    private final JButton newTrainerButton;
+    private final JButton pauseButton;
+    private final JButton cancelButton;
+    private transient TrainingWorker training;
 
     StatsPane() {
       setLayout(new BoxLayout(this, BoxLayout.Y_AXIS));
@@ -142,19 +150,33 @@ public class DisplayFrame extends JFrame {
 
       final JButton resetButton = new CustomButton("Reset", font);
       resetButton.addActionListener(e -> {
-        for (double[] row : image) Arrays.fill(row, 0);
+        canvas.clear();
+        predictions.cancel();
         draw.repaint();
       });
       add(resetButton);
 
-      final JButton newTrainerButton = new CustomButton("New Trainer", font);
+      newTrainerButton = new CustomButton("New Trainer", font);
       newTrainerButton.addActionListener(e -> newTrainer());
       add(newTrainerButton);
 
+      pauseButton = new CustomButton("Pause", font);
+      pauseButton.addActionListener(e -> training.togglePause());
+      pauseButton.setEnabled(false);
+      add(pauseButton);
+
+      cancelButton = new CustomButton("Cancel", font);
+      cancelButton.addActionListener(e -> training.stop());
+      cancelButton.setEnabled(false);
+      add(cancelButton);
+
       final JButton loadTrainerButton = new CustomButton("Load Trainer", font);
       loadTrainerButton.addActionListener(e -> loadTrainer());
       add(loadTrainerButton);
 
+      status = new Label(" ", new Font("Barlow", Font.PLAIN, 14));
+      add(status);
+
       add(Box.createVerticalGlue());
     }
 
@@ -173,42 +195,205 @@ public class DisplayFrame extends JFrame {
     }
 
     private void newTrainer() {
+      // A watched file would otherwise replace the network being trained
       try {
-        mouseAdapter.trainer =
-          new App<Byte>()
-            .start(new int[] { App.IMAGE_SIZE, 256, 64, 16, 10 }, 50_000);
-        final JFileChooser chooser = new JFileChooser();
-        if (chooser.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
-          try (
-            ObjectOutputStream oos = new ObjectOutputStream(
-              new FileOutputStream(chooser.getSelectedFile())
-            )
-          ) {
-            oos.writeObject(mouseAdapter.trainer);
-          }
-        }
+        models.stopWatching();
       } catch (IOException ex) {
         ex.printStackTrace();
       }
+      training = new TrainingWorker();
+      newTrainerButton.setEnabled(false);
+      pauseButton.setEnabled(true);
+      cancelButton.setEnabled(true);
+      training.execute();
+    }
+
+    private void trainingFinished() {
+      training = null;
+      newTrainerButton.setEnabled(true);
+      pauseButton.setEnabled(false);
+      pauseButton.setText("Pause");
+      cancelButton.setEnabled(false);
+    }
+
+    private void saveTrainer(NetworkTrainer<Byte> trainer) {
+      final JFileChooser chooser = new JFileChooser();
+      if (chooser.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
+        try {
+          trainer.save(chooser.getSelectedFile());
+        } catch (IOException ex) {
+          ex.printStackTrace();
+        }
+      }
+    }
+
+    /**
+     * Loads the data and trains a new network off the event dispatch thread.
+     * The network is handed to the canvas as soon as it is created, so it can
+     * be tried out while it trains.
+     */
+    private class TrainingWorker
+      extends SwingWorker<TrainingJob.Outcome, String> {
+
+      private volatile TrainingJob<Byte> job;
+      private volatile boolean stopped;
+      private NetworkTrainer<Byte> trainer;
+
+      @Override
+      protected TrainingJob.Outcome doInBackground()
+        throws IOException, InterruptedException {
+        publish("Loading training data...");
+        final DataPoint[] data = App.readTrainingData();
+        if (stopped) return TrainingJob.Outcome.CANCELLED;
+
+        // Hold out the end of the training set to decide when to stop
+        final int trainingSize = data.length - VALIDATION_SIZE;
+        final DataPoint[] trainingData = Arrays.copyOf(data, trainingSize);
+        final DataPoint[] validationData = Arrays.copyOfRange(
+          data,
+          trainingSize,
+          data.length
+        );
+
+        final NetworkTrainer<Byte> newTrainer = new NetworkTrainer<>(
+          new TrainerParams(LAYER_SIZES),
+          trainingData
+        );
+        trainer = newTrainer;
+        models.set(newTrainer, "training");
+
+        job =
+          new TrainingJob<>(
+            newTrainer,
+            TRAINING_ITERATIONS,
+            REPORT_INTERVAL,
+            validationData,
+            STOPPING_CRITERIA,
+            this::report
+          );
+        if (stopped) job.cancel();
+        final TrainingJob.Outcome outcome = job.run();
+        if (outcome == TrainingJob.Outcome.CANCELLED) return outcome;
+
+        publish("Loading testing data...");
+        final double accuracy = newTrainer.testAccuracy(App.readTestingData());
+        publish(
+          String.format(
+            "<html><center>Stopped: %s<br>Testing accuracy: %.2f%%" +
+            "</center></html>",
+            outcome.name().toLowerCase().replace('_', ' '),
+            accuracy * 100
+          )
+        );
+        return outcome;
+      }
+
+      private void report(TrainingJob.Progress progress) {
+        final String validation = Double.isNaN(progress.validationAccuracy())
+          ? "not validated yet"
+          : String.format(
+            "validation accuracy %.1f%%",
+            progress.validationAccuracy() * 100
+          );
+        publish(
+          String.format(
+            "<html><center>Epoch %d, iteration %d/%d, batch size %d<br>" +
+            "%.0f samples/s, cost %.4f, accuracy %.1f%%<br>" +
+            "%s</center></html>",
+            progress.epoch(),
+            progress.iteration(),
+            progress.iterations(),
+            progress.batchSize(),
+            progress.samplesPerSecond(),
+            progress.cost(),
+            progress.accuracy() * 100,
+            validation
+          )
+        );
+      }
+
+      @Override
+      protected void process(List<String> chunks) {
+        status.setText(chunks.get(chunks.size() - 1));
+      }
+
+      @Override
+      protected void done() {
+        trainingFinished();
+        try {
+          if (get() != TrainingJob.Outcome.CANCELLED) saveTrainer(trainer);
+          else status.setText("Training cancelled");
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+          status.setText("Training failed");
+          ex.getCause().printStackTrace();
+        }
+      }
+
+      void togglePause() {
+        final TrainingJob<Byte> current = job;
+        if (current == null) return;
+
+        if (current.isPaused()) {
+          current.resume();
+          pauseButton.setText("Pause");
+        } else {
+          current.pause();
+          pauseButton.setText("Resume");
+        }
+      }
+
+      void stop() {
+        stopped = true;
+        final TrainingJob<Byte> current = job;
+        if (current != null) current.cancel();
+      }
     }
 
-    @SuppressWarnings("unchecked")
     private void loadTrainer() {
       final JFileChooser chooser = new JFileChooser();
       if (
         chooser.showOpenDialog(DisplayFrame.this) == JFileChooser.APPROVE_OPTION
       ) {
-        try (
-          ObjectInputStream oos = new ObjectInputStream(
-            new FileInputStream(chooser.getSelectedFile())
-          )
-        ) {
-          mouseAdapter.trainer = (NetworkTrainer<Byte>) oos.readObject();
-        } catch (IOException | ClassNotFoundException ex) {
+        final Path file = chooser.getSelectedFile().toPath();
+        status.setText("Loading " + file.getFileName() + "...");
+
+        // Predictions carry on with the current model while this one loads
+        models
+          .load(file)
+          .exceptionally(ex -> {
+            SwingUtilities.invokeLater(() ->
+              status.setText("Couldn't load " + file.getFileName())
+            );
+            ex.printStackTrace();
+            return null;
+          });
+
+        // Pick up the file again whenever it is retrained and saved
+        try {
+          models.watch(file);
+        } catch (IOException ex) {
           ex.printStackTrace();
         }
       }
     }
+
+    private void modelPublished(ModelHolder.Model<Byte> model) {
+      if (training != null) return;
+      status.setText(
+        String.format(
+          "Model %d: %s",
+          model.generation(),
+          Path.of(model.source()).getFileName()
+        )
+      );
+    }
+  }
+
+  private void showResults(double[] outputs) {
+    results = outputs;
+    stats.update();
   }
 
   public DisplayFrame() {
@@ -223,6 +408,10 @@ public class DisplayFrame extends JFrame {
     getContentPane().add(draw);
     stats = new StatsPane();
     getContentPane().add(stats);
+    models =
+      new ModelHolder<>(model ->
+        SwingUtilities.invokeLater(() -> stats.modelPublished(model))
+      );
     getContentPane().add(Box.createHorizontalGlue());
     setVisible(true);
   }
@@ -0,0 +1,94 @@
+package network.swing;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import javax.swing.SwingUtilities;
+import network.inference.PredictionCache;
+import network.trainer.NetworkTrainer;
+
+/**
+ * Runs predictions for the drawing canvas on a background thread.
+ * <p>Bursts of requests are coalesced so that only the latest canvas state
+ * is evaluated, and results that have been superseded by a newer request
+ * are dropped instead of being published to the event dispatch thread.</p>
+ * <p>Canvas states that were already evaluated by the same version of the
+ * network, such as after an undo, are answered from a cache.</p>
+ */
+class PredictionScheduler {
+
+  private static final int CACHE_ENTRIES = 256;
+
+  private final ExecutorService worker = Executors.newSingleThreadExecutor(
+    task -> {
+      final Thread thread = new Thread(task, "prediction-worker");
+      thread.setDaemon(true);
+      return thread;
+    }
+  );
+
+  private final AtomicReference<Request> pending = new AtomicReference<>();
+  private final AtomicLong generation = new AtomicLong();
+  private final PredictionCache cache = new PredictionCache(CACHE_ENTRIES);
+  private final Consumer<double[]> publisher;
+
+  private record Request(
+    NetworkTrainer<?> trainer,
+    double[] inputs,
+    long generation
+  ) {}
+
+  /**
+   * @param publisher the consumer of the network outputs,
+   * always called on the event dispatch thread
+   */
+  PredictionScheduler(Consumer<double[]> publisher) {
+    this.publisher = publisher;
+  }
+
+  /**
+   * Schedules a prediction for the given inputs, replacing any request
+   * that has not started yet.
+   * @param trainer the trainer holding the network to evaluate
+   * @param inputs a snapshot of the inputs, which must not be modified after
+   */
+  void request(NetworkTrainer<?> trainer, double[] inputs) {
+    final Request request = new Request(
+      trainer,
+      inputs,
+      generation.incrementAndGet()
+    );
+    // Only schedule a drain if there wasn't already one waiting for a request
+    if (pending.getAndSet(request) == null) worker.execute(this::drain);
+  }
+
+  /**
+   * Drops every request that has not been published yet.
+   */
+  void cancel() {
+    generation.incrementAndGet();
+    pending.set(null);
+  }
+
+  private void drain() {
+    final Request request = pending.getAndSet(null);
+    if (request == null) return;
+
+    // Only one prediction runs at a time, so it may as well use every core
+    final double[] outputs = cache.calculateOutputsParallel(
+      request.trainer.getNetwork(),
+      request.inputs
+    );
+
+    if (isSuperseded(request)) return;
+    SwingUtilities.invokeLater(() -> {
+      if (!isSuperseded(request)) publisher.accept(outputs);
+    });
+  }
+
+  private boolean isSuperseded(Request request) {
+    return request.generation != generation.get();
+  }
+}
@@ -1,139 +1,311 @@
 package network.trainer;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
-import java.util.Arrays;
-import java.util.Random;
+import network.BatchView;
 import network.DataPoint;
+import network.core.GradientNoise;
 import network.core.NeuralNetwork;
+import network.core.NeuralNetwork.BatchResult;
+import network.cost.ICost;
+import network.sampler.ISampler;
+import network.sampler.ShuffleSampler;
+import network.schedule.ConstantBatchSchedule;
+import network.schedule.IBatchSchedule;
 
 public class NetworkTrainer<T> implements Serializable {
 
   private static final long serialVersionUID = 32L;
 
-  private static final Random RANDOM = new Random();
-
   private final NeuralNetwork<T> network;
 
-  private final transient Batch<DataPoint>[] batches;
+  private final transient ISampler sampler;
+  // The indices of the training data in the order of the current epoch
+  private final transient int[] order;
+  private final transient BatchView batch;
+  private final int miniBatchSize;
   private final double initialLearnRate;
   private double currentLearnRate;
   private final double learnRateDecay;
-  private int batchIndex;
+  private int batchStart;
   private int epochCount;
 
+  private transient IBatchSchedule batchSchedule;
+  private transient GradientNoise noise;
+  // The size of the batches of the current epoch
+  private transient int batchSize;
+  private transient long steps;
+
   /**
    * @param params the training parameters
    * @param trainingData the training data
    */
   public NetworkTrainer(TrainerParams params, DataPoint[] trainingData) {
-    this.batches = splitData(trainingData, params.miniBatchSize());
-
-    network =
+    this(
+      params,
       new NeuralNetwork<>(
         params.layerSizes(),
         params.regularisation(),
         params.momentum()
-      );
+      ),
+      trainingData
+    );
+  }
+
+  /**
+   * Trains an existing network, such as one built from a list of layers.
+   * <p>The layer sizes, regularisation and momentum of {@code params} are
+   * ignored, as the network already has its own.</p>
+   * @param params the training parameters
+   * @param network the network to train
+   * @param trainingData the training data
+   */
+  public NetworkTrainer(
+    TrainerParams params,
+    NeuralNetwork<T> network,
+    DataPoint[] trainingData
+  ) {
+    this(
+      params,
+      network,
+      trainingData,
+      new ShuffleSampler(trainingData.length)
+    );
+  }
+
+  /**
+   * @param params the training parameters
+   * @param network the network to train
+   * @param trainingData the training data, which is never modified
+   * @param sampler the order to visit the training data in each epoch
+   */
+  public NetworkTrainer(
+    TrainerParams params,
+    NeuralNetwork<T> network,
+    DataPoint[] trainingData,
+    ISampler sampler
+  ) {
+    if (sampler.epochSize() < params.miniBatchSize()) {
+      throw new IllegalArgumentException("Epochs are smaller than a batch");
+    }
+    this.network = network;
+    this.sampler = sampler;
+    miniBatchSize = params.miniBatchSize();
+
+    order = new int[sampler.epochSize()];
+    sampler.nextEpoch(order);
+    batch = new BatchView(trainingData, order, miniBatchSize);
+    batchSchedule = new ConstantBatchSchedule();
+    noise = new GradientNoise();
+    batchSize = miniBatchSize;
 
     initialLearnRate = params.initialLearnRate();
     currentLearnRate = initialLearnRate;
     learnRateDecay = params.learnRateDecay();
   }
 
+  /**
+   * Reads a trainer previously written with {@link #save(File)}.
+   * @param file the file to read the trainer from
+   * @return the trainer
+   * @throws IOException if the file could not be read
+   */
+  @SuppressWarnings("unchecked")
+  public static <T> NetworkTrainer<T> load(File file) throws IOException {
+    try (
+      ObjectInputStream ois = new ObjectInputStream(
+        new BufferedInputStream(new FileInputStream(file))
+      )
+    ) {
+      return (NetworkTrainer<T>) ois.readObject();
+    } catch (ClassNotFoundException e) {
+      throw new IOException("Not a saved trainer: " + file, e);
+    }
+  }
+
+  /**
+   * Writes this trainer and its network to a file.
+   * @param file the file to write the trainer to
+   * @throws IOException if the file could not be written
+   */
+  public void save(File file) throws IOException {
+    try (
+      ObjectOutputStream oos = new ObjectOutputStream(
+        new BufferedOutputStream(new FileOutputStream(file))
+      )
+    ) {
+      oos.writeObject(this);
+    }
+  }
+
   public double[] testImage(double[] image) {
     return network.calculateOutputs(image);
   }
 
-  public void run(int iterations) {
-    for (int i = 0; i < iterations; i++) {
-      network.learn(batches[batchIndex].data, currentLearnRate);
-      batchIndex++;
+  /**
+   * Evaluates a single image with as little latency as possible, splitting
+   * wide layers across threads.
+   * @param image the image to evaluate
+   * @return the outputs of the network
+   */
+  public double[] testImageParallel(double[] image) {
+    return network.calculateOutputsParallel(image);
+  }
 
-      if (batchIndex >= batches.length) epochCompleted();
-    }
+  public void run(int iterations) {
+    for (int i = 0; i < iterations; i++) step();
+    network.publishSnapshot();
     System.out.println("Current learn rate: " + currentLearnRate);
   }
 
+  /**
+   * Trains the network on the next mini batch.
+   * @return the cost and accuracy of the network on the mini batch
+   */
+  public BatchResult step() {
+    batch.moveTo(batchStart, batchSize);
+    final int interval = batchSchedule.noiseInterval();
+    final double learnRate =
+      currentLearnRate * batchSchedule.learnRateScale(batchSize, miniBatchSize);
+    final BatchResult result = network.learn(
+      batch,
+      learnRate,
+      interval > 0 && steps % interval == 0 ? noise : null
+    );
+    batchStart += batchSize;
+    steps++;
+
+    // Data points left over that don't fill a batch sit this epoch out
+    if (batchStart + batchSize > order.length) epochCompleted();
+    return result;
+  }
+
+  /**
+   * Changes how the size of the batches evolves from the next epoch on.
+   * @param batchSchedule the schedule of batch sizes
+   */
+  public void setBatchSchedule(IBatchSchedule batchSchedule) {
+    this.batchSchedule = batchSchedule;
+  }
+
+  /**
+   * @return the estimate of the gradient noise, measured as often as the
+   * batch schedule asks for
+   */
+  public GradientNoise getGradientNoise() {
+    return noise;
+  }
+
+  public NeuralNetwork<T> getNetwork() {
+    return network;
+  }
+
+  public int getEpochCount() {
+    return epochCount;
+  }
+
+  /**
+   * @return the batch size the learn rate was chosen for
+   */
+  public int getMiniBatchSize() {
+    return miniBatchSize;
+  }
+
+  /**
+   * @return the size of the batches of the current epoch
+   */
+  public int getBatchSize() {
+    return batchSize;
+  }
+
   private void epochCompleted() {
-    batchIndex = 0;
+    batchStart = 0;
     epochCount++;
-    shuffleArray(batches);
+    sampler.nextEpoch(order);
     currentLearnRate =
       (1 / (1 + learnRateDecay * epochCount)) * initialLearnRate;
+
+    final int nextSize = Math.min(
+      batchSchedule.batchSize(epochCount, batchSize, noise),
+      order.length
+    );
+    batchSize = nextSize;
   }
 
+  /**
+   * Counts how many times the network predicts each output.
+   * <p>This must be called from the thread training the network, as it
+   * publishes the current parameters before testing them.</p>
+   * @param testingData the data to test the network on
+   * @return the number of predictions of each output
+   */
   public int[] test(DataPoint[] testingData) {
-    shuffleArray(testingData);
-
+    final NeuralNetwork.Snapshot snapshot = network.publishSnapshot();
     final int[] results = new int[testingData[0].expectedOutputs().length];
 
     for (DataPoint testData : testingData) {
-      results[getMaxIndex(network.calculateOutputs(testData.inputs()))]++;
+      final double[] outputs = snapshot.calculateOutputs(testData.inputs());
+      results[NeuralNetwork.getMaxIndex(outputs)]++;
     }
 
     return results;
   }
 
+  /**
+   * Calculates the fraction of the data the network classifies correctly.
+   * <p>This must be called from the thread training the network, as it
+   * publishes the current parameters before testing them.</p>
+   * @param testingData the data to test the network on
+   * @return the accuracy of the network between 0 and 1
+   */
   public double testAccuracy(DataPoint[] testingData) {
-    shuffleArray(testingData);
-
+    final NeuralNetwork.Snapshot snapshot = network.publishSnapshot();
     int correct = 0;
 
     for (DataPoint testData : testingData) {
       if (
         testData.expectedOutput() ==
-        getMaxIndex(network.calculateOutputs(testData.inputs()))
+        NeuralNetwork.getMaxIndex(
+          snapshot.calculateOutputs(testData.inputs())
+        )
       ) correct++;
     }
 
     return (double) correct / testingData.length;
   }
 
-  private static int getMaxIndex(double[] values) {
-    int maxIndex = 0;
-
-    for (int i = 1; i < values.length; i++) {
-      if (values[i] > values[maxIndex]) maxIndex = i;
-    }
-
-    return maxIndex;
-  }
-
-  @SuppressWarnings("unchecked")
-  private static <D> Batch<D>[] splitData(D[] data, int batchSize) {
-    shuffleArray(data);
-
-    final Batch<D>[] batches = new Batch[data.length / batchSize];
-    for (int i = 0; i < batches.length; i++) {
-      batches[i] =
-        new Batch<>(
-          Arrays.copyOfRange(data, i * batchSize, (i + 1) * batchSize)
-        );
-    }
-
-    return batches;
-  }
-
-  private static void shuffleArray(Object[] array) {
-    int elementsRemaining = array.length;
-    int randomIndex;
-
-    while (elementsRemaining > 1) {
-      randomIndex = RANDOM.nextInt(elementsRemaining);
-      final Object chosenElement = array[randomIndex];
-
-      elementsRemaining--;
-      array[randomIndex] = array[elementsRemaining];
-      array[elementsRemaining] = chosenElement;
+  /**
+   * Measures the cost and accuracy of the network on held out data without
+   * training on it.
+   * <p>This must be called from the thread training the network, as it
+   * publishes the current parameters before testing them.</p>
+   * @param data the data to evaluate the network on
+   * @return the average cost and accuracy of the network on the data
+   */
+  public BatchResult evaluate(DataPoint[] data) {
+    final NeuralNetwork.Snapshot snapshot = network.publishSnapshot();
+    final double[][] inputs = new double[data.length][];
+    for (int i = 0; i < data.length; i++) inputs[i] = data[i].inputs();
+
+    final double[][] outputs = snapshot.calculateOutputs(inputs);
+    final ICost costFunction = network.getCost();
+    double cost = 0;
+    int correct = 0;
+    for (int i = 0; i < data.length; i++) {
+      final double[] expected = data[i].expectedOutputs();
+      cost += costFunction.calculateCost(outputs[i], expected);
+      if (
+        NeuralNetwork.getMaxIndex(outputs[i]) == data[i].expectedOutput()
+      ) correct++;
     }
-  }
-
-  private static class Batch<D> {
 
-    D[] data;
-
-    Batch(D[] data) {
-      this.data = data;
-    }
+    return new BatchResult(cost / data.length, (double) correct / data.length);
   }
 }
@@ -0,0 +1,48 @@
+package network.trainer;
+
+import java.time.Duration;
+
+/**
+ * When a {@link TrainingJob} should stop before running all its iterations,
+ * based on the accuracy of the network on held out validation data.
+ * @param validationInterval the number of iterations between each validation
+ * @param patience the number of validations in a row without improvement
+ * after which training has plateaued
+ * @param minImprovement the smallest increase in validation accuracy that
+ * resets the patience; the best parameters are kept on any increase
+ * @param targetAccuracy the validation accuracy at which to stop, or above 1
+ * to never stop early on accuracy
+ * @param timeBudget the longest time to train for, excluding paused time,
+ * or null for no limit
+ */
+public record StoppingCriteria(
+  int validationInterval,
+  int patience,
+  double minImprovement,
+  double targetAccuracy,
+  Duration timeBudget
+) {
+  public StoppingCriteria {
+    if (validationInterval <= 0) {
+      throw new IllegalArgumentException("Validation interval must be > 0");
+    }
+    if (patience <= 0) {
+      throw new IllegalArgumentException("Patience must be > 0");
+    }
+  }
+
+  /**
+   * Stops once the validation accuracy plateaus or reaches the target.
+   * @param validationInterval the number of iterations between each validation
+   * @param patience the number of validations in a row without improvement
+   * after which training has plateaued
+   * @param targetAccuracy the validation accuracy at which to stop
+   */
+  public StoppingCriteria(
+    int validationInterval,
+    int patience,
+    double targetAccuracy
+  ) {
+    this(validationInterval, patience, 0.001, targetAccuracy, null);
+  }
+}
@@ -12,7 +12,7 @@ public record TrainerParams(
   int miniBatchSize
 ) {
   public TrainerParams(int[] layerSizes) {
-    this(layerSizes, 0.6, 0.075, 0.1, 0.9, 32);
+    this(layerSizes, 0.3, 0.075, 0.1, 0.9, 32);
     System.out.println("Initial learn rate: " + initialLearnRate);
     System.out.println("Learn rate decay: " + learnRateDecay);
     System.out.println("Regularisation: " + regularisation);
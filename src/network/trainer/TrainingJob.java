@@ -0,0 +1,296 @@
+package network.trainer;
+
+import java.util.function.Consumer;
+import network.DataPoint;
+import network.core.NeuralNetwork;
+import network.core.NeuralNetwork.BatchResult;
+
+/**
+ * Runs a {@link NetworkTrainer} for up to a fixed number of iterations in a
+ * way that can be paused, resumed and cancelled from other threads, reporting
+ * its progress as it goes.
+ * <p>Given validation data and {@link StoppingCriteria}, the job stops as
+ * soon as the network stops improving on the validation data, and rolls the
+ * network back to the parameters that did best on it.</p>
+ */
+public class TrainingJob<T> {
+
+  private final NetworkTrainer<T> trainer;
+  private final int iterations;
+  private final int reportInterval;
+  private final Consumer<Progress> listener;
+  private final DataPoint[] validationData;
+  private final StoppingCriteria criteria;
+
+  private final Object pauseLock = new Object();
+  private boolean paused;
+  private volatile boolean cancelled;
+
+  private NeuralNetwork.Snapshot best;
+  private double bestValidationAccuracy = Double.NaN;
+  // The accuracy the next improvement is measured from
+  private double plateauAccuracy = Double.NaN;
+  private double validationAccuracy = Double.NaN;
+  private int validationsWithoutImprovement;
+
+  /**
+   * Why a job stopped running.
+   */
+  public enum Outcome {
+    /** Every iteration ran */
+    COMPLETED,
+    /** The job was cancelled */
+    CANCELLED,
+    /** The validation accuracy reached the target */
+    TARGET_REACHED,
+    /** The validation accuracy stopped improving */
+    PLATEAUED,
+    /** The time budget ran out */
+    OUT_OF_TIME,
+  }
+
+  /**
+   * A summary of the batches trained since the last report.
+   * @param iteration the number of iterations completed so far
+   * @param iterations the total number of iterations of the job
+   * @param epoch the current epoch of the trainer
+   * @param batchSize the size of the trainer's batches in the current epoch
+   * @param samplesPerSecond the training throughput, excluding paused time
+   * @param cost the average cost of the network over the reported batches
+   * @param accuracy the average accuracy over the reported batches
+   * @param validationAccuracy the accuracy on the validation data at the
+   * last validation, or NaN if it hasn't been validated yet
+   */
+  public record Progress(
+    int iteration,
+    int iterations,
+    int epoch,
+    int batchSize,
+    double samplesPerSecond,
+    double cost,
+    double accuracy,
+    double validationAccuracy
+  ) {}
+
+  /**
+   * @param trainer the trainer to run
+   * @param iterations the number of mini batches to train on
+   * @param reportInterval the number of iterations between each report
+   * @param listener the consumer of the progress reports,
+   * called on the training thread
+   */
+  public TrainingJob(
+    NetworkTrainer<T> trainer,
+    int iterations,
+    int reportInterval,
+    Consumer<Progress> listener
+  ) {
+    this(trainer, iterations, reportInterval, null, null, listener);
+  }
+
+  /**
+   * @param trainer the trainer to run
+   * @param iterations the largest number of mini batches to train on
+   * @param reportInterval the number of iterations between each report
+   * @param validationData the data to validate the network on, which
+   * shouldn't be part of the trainer's training data
+   * @param criteria when to stop before every iteration has run
+   * @param listener the consumer of the progress reports,
+   * called on the training thread
+   */
+  public TrainingJob(
+    NetworkTrainer<T> trainer,
+    int iterations,
+    int reportInterval,
+    DataPoint[] validationData,
+    StoppingCriteria criteria,
+    Consumer<Progress> listener
+  ) {
+    if ((validationData == null) != (criteria == null)) {
+      throw new IllegalArgumentException(
+        "Stopping criteria need validation data"
+      );
+    }
+    this.trainer = trainer;
+    this.iterations = iterations;
+    this.reportInterval = reportInterval;
+    this.validationData = validationData;
+    this.criteria = criteria;
+    this.listener = listener;
+  }
+
+  /**
+   * Trains the network on the calling thread until every iteration has run,
+   * the stopping criteria are met or the job is cancelled.
+   * @return why the job stopped
+   * @throws InterruptedException if interrupted while paused
+   */
+  public Outcome run() throws InterruptedException {
+    final long start = System.nanoTime();
+    long windowStart = start;
+    long pausedTime = 0;
+    double cost = 0;
+    double accuracy = 0;
+    int batches = 0;
+    long samples = 0;
+
+    try {
+      for (int i = 1; i <= iterations; i++) {
+        // Paused time doesn't count towards the throughput or the budget
+        final long paused = awaitResume();
+        windowStart += paused;
+        pausedTime += paused;
+        if (cancelled) return Outcome.CANCELLED;
+
+        samples += trainer.getBatchSize();
+        final BatchResult result = trainer.step();
+        cost += result.cost();
+        accuracy += result.accuracy();
+        batches++;
+
+        Outcome outcome = null;
+        if (criteria != null) {
+          if (i % criteria.validationInterval() == 0) outcome = validate();
+          if (
+            outcome == null &&
+            criteria.timeBudget() != null &&
+            System.nanoTime() - start - pausedTime >
+            criteria.timeBudget().toNanos()
+          ) outcome = Outcome.OUT_OF_TIME;
+        }
+        if (outcome == null && i == iterations) outcome = Outcome.COMPLETED;
+
+        if (i % reportInterval == 0 || outcome != null) {
+          final long now = System.nanoTime();
+          final double seconds = (now - windowStart) / 1e9;
+          listener.accept(
+            new Progress(
+              i,
+              iterations,
+              trainer.getEpochCount(),
+              trainer.getBatchSize(),
+              samples / seconds,
+              cost / batches,
+              accuracy / batches,
+              validationAccuracy
+            )
+          );
+          windowStart = now;
+          cost = 0;
+          accuracy = 0;
+          batches = 0;
+          samples = 0;
+        }
+
+        if (outcome != null) {
+          restoreBest();
+          return outcome;
+        }
+      }
+
+      return Outcome.COMPLETED;
+    } finally {
+      // Make the final parameters visible to readers, even if cancelled
+      trainer.getNetwork().publishSnapshot();
+    }
+  }
+
+  /**
+   * Evaluates the network on the validation data, keeping a snapshot of it
+   * if it is the best so far.
+   * @return the outcome if training should stop, or null to keep going
+   */
+  private Outcome validate() {
+    validationAccuracy = trainer.evaluate(validationData).accuracy();
+
+    if (best == null || validationAccuracy > bestValidationAccuracy) {
+      // Evaluating published the parameters it used
+      best = trainer.getNetwork().snapshot();
+      bestValidationAccuracy = validationAccuracy;
+    }
+    // Only improvements of at least the minimum hold off the plateau
+    if (
+      Double.isNaN(plateauAccuracy) ||
+      validationAccuracy >= plateauAccuracy + criteria.minImprovement()
+    ) {
+      plateauAccuracy = validationAccuracy;
+      validationsWithoutImprovement = 0;
+    } else {
+      validationsWithoutImprovement++;
+    }
+
+    if (validationAccuracy >= criteria.targetAccuracy()) {
+      return Outcome.TARGET_REACHED;
+    }
+    if (validationsWithoutImprovement >= criteria.patience()) {
+      return Outcome.PLATEAUED;
+    }
+    return null;
+  }
+
+  /**
+   * Rolls the network back to the best parameters seen, validating the
+   * final parameters first if they haven't been.
+   */
+  private void restoreBest() {
+    if (criteria == null) return;
+
+    final NeuralNetwork<T> network = trainer.getNetwork();
+    if (best == null || network.snapshot().version() != best.version()) {
+      final double finalAccuracy = trainer.evaluate(validationData).accuracy();
+      if (best == null || finalAccuracy >= bestValidationAccuracy) return;
+      network.restore(best);
+    }
+  }
+
+  /**
+   * @return the best accuracy on the validation data so far,
+   * or NaN if it hasn't been validated yet
+   */
+  public double getBestValidationAccuracy() {
+    return bestValidationAccuracy;
+  }
+
+  /**
+   * Blocks while the job is paused.
+   * @return the number of nanoseconds spent paused
+   * @throws InterruptedException if interrupted while paused
+   */
+  private long awaitResume() throws InterruptedException {
+    synchronized (pauseLock) {
+      if (!paused) return 0;
+      final long start = System.nanoTime();
+      while (paused && !cancelled) pauseLock.wait();
+      return System.nanoTime() - start;
+    }
+  }
+
+  public void pause() {
+    synchronized (pauseLock) {
+      paused = true;
+    }
+  }
+
+  public void resume() {
+    synchronized (pauseLock) {
+      paused = false;
+      pauseLock.notifyAll();
+    }
+  }
+
+  public boolean isPaused() {
+    synchronized (pauseLock) {
+      return paused;
+    }
+  }
+
+  /**
+   * Stops the job before its next iteration, waking it if it is paused.
+   */
+  public void cancel() {
+    synchronized (pauseLock) {
+      cancelled = true;
+      pauseLock.notifyAll();
+    }
+  }
+}